@@ -0,0 +1,144 @@
+package finance.bench;
+
+import finance.Backtester;
+import finance.FibBacktester;
+import finance.FibStrategy;
+import finance.PerformanceStats;
+import finance.PositionMatrix;
+import finance.PriceSeries;
+import finance.PriceStore;
+import finance.TradingStrategy1;
+import finance.YHFinanceDataFetcher;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+// Full backtest runs over a synthetic universe as run by MainApp, including console output and the PnL
+// chart, and the backtest loop alone over in-memory series, as used by the parameter sweep
+
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = "-Djava.awt.headless=true")
+public class BacktestBenchmark {
+
+    /**
+     * Tickers with Trading Strategy 1 positions, written to their processed files.
+     */
+    @State(Scope.Benchmark)
+    public static class PositionUniverse {
+        @Param({"50", "1000", "10000"})
+        public int tickers;
+
+        @Param({"1260"})
+        public int days;
+
+        List<PriceSeries> signalled;
+
+        @Setup(Level.Trial)
+        public void setUp() throws IOException {
+            SyntheticUniverse.clean();
+            for (String fileName : SyntheticUniverse.writeRawFiles(tickers, days)) {
+                YHFinanceDataFetcher.addReturnsColumn(fileName);
+                TradingStrategy1.applyMovingAverageStrategy(PriceStore.fileNameOf(PriceStore.tickerOf(fileName)), 5, 20);
+            }
+            PositionMatrix.clear();
+            signalled = load(SyntheticUniverse.processedFiles());
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() {
+            SyntheticUniverse.clean();
+        }
+    }
+
+    /**
+     * Tickers with Fibonacci levels, written to their processed files.
+     */
+    @State(Scope.Benchmark)
+    public static class FibUniverse {
+        @Param({"50", "1000", "10000"})
+        public int tickers;
+
+        @Param({"1260"})
+        public int days;
+
+        List<PriceSeries> signalled;
+
+        @Setup(Level.Trial)
+        public void setUp() throws IOException {
+            SyntheticUniverse.clean();
+            for (String fileName : SyntheticUniverse.writeRawFiles(tickers, days)) {
+                YHFinanceDataFetcher.addReturnsColumn(fileName);
+                FibStrategy.applyFibStrategy(PriceStore.fileNameOf(PriceStore.tickerOf(fileName)), 10, 7);
+            }
+            signalled = load(SyntheticUniverse.processedFiles());
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() {
+            SyntheticUniverse.clean();
+        }
+    }
+
+    @Benchmark
+    public void tradeOnStrategy(PositionUniverse universe) {
+        Backtester.TradeOnStrategy();
+    }
+
+    @Benchmark
+    public void fibTradeOnStrategy(FibUniverse universe) {
+        FibBacktester.TradeOnStrategy(100000, 0.5, 0.25, 0.2, 0.1, 0.2, 0.02, 0.05);
+    }
+
+    /**
+     * Same as tradeOnStrategy with nothing held in PriceStore, so that every processed file is streamed from disk.
+     */
+    @Benchmark
+    public void tradeOnStrategyFromDisk(PositionUniverse universe) {
+        PriceStore.clear();
+        Backtester.TradeOnStrategy();
+    }
+
+    @Benchmark
+    public void fibTradeOnStrategyFromDisk(FibUniverse universe) {
+        PriceStore.clear();
+        FibBacktester.TradeOnStrategy(100000, 0.5, 0.25, 0.2, 0.1, 0.2, 0.02, 0.05);
+    }
+
+    @Benchmark
+    public PerformanceStats evaluate(PositionUniverse universe) {
+        return Backtester.evaluate(universe.signalled);
+    }
+
+    @Benchmark
+    public PerformanceStats fibEvaluate(FibUniverse universe) {
+        return FibBacktester.evaluate(universe.signalled, 100000, 0.5, 0.25, 0.2, 0.1, 0.2, 0.02, 0.05);
+    }
+
+    private static List<PriceSeries> load(File[] processedFiles) throws IOException {
+        List<PriceSeries> series = new ArrayList<>();
+        for (File file : processedFiles) series.add(PriceStore.load(file.getName()));
+        Collections.sort(series, (a, b) -> a.ticker.compareTo(b.ticker));
+        return series;
+    }
+}
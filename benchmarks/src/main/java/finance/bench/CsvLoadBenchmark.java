@@ -0,0 +1,85 @@
+package finance.bench;
+
+import finance.PriceSeries;
+import finance.PriceStore;
+import finance.TradingStrategy3;
+import finance.YHFinanceDataFetcher;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+// Time to process, parse and write the CSV files of a whole synthetic universe
+
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+@State(Scope.Benchmark)
+public class CsvLoadBenchmark {
+
+    @Param({"50", "1000", "10000"})
+    public int tickers;
+
+    @Param({"1260"})
+    public int days;
+
+    private List<String> fileNames;
+
+    @Setup
+    public void setUp() throws IOException {
+        SyntheticUniverse.clean();
+        fileNames = SyntheticUniverse.writeRawFiles(tickers, days);
+        for (String fileName : fileNames) YHFinanceDataFetcher.addReturnsColumn(fileName);
+    }
+
+    @TearDown
+    public void tearDown() {
+        SyntheticUniverse.clean();
+    }
+
+    /**
+     * Reads each raw file and writes it back with the returns column.
+     */
+    @Benchmark
+    public void addReturnsColumn() {
+        for (String fileName : fileNames) YHFinanceDataFetcher.addReturnsColumn(fileName);
+    }
+
+    /**
+     * Parses each processed file into its columns.
+     */
+    @Benchmark
+    public void loadProcessed(Blackhole blackhole) throws IOException {
+        for (String fileName : fileNames) {
+            String processed = PriceStore.fileNameOf(PriceStore.tickerOf(fileName));
+            blackhole.consume(PriceSeries.load(PriceStore.tickerOf(fileName), Paths.get(SyntheticUniverse.DATA_FOLDER + processed)));
+        }
+    }
+
+    /**
+     * Writes each processed file again with the indicator columns of Trading Strategy 3.
+     */
+    @Benchmark
+    public void writeStrategy3() {
+        for (String fileName : fileNames) {
+            TradingStrategy3.applyCustomStrategy(PriceStore.fileNameOf(PriceStore.tickerOf(fileName)), 5, 20, 14, 20);
+        }
+    }
+}
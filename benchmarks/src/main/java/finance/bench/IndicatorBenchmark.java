@@ -0,0 +1,67 @@
+package finance.bench;
+
+import finance.Indicators;
+import finance.PriceSeries;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+// Throughput of the indicator kernels over one ticker's history
+
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class IndicatorBenchmark {
+
+    @Param({"1260", "100000"}) // five years of daily bars, or a long intraday history
+    public int days;
+
+    @Param({"20"})
+    public int window;
+
+    private PriceSeries series;
+
+    @Setup
+    public void setUp() {
+        series = SyntheticUniverse.series(0, days);
+    }
+
+    @Benchmark
+    public double[] movingAverage() {
+        return Indicators.sma(series.adjClose, window);
+    }
+
+    @Benchmark
+    public double[] ema() {
+        return Indicators.ema(series.adjClose, window);
+    }
+
+    @Benchmark
+    public double[] rsi() {
+        return Indicators.rsi(series.adjClose, window);
+    }
+
+    @Benchmark
+    public double[] atr() {
+        return Indicators.atr(series.high, series.low, series.close, window);
+    }
+
+    @Benchmark
+    public double[] swingHigh() {
+        return Indicators.rollingMax(series.high, window);
+    }
+}
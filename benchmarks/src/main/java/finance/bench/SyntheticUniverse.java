@@ -0,0 +1,140 @@
+package finance.bench;
+
+import finance.CsvWriter;
+import finance.PriceSeries;
+import finance.PriceStore;
+import finance.PositionMatrix;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+
+// Reproducible random-walk price data for the benchmarks, in memory or as CSV files under data/
+
+final class SyntheticUniverse {
+
+    static final String DATA_FOLDER = "data/";
+    static final String TICKER_PREFIX = "BENCH";
+    private static final long SEED = 42;
+    private static final LocalDate FIRST_DATE = LocalDate.of(2000, 1, 3);
+
+    private SyntheticUniverse() {
+    }
+
+    static String ticker(int index) {
+        return String.format("%s%05d", TICKER_PREFIX, index);
+    }
+
+    /**
+     * Builds the series of one ticker; the same index and length always give the same prices.
+     */
+    static PriceSeries series(int index, int days) {
+        SplittableRandom random = new SplittableRandom(SEED + index);
+        long[] dates = new long[days];
+        double[] open = new double[days];
+        double[] high = new double[days];
+        double[] low = new double[days];
+        double[] close = new double[days];
+        double[] volume = new double[days];
+        double[] returns = new double[days];
+
+        double price = 20 + random.nextDouble() * 200;
+        LocalDate date = FIRST_DATE;
+        for (int i = 0; i < days; i++) {
+            while (date.getDayOfWeek().getValue() > 5) date = date.plusDays(1); // weekdays only
+            dates[i] = date.toEpochDay();
+            date = date.plusDays(1);
+
+            double previous = price;
+            price = Math.max(1, price * (1 + 0.02 * gaussian(random)));
+            open[i] = round(previous);
+            close[i] = round(price);
+            high[i] = round(Math.max(previous, price) * (1 + random.nextDouble() * 0.01));
+            low[i] = round(Math.min(previous, price) * (1 - random.nextDouble() * 0.01));
+            volume[i] = 1_000_000 + random.nextInt(9_000_000);
+            returns[i] = i == 0 ? Double.NaN : Math.round((close[i] - close[i - 1]) / close[i - 1] * 100) / 100.0;
+        }
+        return new PriceSeries(ticker(index), dates, open, high, low, close, close.clone(), volume, returns, false);
+    }
+
+    static List<PriceSeries> universe(int tickers, int days) {
+        List<PriceSeries> universe = new ArrayList<>(tickers);
+        for (int t = 0; t < tickers; t++) universe.add(series(t, days));
+        return universe;
+    }
+
+    /**
+     * Writes raw {ticker}.csv files as saved by the data fetcher and returns their file names.
+     */
+    static List<String> writeRawFiles(int tickers, int days) throws IOException {
+        checkDataFolder();
+        Files.createDirectories(Paths.get(DATA_FOLDER));
+        List<String> fileNames = new ArrayList<>(tickers);
+        for (int t = 0; t < tickers; t++) {
+            PriceSeries series = series(t, days);
+            String fileName = series.ticker + ".csv";
+            try (CsvWriter writer = new CsvWriter(Files.newBufferedWriter(Paths.get(DATA_FOLDER + fileName)))) {
+                writer.writeLine("Date,Open Price,High Price,Low Price,Close Price,Adjusted Close,Volume");
+                for (int i = 0; i < series.size(); i++) {
+                    writer.date(series.dates[i], false)
+                          .number(series.open[i])
+                          .number(series.high[i])
+                          .number(series.low[i])
+                          .number(series.close[i])
+                          .number(series.adjClose[i])
+                          .number(series.volume[i])
+                          .endRow();
+                }
+            }
+            fileNames.add(fileName);
+        }
+        return fileNames;
+    }
+
+    /**
+     * Returns the processed files of the synthetic tickers currently in data/.
+     */
+    static File[] processedFiles() {
+        File[] files = new File(DATA_FOLDER).listFiles((dir, name) -> name.startsWith("processed_" + TICKER_PREFIX));
+        return files != null ? files : new File[0];
+    }
+
+    /**
+     * Deletes every file the benchmarks wrote and forgets the series held in memory.
+     */
+    static void clean() {
+        File[] files = new File(DATA_FOLDER).listFiles((dir, name) -> name.contains(TICKER_PREFIX)
+                || name.equals("portfolio.csv") || name.equals("cumulative_pnl.png"));
+        if (files != null) {
+            for (File file : files) file.delete();
+        }
+        PriceStore.clear();
+        PositionMatrix.clear();
+    }
+
+    /**
+     * The backtesters read every processed file in data/, so the benchmarks refuse to run next to real data.
+     */
+    private static void checkDataFolder() {
+        File[] foreign = new File(DATA_FOLDER).listFiles((dir, name) ->
+                name.endsWith(".csv") && !name.contains(TICKER_PREFIX) && !name.equals("portfolio.csv"));
+        if (foreign != null && foreign.length > 0) {
+            throw new IllegalStateException("data/ already holds " + foreign.length
+                    + " CSV files; run the benchmarks from a directory without real price data");
+        }
+    }
+
+    private static double gaussian(SplittableRandom random) {
+        // Box-Muller, as SplittableRandom has no nextGaussian
+        return Math.sqrt(-2 * Math.log(1 - random.nextDouble())) * Math.cos(2 * Math.PI * random.nextDouble());
+    }
+
+    private static double round(double price) {
+        return Math.round(price * 100) / 100.0;
+    }
+}
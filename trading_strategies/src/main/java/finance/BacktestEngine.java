@@ -0,0 +1,394 @@
+package finance;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+// Event-driven backtest loop: merges the per-ticker bar streams in date order and hands each
+// date's bars to a handler. Only one bar per ticker is held at a time, whatever the history length.
+
+public class BacktestEngine {
+
+    /**
+     * Callbacks of a backtest. Signal generation and position sizing live in the handler; the engine
+     * only decides which bars are delivered and in which order.
+     */
+    public interface BarHandler {
+        /**
+         * Called once per processed file before the run; returning false leaves the ticker out.
+         */
+        default boolean accept(String csvFileName, List<String> columns) {
+            return true;
+        }
+
+        /**
+         * Called once the tickers are known, with the tickers in the order of their bars' tickerIndex.
+         */
+        default void onStart(List<String> tickers) {
+        }
+
+        /**
+         * Decides whether a bar takes part in the backtest; rejected bars are skipped entirely.
+         */
+        default boolean include(Bar bar) {
+            return true;
+        }
+
+        /**
+         * Called for every date any ticker has an included bar, in date order, with that date's bars
+         * in ticker order. The bars are reused once the call returns.
+         */
+        void onBars(long date, List<Bar> bars);
+
+        /**
+         * Called after the last date.
+         */
+        default void onEnd() {
+        }
+    }
+
+    /**
+     * One row of a ticker, reused as the stream advances.
+     */
+    public static final class Bar {
+        public final String ticker;
+        public final int tickerIndex;
+        public long date; // epoch day
+        public double open;
+        public double high;
+        public double low;
+        public double close;
+        public double adjClose;
+        public double volume;
+        public double returns; // NaN where the returns value is NULL
+        public byte position = PriceSeries.NEUTRAL;
+        private final Map<String, Integer> columnIndex;
+        private final double[] values;
+
+        Bar(String ticker, int tickerIndex, List<String> columns) {
+            this.ticker = ticker;
+            this.tickerIndex = tickerIndex;
+            this.columnIndex = new HashMap<>();
+            for (String column : columns) columnIndex.put(column, columnIndex.size());
+            this.values = new double[columns.size()];
+        }
+
+        /**
+         * Returns the value of an indicator column, or NaN if the ticker has no such column.
+         */
+        public double column(String name) {
+            Integer index = columnIndex.get(name);
+            return index != null ? values[index] : Double.NaN;
+        }
+
+        /**
+         * Returns the index of an indicator column for column(int), or -1 if the ticker has no such column.
+         * The index stays the same for all bars of the ticker, so it can be looked up once.
+         */
+        public int columnIndex(String name) {
+            Integer index = columnIndex.get(name);
+            return index != null ? index : -1;
+        }
+
+        /**
+         * Returns the value of the indicator column at an index from columnIndex, NaN for -1.
+         */
+        public double column(int index) {
+            return index >= 0 ? values[index] : Double.NaN;
+        }
+    }
+
+    /**
+     * Runs the handler over the processed files. Series already held by PriceStore are read from memory;
+     * all others are streamed from disk row by row.
+     */
+    public static void run(File[] processedFiles, BarHandler handler) {
+        File[] sorted = processedFiles.clone();
+        Arrays.sort(sorted, Comparator.comparing(File::getName));
+
+        List<String> fileNames = new ArrayList<>();
+        List<Cursor> opened = new ArrayList<>();
+        for (File file : sorted) {
+            try {
+                PriceSeries series = PriceStore.cached(file.getName());
+                opened.add(series != null ? new SeriesCursor(series) : new CsvCursor(file));
+                fileNames.add(file.getName());
+            } catch (IOException | RuntimeException e) {
+                System.err.println("Error reading file " + file.getName() + ": " + e.getMessage());
+            }
+        }
+        run(fileNames, opened, handler);
+    }
+
+    /**
+     * Runs the handler over in-memory series, in the given order, without touching the disk or PriceStore.
+     */
+    public static void run(List<PriceSeries> seriesList, BarHandler handler) {
+        List<String> fileNames = new ArrayList<>();
+        List<Cursor> opened = new ArrayList<>();
+        for (PriceSeries series : seriesList) {
+            fileNames.add(PriceStore.fileNameOf(series.ticker));
+            opened.add(new SeriesCursor(series));
+        }
+        run(fileNames, opened, handler);
+    }
+
+    /**
+     * Runs the handler over an off-heap universe, in its order, reading each bar's prices in place. Its
+     * bars carry no indicator columns or positions.
+     */
+    public static void run(OffHeapUniverse universe, BarHandler handler) {
+        List<String> fileNames = new ArrayList<>();
+        List<Cursor> opened = new ArrayList<>();
+        for (int t = 0; t < universe.size(); t++) {
+            fileNames.add(PriceStore.fileNameOf(universe.ticker(t)));
+            opened.add(new UniverseCursor(universe, t));
+        }
+        run(fileNames, opened, handler);
+    }
+
+    private static void run(List<String> fileNames, List<Cursor> opened, BarHandler handler) {
+        List<Cursor> cursors = new ArrayList<>();
+        List<String> tickers = new ArrayList<>();
+        try {
+            for (int i = 0; i < opened.size(); i++) {
+                Cursor cursor = opened.get(i);
+                if (!handler.accept(fileNames.get(i), cursor.columns())) {
+                    cursor.close();
+                    continue;
+                }
+                cursor.bar = new Bar(cursor.ticker(), cursors.size(), cursor.indicatorColumns());
+                cursors.add(cursor);
+                tickers.add(cursor.ticker());
+            }
+            handler.onStart(Collections.unmodifiableList(tickers));
+
+            PriorityQueue<Cursor> queue = new PriorityQueue<>(Math.max(1, cursors.size()),
+                    Comparator.comparingLong((Cursor cursor) -> cursor.bar.date)
+                              .thenComparingInt(cursor -> cursor.bar.tickerIndex));
+            for (Cursor cursor : cursors) {
+                if (advance(cursor, handler)) queue.add(cursor);
+            }
+
+            List<Cursor> due = new ArrayList<>(cursors.size());
+            List<Bar> bars = new ArrayList<>(cursors.size());
+            while (!queue.isEmpty()) {
+                long date = queue.peek().bar.date;
+                while (!queue.isEmpty() && queue.peek().bar.date == date) {
+                    Cursor cursor = queue.poll();
+                    due.add(cursor);
+                    bars.add(cursor.bar);
+                }
+                handler.onBars(date, Collections.unmodifiableList(bars));
+                for (Cursor cursor : due) {
+                    if (advance(cursor, handler)) queue.add(cursor);
+                }
+                due.clear();
+                bars.clear();
+            }
+            handler.onEnd();
+        } finally {
+            for (Cursor cursor : opened) cursor.close();
+        }
+    }
+
+    /**
+     * Moves the cursor to its next included bar, returning false once the ticker is exhausted.
+     */
+    private static boolean advance(Cursor cursor, BarHandler handler) {
+        try {
+            long previousDate = cursor.bar.date;
+            boolean started = cursor.started;
+            while (cursor.next()) {
+                cursor.started = true;
+                if (started && cursor.bar.date <= previousDate) {
+                    throw new IllegalStateException("Rows of " + cursor.ticker() + " are not in date order");
+                }
+                if (handler.include(cursor.bar)) return true;
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Error reading " + cursor.ticker(), e);
+        }
+        cursor.close();
+        return false;
+    }
+
+    /**
+     * Position within one ticker's rows; next() fills the cursor's bar with the following row.
+     */
+    private abstract static class Cursor {
+        Bar bar;
+        boolean started;
+
+        abstract String ticker();
+
+        /**
+         * All column names after the base price columns, including Position if present.
+         */
+        abstract List<String> columns();
+
+        abstract boolean next() throws IOException;
+
+        void close() {
+        }
+
+        List<String> indicatorColumns() {
+            List<String> indicators = new ArrayList<>(columns());
+            indicators.remove("Position");
+            return indicators;
+        }
+    }
+
+    private static class SeriesCursor extends Cursor {
+        private final PriceSeries series;
+        private final double[][] indicators;
+        private int row = -1;
+
+        SeriesCursor(PriceSeries series) {
+            this.series = series;
+            List<String> names = indicatorColumns();
+            this.indicators = new double[names.size()][];
+            for (int c = 0; c < indicators.length; c++) indicators[c] = series.column(names.get(c));
+        }
+
+        @Override
+        String ticker() {
+            return series.ticker;
+        }
+
+        @Override
+        List<String> columns() {
+            List<String> columns = new ArrayList<>(series.columnNames());
+            if (series.positions != null) columns.add("Position");
+            return columns;
+        }
+
+        @Override
+        boolean next() {
+            if (++row >= series.size()) return false;
+            bar.date = series.dates[row];
+            bar.open = series.open[row];
+            bar.high = series.high[row];
+            bar.low = series.low[row];
+            bar.close = series.close[row];
+            bar.adjClose = series.adjClose[row];
+            bar.volume = series.volume[row];
+            bar.returns = series.returns[row];
+            if (series.positions != null) bar.position = series.positions[row];
+            for (int c = 0; c < indicators.length; c++) bar.values[c] = indicators[c][row];
+            return true;
+        }
+    }
+
+    private static class UniverseCursor extends Cursor {
+        private final OffHeapUniverse universe;
+        private final int ticker;
+        private final int rows;
+        private int row = -1;
+
+        UniverseCursor(OffHeapUniverse universe, int ticker) {
+            this.universe = universe;
+            this.ticker = ticker;
+            this.rows = universe.rows(ticker);
+        }
+
+        @Override
+        String ticker() {
+            return universe.ticker(ticker);
+        }
+
+        @Override
+        List<String> columns() {
+            return Collections.emptyList();
+        }
+
+        @Override
+        boolean next() {
+            if (++row >= rows) return false;
+            bar.date = universe.date(ticker, row);
+            bar.open = universe.open(ticker, row);
+            bar.high = universe.high(ticker, row);
+            bar.low = universe.low(ticker, row);
+            bar.close = universe.close(ticker, row);
+            bar.adjClose = universe.adjClose(ticker, row);
+            bar.volume = universe.volume(ticker, row);
+            bar.returns = universe.returns(ticker, row);
+            return true;
+        }
+    }
+
+    /**
+     * Streams a processed CSV file, holding only the current line.
+     */
+    private static class CsvCursor extends Cursor {
+        private static final int BASE_COLUMNS = PriceSeries.HEADER.split(",").length;
+
+        private final String ticker;
+        private final CsvReader reader;
+        private final String[] headers;
+        private final int positionColumn;
+
+        CsvCursor(File file) throws IOException {
+            this.ticker = PriceStore.tickerOf(file.getName());
+            this.reader = new CsvReader(Files.newBufferedReader(file.toPath()));
+            try {
+                this.headers = reader.readHeader();
+            } catch (IOException e) {
+                reader.close();
+                throw e;
+            }
+            this.positionColumn = Arrays.asList(headers).indexOf("Position");
+        }
+
+        @Override
+        String ticker() {
+            return ticker;
+        }
+
+        @Override
+        List<String> columns() {
+            return Arrays.asList(headers).subList(Math.min(BASE_COLUMNS, headers.length), headers.length);
+        }
+
+        @Override
+        boolean next() throws IOException {
+            if (!reader.next()) return false;
+
+            bar.date = reader.getDate(0);
+            bar.open = reader.getDouble(1);
+            bar.high = reader.getDouble(2);
+            bar.low = reader.getDouble(3);
+            bar.close = reader.getDouble(4);
+            bar.adjClose = reader.getDouble(5);
+            bar.volume = reader.getDouble(6);
+            bar.returns = reader.getDouble(7);
+            int indicator = 0;
+            for (int c = BASE_COLUMNS; c < headers.length; c++) {
+                if (c == positionColumn) {
+                    bar.position = reader.getPosition(c);
+                } else {
+                    bar.values[indicator++] = reader.getDouble(c);
+                }
+            }
+            return true;
+        }
+
+        @Override
+        void close() {
+            try {
+                reader.close();
+            } catch (IOException e) {
+                System.err.println("Error closing file for " + ticker + ": " + e.getMessage());
+            }
+        }
+    }
+}
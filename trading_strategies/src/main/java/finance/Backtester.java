@@ -1,29 +1,22 @@
 package finance;
 
 import java.io.*;
-import java.nio.file.*;
 import java.util.*;
-
-import org.jfree.chart.ChartFactory;
-import org.jfree.chart.ChartUtils;
-import org.jfree.chart.JFreeChart;
-import org.jfree.data.category.DefaultCategoryDataset;
+import java.util.function.Supplier;
 
 public class Backtester {
     private static final String DATA_FOLDER = "data/";
+    static final double INITIAL_BALANCE = 100000; // Starting portfolio balance
 
     /** 
      * Performs backtesting on the trading strategy, calculating portfolio performance metrics such as 
      * returns, drawdowns, and Sharpe ratio based on daily stock data.
      */
     public static void TradeOnStrategy() {
-        double initialBalance = 100000; // Starting portfolio balance
-        double balance = initialBalance;
-        double peakBalance = initialBalance; // For drawdown calculation
-        List<Double> portfolioReturns = new ArrayList<>(); // Daily portfolio returns
-        List<Double> drawdownPercentages = new ArrayList<>(); // Store drawdowns
-        List<Double> cumulativePnL = new ArrayList<>(); // Store cumulative profit and loss
-        List<String> dates = new ArrayList<>(); // Store dates for plotting
+        PerformanceStats stats = new PerformanceStats(INITIAL_BALANCE);
+        PnLChart.Curve cumulativePnL = new PnLChart.Curve(); // Store cumulative profit and loss by date
+        PnLChart.Curve benchmark = null;
+        DailyReturns daily;
 
         File folder = new File(DATA_FOLDER);
         File[] processedFiles = folder.listFiles((dir, name) -> name.startsWith("processed_") && name.endsWith(".csv"));
@@ -33,120 +26,358 @@ public class Backtester {
             return;
         }
 
-        Map<String, Map<String, Double>> dateTickerReturns = new HashMap<>(); // Map of date -> (ticker -> returns)
-        Map<String, Map<String, String>> dateTickerPositions = new HashMap<>(); // Map of date -> (ticker -> position)
-
-        int totalSignals = 0;  // Count of all trading signals (Long or Short)
-        int correctSignals = 0;  // Count of correct trading signals
-
-        // Aggregate data from all files
-        for (File file : processedFiles) {
-            String ticker = file.getName().replace("processed_", "").replace(".csv", "");
-            try (BufferedReader reader = Files.newBufferedReader(file.toPath())) {
-                reader.readLine(); 
-                String line;
-                while ((line = reader.readLine()) != null) {
-                    String[] columns = line.split(",");
-                    String date = columns[0]; // Date
-                    if (!columns[7].equalsIgnoreCase("NULL") && !columns[7].isEmpty()) {
-                        double returns = Double.parseDouble(columns[7]); // Returns at index 7
-                        dateTickerReturns.putIfAbsent(date, new HashMap<>());
-                        dateTickerReturns.get(date).put(ticker, returns);
-                    }
-                    String position = (columns.length > 12) ? columns[14] : columns[11]; // Position based on column count
-                    dateTickerPositions.putIfAbsent(date, new HashMap<>());
-                    dateTickerPositions.get(date).put(ticker, position);
-                } 
-            } catch (IOException e) {
-                System.err.println("Error reading file " + file.getName() + ": " + e.getMessage());
-            }
+        // Perform portfolio-level backtesting, one date at a time across all tickers
+        long start = System.nanoTime();
+        try {
+            DailyAggregator aggregator = new DailyAggregator(null, System.getProperty("chart.benchmark"));
+            BacktestEngine.run(processedFiles, aggregator);
+            daily = aggregator.build();
+            replay(daily, 0, daily.size(), stats, cumulativePnL);
+            benchmark = aggregator.benchmark();
+        } catch (UncheckedIOException | IllegalArgumentException | IllegalStateException e) {
+            Metrics.increment("backtest.errors");
+            System.err.println("Error during backtesting: " + e.getMessage());
+            return;
+        } finally {
+            Metrics.stopTimer("backtest", start); // loading the positions and simulating
         }
 
-        // Perform portfolio-level backtesting
-        for (String date : dateTickerReturns.keySet()) {
-            Map<String, Double> tickerReturns = dateTickerReturns.get(date);
-            Map<String, String> tickerPositions = dateTickerPositions.get(date);
+        // Results
+        stats.print();
 
-            double dailyReturn = 0.0;
-            int signalsToday = 0;
+        // Cumulative PnL chart, rendered in the background
+        plotCumulativePnL(cumulativePnL, benchmark);
 
-            for (String ticker : tickerReturns.keySet()) {
-                double returns = tickerReturns.get(ticker);
-                String position = tickerPositions.getOrDefault(ticker, "Neutral");
-    
-                if (!position.equalsIgnoreCase("Neutral")) { // Long or short
-                    signalsToday++;
-                    totalSignals++;
-                    boolean isCorrectSignal = (position.equalsIgnoreCase("Long") && returns > 0) || 
-                                              (position.equalsIgnoreCase("Short") && returns < 0);
-                    if (isCorrectSignal) {
-                        correctSignals++;
-                    }
-                    dailyReturn += position.equalsIgnoreCase("Long") ? returns : -returns;
-                }
+        // Confidence intervals of the results from resampled returns, with -Dmontecarlo.paths=<paths>
+        Integer paths = Integer.getInteger("montecarlo.paths");
+        if (paths != null && daily.size() > 0) {
+            String blockLength = System.getProperty("montecarlo.blockLength");
+            try {
+                MonteCarlo.run(daily.returns, paths,
+                        blockLength != null ? Double.parseDouble(blockLength) : MonteCarlo.defaultBlockLength(daily.size()),
+                        Long.getLong("montecarlo.seed", 42),
+                        Integer.getInteger("parallelism", Runtime.getRuntime().availableProcessors())).print();
+            } catch (IllegalArgumentException e) {
+                System.err.println("Error during Monte Carlo analysis: " + e.getMessage());
             }
+        }
+    }
+    
+    /**
+     * Backtests series that carry strategy positions without printing or plotting anything,
+     * e.g. to compare parameter combinations.
+     */
+    public static PerformanceStats evaluate(List<PriceSeries> seriesList) {
+        DailyAggregator aggregator = new DailyAggregator(null, null);
+        BacktestEngine.run(seriesList, aggregator);
+        return evaluate(aggregator.build());
+    }
+
+    /**
+     * Backtests a streaming strategy over an off-heap universe, one strategy instance per ticker. The bars
+     * are read in place and the positions taken as the strategy produces them, so only one day across the
+     * universe is held on the heap. The result is that of the batch strategy's processed files.
+     */
+    public static PerformanceStats evaluate(OffHeapUniverse universe, Supplier<StreamingStrategy> strategy) {
+        long start = System.nanoTime();
+        DailyAggregator aggregator = new DailyAggregator(strategy, null);
+        BacktestEngine.run(universe, aggregator);
+        PerformanceStats stats = evaluate(aggregator.build());
+        Metrics.stopTimer("backtest.offheap", start);
+        return stats;
+    }
+
+    /**
+     * Backtests positions already aligned on a shared date axis, e.g. the parameter sweep's.
+     */
+    static PerformanceStats evaluate(ReturnMatrix matrix) {
+        return evaluate(new DailyReturns(matrix));
+    }
+
+    private static PerformanceStats evaluate(DailyReturns daily) {
+        PerformanceStats stats = new PerformanceStats(INITIAL_BALANCE);
+        replay(daily, 0, daily.size(), stats, null);
+        return stats;
+    }
+
+    /**
+     * Compounds the portfolio returns of the days [from, to) starting from the stats' final balance, so a
+     * range can be backtested on its own and consecutive ranges chained into one set of stats.
+     */
+    static void replay(DailyReturns daily, int from, int to, PerformanceStats stats, PnLChart.Curve cumulativePnL) {
+        double balance = stats.getFinalBalance();
+
+        for (int d = from; d < to; d++) {
+            stats.addSignals(daily.signals[d], daily.hits[d]);
 
-            dailyReturn /= signalsToday > 0 ? signalsToday : 1; // Average return for the portfolio
-            portfolioReturns.add(dailyReturn);
+            double dailyReturn = daily.returns[d];
+            stats.addReturn(dailyReturn);
             balance += balance * dailyReturn; // Update balance
+            stats.setFinalBalance(balance);
 
-            // Track cumulative PnL and dates
-            cumulativePnL.add(balance - initialBalance);
-            dates.add(date);
+            // Track cumulative PnL
+            if (cumulativePnL != null) cumulativePnL.add(daily.dates[d], balance - stats.getInitialBalance());
 
             // Drawdown calculation
-            peakBalance = Math.max(peakBalance, balance);
-            double currentDrawdown = (balance - peakBalance) / peakBalance;
-            drawdownPercentages.add(currentDrawdown);
+            stats.updateDrawdown(balance);
         }
+    }
 
-        // Performance Metrics
-        double totalReturn = (balance - initialBalance) / initialBalance;
-        double avgReturn = portfolioReturns.stream().mapToDouble(Double::doubleValue).average().orElse(0.0);
-        double volatility = Math.sqrt(portfolioReturns.stream()
-                .mapToDouble(r -> Math.pow(r - avgReturn, 2)).sum() / portfolioReturns.size());
-        double sharpeRatio = volatility > 0 ? avgReturn / volatility * Math.sqrt(252) : 0.0;
-        double maxDrawdown = drawdownPercentages.stream().min(Double::compareTo).orElse(0.0);
-        double accuracy = totalSignals > 0 ? (double) correctSignals / totalSignals : 0.0;
+    /**
+     * The portfolio's day-by-day result of a return matrix: the average signed return of the positions
+     * held, their number and how many of them moved in their favour.
+     */
+    static final class DailyReturns {
+        final long[] dates; // epoch days
+        final double[] returns;
+        final int[] signals;
+        final int[] hits;
 
-        // Results
-        System.out.println("\nPortfolio Performance Metrics:");
-        System.out.printf("Initial Balance: $%.2f%n", initialBalance);
-        System.out.printf("Final Balance: $%.2f%n", balance);
-        System.out.printf("Total Return: %.2f%%%n", totalReturn * 100);
-        System.out.printf("Average Daily Return: %.2f%%%n", avgReturn * 100);
-        System.out.printf("Volatility: %.2f%%%n", volatility * 100);
-        System.out.printf("Annualized Sharpe Ratio: %.2f%n", sharpeRatio);
-        System.out.printf("Maximum Drawdown: %.2f%%%n", maxDrawdown * 100);
-        System.out.printf("Signal Accuracy: %.2f%%%n", accuracy * 100);
-
-        // Cumulative PnL chart
-        plotCumulativePnL(dates, cumulativePnL);
+        DailyReturns(ReturnMatrix matrix) {
+            CrossSection crossSection = CrossSection.create();
+            dates = matrix.dates;
+            returns = new double[matrix.size()];
+            signals = new int[matrix.size()];
+            hits = new int[matrix.size()];
+
+            for (int d = 0; d < matrix.size(); d++) {
+                crossSection.aggregate(matrix.returns[d], matrix.positions[d]);
+                signals[d] = crossSection.getSignals();
+                hits[d] = crossSection.getHits();
+
+                double dailyReturn = crossSection.getSignedReturns();
+                dailyReturn /= signals[d] > 0 ? signals[d] : 1; // Average return for the portfolio
+                returns[d] = dailyReturn;
+            }
+        }
+
+        DailyReturns(long[] dates, double[] returns, int[] signals, int[] hits) {
+            this.dates = dates;
+            this.returns = returns;
+            this.signals = signals;
+            this.hits = hits;
+        }
+
+        int size() {
+            return dates.length;
+        }
     }
-    
-    /** 
-     * Plots and saves the cumulative profit and loss (PnL) over time as a chart.
-     * Image is saved in the same directory as 'cumulative_pnl.png'
+
+    /**
+     * Holds the positions of every ticker with a return for the day and averages their signed returns, one
+     * date at a time as the engine delivers it, so only that date's row across the tickers is held. The
+     * positions are the bars' own, or those of one streaming strategy per ticker fed every bar. Dates on
+     * which no ticker has a return are left out.
      */
-    private static void plotCumulativePnL(List<String> dates, List<Double> pnl) {
-        DefaultCategoryDataset dataset = new DefaultCategoryDataset();
-        for (int i = 0; i < dates.size(); i++) {
-            dataset.addValue(pnl.get(i), "Cumulative PnL", dates.get(i));
+    private static final class DailyAggregator implements BacktestEngine.BarHandler {
+        private final Supplier<StreamingStrategy> strategy; // null to take the positions from the bars
+        private final String benchmarkTicker;
+        private final CrossSection crossSection = CrossSection.create();
+        private StreamingStrategy[] strategies;
+        private int benchmarkIndex = -1;
+        private PnLChart.Curve benchmark;
+        private double benchmarkBalance = INITIAL_BALANCE;
+        private double[] returns;  // the current date, by ticker
+        private byte[] positions;
+        private long[] dates = new long[256];
+        private double[] dailyReturns = new double[dates.length];
+        private int[] signals = new int[dates.length];
+        private int[] hits = new int[dates.length];
+        private int size;
+
+        /**
+         * The benchmark's PnL is recorded unless benchmarkTicker is null.
+         */
+        DailyAggregator(Supplier<StreamingStrategy> strategy, String benchmarkTicker) {
+            this.strategy = strategy;
+            this.benchmarkTicker = benchmarkTicker;
         }
-    
-        JFreeChart chart = ChartFactory.createLineChart(
-                "Cumulative PnL Over Time",
-                "Date",
-                "PnL ($)",
-                dataset
-        );
-    
-        try {
-            File imageFile = new File(DATA_FOLDER + "cumulative_pnl.png");
-            ChartUtils.saveChartAsPNG(imageFile, chart, 800, 600);
-            System.out.println("Cumulative PnL chart saved as " + imageFile.getPath());
-        } catch (IOException e) {
-            System.err.println("Error saving cumulative PnL chart: " + e.getMessage());
+
+        @Override
+        public boolean accept(String csvFileName, List<String> columns) {
+            if (strategy == null && !columns.contains("Position")) {
+                System.err.println("No positions found in " + csvFileName);
+                return false;
+            }
+            return true;
+        }
+
+        @Override
+        public void onStart(List<String> tickers) {
+            if (strategy != null) {
+                strategies = new StreamingStrategy[tickers.size()];
+                for (int t = 0; t < strategies.length; t++) strategies[t] = strategy.get();
+            }
+            if (benchmarkTicker != null) {
+                benchmarkIndex = tickers.indexOf(benchmarkTicker);
+                if (benchmarkIndex < 0) System.err.println("Benchmark " + benchmarkTicker + " not found");
+                else benchmark = new PnLChart.Curve();
+            }
+            returns = new double[tickers.size()];
+            positions = new byte[tickers.size()];
+        }
+
+        @Override
+        public void onBars(long date, List<BacktestEngine.Bar> bars) {
+            boolean traded = false;
+            for (BacktestEngine.Bar bar : bars) {
+                byte position = strategies != null
+                        ? strategies[bar.tickerIndex].update(bar.open, bar.high, bar.low, bar.close, bar.adjClose, bar.volume)
+                        : bar.position;
+                if (Double.isNaN(bar.returns)) continue; // not part of the backtest
+                returns[bar.tickerIndex] = bar.returns;
+                positions[bar.tickerIndex] = position;
+                traded = true;
+            }
+            if (traded) {
+                if (size == dates.length) {
+                    dates = Arrays.copyOf(dates, 2 * size);
+                    dailyReturns = Arrays.copyOf(dailyReturns, 2 * size);
+                    signals = Arrays.copyOf(signals, 2 * size);
+                    hits = Arrays.copyOf(hits, 2 * size);
+                }
+                crossSection.aggregate(returns, positions);
+                dates[size] = date;
+                signals[size] = crossSection.getSignals();
+                hits[size] = crossSection.getHits();
+                double dailyReturn = crossSection.getSignedReturns();
+                dailyReturn /= signals[size] > 0 ? signals[size] : 1; // Average return for the portfolio
+                dailyReturns[size] = dailyReturn;
+                size++;
+
+                // holding the benchmark from the first date; its return is 0 on dates it did not trade
+                if (benchmark != null) {
+                    benchmarkBalance += benchmarkBalance * returns[benchmarkIndex];
+                    benchmark.add(date, benchmarkBalance - INITIAL_BALANCE);
+                }
+            }
+            for (BacktestEngine.Bar bar : bars) {
+                returns[bar.tickerIndex] = 0.0;
+                positions[bar.tickerIndex] = PriceSeries.NEUTRAL;
+            }
+        }
+
+        DailyReturns build() {
+            return new DailyReturns(Arrays.copyOf(dates, size), Arrays.copyOf(dailyReturns, size),
+                    Arrays.copyOf(signals, size), Arrays.copyOf(hits, size));
+        }
+
+        /**
+         * The PnL of holding the benchmark ticker with the same initial balance, or null if not recorded.
+         */
+        PnLChart.Curve benchmark() {
+            return benchmark;
         }
     }
+
+    /**
+     * Returns and positions of all tickers aligned on a shared date axis. Row d holds every ticker's values
+     * on dates[d]; tickers without a return that day are neutral with a return of 0, so a row can be
+     * aggregated without checking which tickers traded. The whole history is held, so this is only built
+     * where ranges of dates are backtested many times over, as in the parameter sweep and walk-forward.
+     */
+    static final class ReturnMatrix {
+        final List<String> tickers;
+        final long[] dates; // epoch days
+        final double[][] returns;
+        final byte[][] positions;
+
+        private ReturnMatrix(List<String> tickers, long[] dates, double[][] returns, byte[][] positions) {
+            this.tickers = tickers;
+            this.dates = dates;
+            this.returns = returns;
+            this.positions = positions;
+        }
+
+        /**
+         * Aligns the returns of series that need not carry positions; every position is neutral until
+         * withPositions fills them in.
+         */
+        static ReturnMatrix returnsOf(List<PriceSeries> seriesList) {
+            Builder builder = new Builder();
+            BacktestEngine.run(seriesList, builder);
+            return builder.build();
+        }
+
+        /**
+         * Returns a matrix sharing these dates and returns, with positions[t][row] for each row of the
+         * series this matrix was built from (given in the same order), without merging the series again.
+         * Its rows aggregate as the backtest of the series carrying those positions does.
+         */
+        ReturnMatrix withPositions(List<PriceSeries> seriesList, List<byte[]> positions) {
+            byte[][] rows = new byte[dates.length][tickers.size()];
+            for (int t = 0; t < tickers.size(); t++) {
+                PriceSeries series = seriesList.get(t);
+                byte[] tickerPositions = positions.get(t);
+                int d = 0;
+                for (int i = 0; i < series.size(); i++) {
+                    if (Double.isNaN(series.returns[i])) continue; // not part of the backtest, as in the Builder
+                    while (dates[d] < series.dates[i]) d++;
+                    rows[d][t] = tickerPositions[i];
+                }
+            }
+            return new ReturnMatrix(tickers, dates, returns, rows);
+        }
+
+        int size() {
+            return dates.length;
+        }
+
+        /**
+         * Collects the bars of the engine's date-ordered merge into one row per date.
+         */
+        private static final class Builder implements BacktestEngine.BarHandler {
+            private List<String> tickers;
+            private long[] dates = new long[256];
+            private double[][] returns = new double[dates.length][];
+            private byte[][] positions = new byte[dates.length][];
+            private int size;
+
+            @Override
+            public void onStart(List<String> tickers) {
+                this.tickers = new ArrayList<>(tickers);
+            }
+
+            @Override
+            public boolean include(BacktestEngine.Bar bar) {
+                return !Double.isNaN(bar.returns);
+            }
+
+            @Override
+            public void onBars(long date, List<BacktestEngine.Bar> bars) {
+                if (size == dates.length) {
+                    dates = Arrays.copyOf(dates, 2 * size);
+                    returns = Arrays.copyOf(returns, 2 * size);
+                    positions = Arrays.copyOf(positions, 2 * size);
+                }
+                dates[size] = date;
+                returns[size] = new double[tickers.size()];
+                positions[size] = new byte[tickers.size()];
+                for (BacktestEngine.Bar bar : bars) {
+                    returns[size][bar.tickerIndex] = bar.returns;
+                    positions[size][bar.tickerIndex] = bar.position;
+                }
+                size++;
+            }
+
+            ReturnMatrix build() {
+                if (tickers == null) tickers = new ArrayList<>();
+                return new ReturnMatrix(Collections.unmodifiableList(tickers), Arrays.copyOf(dates, size),
+                        Arrays.copyOf(returns, size), Arrays.copyOf(positions, size));
+            }
+        }
+    }
+
+    /** 
+     * Plots and saves the cumulative profit and loss (PnL) over time as a chart, on a background thread,
+     * with its drawdown under -Dchart.drawdown=true and the benchmark's PnL unless null.
+     * Image is saved in the same directory as 'cumulative_pnl.png'
+     */
+    private static void plotCumulativePnL(PnLChart.Curve pnl, PnLChart.Curve benchmark) {
+        PnLChart chart = new PnLChart("Cumulative PnL Over Time", "PnL ($)").add("Cumulative PnL", pnl);
+        if (Boolean.getBoolean("chart.drawdown")) chart.add("Drawdown", pnl.drawdown());
+        if (benchmark != null) chart.add("Benchmark (" + System.getProperty("chart.benchmark") + ")", benchmark);
+        chart.saveAsync(new File(DATA_FOLDER + "cumulative_pnl.png"), 800, 600);
+    }
+
 }
@@ -0,0 +1,93 @@
+package finance;
+
+// Aggregates one date across all tickers: the sum of position-signed returns, the number of long or
+// short positions and how many of them the return moved in favour of. The SIMD kernel is optional:
+// it is compiled with the "vector" build profile and used when run with -Dvector=true.
+
+public class CrossSection {
+
+    /**
+     * Aggregation over aligned arrays, one element per ticker; neutral positions are ignored.
+     */
+    interface Kernel {
+        void aggregate(double[] returns, byte[] positions, CrossSection result);
+    }
+
+    private static final String VECTOR_KERNEL = "finance.VectorKernel";
+
+    double signedReturns;
+    int signals;
+    int hits;
+    private final Kernel kernel;
+
+    private CrossSection(Kernel kernel) {
+        this.kernel = kernel;
+    }
+
+    /**
+     * Returns an aggregator using the vector kernel if requested with -Dvector=true and available,
+     * and the scalar loop otherwise.
+     */
+    public static CrossSection create() {
+        return new CrossSection(Boolean.getBoolean("vector") ? loadVectorKernel() : new ScalarKernel());
+    }
+
+    /**
+     * Aggregates one date; the results are read with the getters until the next call.
+     */
+    public void aggregate(double[] returns, byte[] positions) {
+        signedReturns = 0.0;
+        signals = 0;
+        hits = 0;
+        kernel.aggregate(returns, positions, this);
+    }
+
+    public double getSignedReturns() {
+        return signedReturns;
+    }
+
+    public int getSignals() {
+        return signals;
+    }
+
+    public int getHits() {
+        return hits;
+    }
+
+    public boolean isVectorized() {
+        return !(kernel instanceof ScalarKernel);
+    }
+
+    private static Kernel loadVectorKernel() {
+        try {
+            return (Kernel) Class.forName(VECTOR_KERNEL).getDeclaredConstructor().newInstance();
+        } catch (ReflectiveOperationException | LinkageError e) {
+            // not built with -Pvector, or run without --add-modules jdk.incubator.vector
+            System.err.println("Vector API not available, using scalar aggregation: " + e);
+            return new ScalarKernel();
+        }
+    }
+
+    /**
+     * Plain loop in ticker order, so sums are rounded exactly as when adding the bars one by one.
+     */
+    static final class ScalarKernel implements Kernel {
+        @Override
+        public void aggregate(double[] returns, byte[] positions, CrossSection result) {
+            double signedReturns = 0.0;
+            int signals = 0;
+            int hits = 0;
+            for (int t = 0; t < positions.length; t++) {
+                byte position = positions[t];
+                if (position == PriceSeries.NEUTRAL) continue;
+                double dayReturn = returns[t];
+                signals++;
+                if ((position == PriceSeries.LONG && dayReturn > 0) || (position == PriceSeries.SHORT && dayReturn < 0)) hits++;
+                signedReturns += position == PriceSeries.LONG ? dayReturn : -dayReturn;
+            }
+            result.signedReturns = signedReturns;
+            result.signals = signals;
+            result.hits = hits;
+        }
+    }
+}
@@ -0,0 +1,236 @@
+package finance;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Reader;
+import java.time.LocalDate;
+import java.util.Arrays;
+
+// Reads CSV rows into a reusable character buffer. Fields are located by offset and parsed in place
+// rather than split into strings, so reading a row of numbers creates no objects.
+
+public class CsvReader implements Closeable {
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final int MAX_EXACT_DIGITS = 15; // fewer than 2^53, so the mantissa is an exact double
+    private static final double[] POWERS_OF_TEN = {
+            1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+            1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22};
+
+    private final Reader in;
+    private char[] buffer = new char[BUFFER_SIZE];
+    private int limit;     // end of the characters read into the buffer
+    private int nextLine;  // start of the line after the current one
+    private boolean endOfInput;
+    private int[] fieldStarts = new int[16];
+    private int[] fieldEnds = new int[16];
+    private int fieldCount;
+    private String[] header;
+
+    public CsvReader(Reader in) {
+        this.in = in;
+    }
+
+    /**
+     * Reads the header line and returns its column names, which are also used in error messages.
+     */
+    public String[] readHeader() throws IOException {
+        if (!readLine()) throw new IOException("Empty CSV file");
+        header = new String[fieldCount];
+        for (int f = 0; f < fieldCount; f++) header[f] = getString(f);
+        return header.clone();
+    }
+
+    /**
+     * Moves to the next non-empty row, returning false at the end of the input.
+     */
+    public boolean next() throws IOException {
+        while (readLine()) {
+            if (fieldCount > 1 || fieldEnds[0] > fieldStarts[0]) return true;
+        }
+        return false;
+    }
+
+    public int fieldCount() {
+        return fieldCount;
+    }
+
+    public String getString(int field) {
+        if (field >= fieldCount) return "";
+        return new String(buffer, fieldStarts[field], fieldEnds[field] - fieldStarts[field]);
+    }
+
+    /**
+     * Parses a numeric field, mapping empty, NULL and missing values to NaN.
+     */
+    public double getDouble(int field) {
+        if (field >= fieldCount) return Double.NaN;
+        int from = fieldStarts[field];
+        int to = fieldEnds[field];
+        if (from == to || isNull(from, to)) return Double.NaN;
+
+        // Plain decimals with up to 15 significant digits are exact as mantissa / 10^k;
+        // anything else, such as exponents, goes through Double.parseDouble
+        int i = from;
+        boolean negative = buffer[i] == '-';
+        if (negative || buffer[i] == '+') i++;
+        long mantissa = 0;
+        int digits = 0;
+        int scale = 0;
+        boolean seenDigit = false;
+        boolean seenPoint = false;
+        for (; i < to; i++) {
+            char c = buffer[i];
+            if (c >= '0' && c <= '9') {
+                seenDigit = true;
+                mantissa = mantissa * 10 + (c - '0');
+                if (mantissa != 0) digits++;
+                if (seenPoint) scale++;
+                if (digits > MAX_EXACT_DIGITS) break;
+            } else if (c == '.' && !seenPoint) {
+                seenPoint = true;
+            } else {
+                break;
+            }
+        }
+        if (i == to && seenDigit && scale < POWERS_OF_TEN.length) {
+            double value = scale == 0 ? mantissa : mantissa / POWERS_OF_TEN[scale];
+            return negative ? -value : value;
+        }
+        try {
+            return Double.parseDouble(getString(field));
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid " + columnName(field) + ": " + getString(field), e);
+        }
+    }
+
+    /**
+     * Parses a date in either yyyy-MM-dd or dd-MM-yyyy layout into an epoch day.
+     */
+    public long getDate(int field) {
+        int from = field < fieldCount ? fieldStarts[field] : 0;
+        int to = field < fieldCount ? fieldEnds[field] : 0;
+        try {
+            if (isDayFirst(field)) {
+                return LocalDate.of(parseInt(from + 6, from + 10, to), parseInt(from + 3, from + 5, to),
+                        parseInt(from, from + 2, to)).toEpochDay();
+            }
+            return LocalDate.of(parseInt(from, from + 4, to), parseInt(from + 5, from + 7, to),
+                    parseInt(from + 8, from + 10, to)).toEpochDay();
+        } catch (RuntimeException e) {
+            throw new IllegalArgumentException("Invalid date: " + getString(field), e);
+        }
+    }
+
+    /**
+     * Returns whether a date field is in dd-MM-yyyy layout.
+     */
+    public boolean isDayFirst(int field) {
+        if (field >= fieldCount) return false;
+        int from = fieldStarts[field];
+        return fieldEnds[field] - from >= 10 && buffer[from + 2] == '-' && buffer[from + 5] == '-';
+    }
+
+    /**
+     * Parses a Position field; anything but Long or Short is neutral.
+     */
+    public byte getPosition(int field) {
+        if (field >= fieldCount) return PriceSeries.NEUTRAL;
+        if (fieldEquals(field, "Long")) return PriceSeries.LONG;
+        if (fieldEquals(field, "Short")) return PriceSeries.SHORT;
+        return PriceSeries.NEUTRAL;
+    }
+
+    /**
+     * Writes the current row unchanged as the next field(s) of the writer's row.
+     */
+    public void copyRow(CsvWriter writer) {
+        writer.field(buffer, fieldStarts[0], fieldEnds[fieldCount - 1]);
+    }
+
+    @Override
+    public void close() throws IOException {
+        in.close();
+    }
+
+    /**
+     * Reads the next line into the buffer and locates its fields, returning false at the end of the input.
+     */
+    private boolean readLine() throws IOException {
+        int scan = nextLine;
+        while (true) {
+            while (scan < limit && buffer[scan] != '\n') scan++;
+            if (scan < limit) break;
+            if (endOfInput) {
+                if (nextLine >= limit) return false;
+                break; // last line without a line break
+            }
+            // keep the partial line and read more behind it
+            if (nextLine > 0) {
+                System.arraycopy(buffer, nextLine, buffer, 0, limit - nextLine);
+                limit -= nextLine;
+                scan -= nextLine;
+                nextLine = 0;
+            } else if (limit == buffer.length) {
+                buffer = Arrays.copyOf(buffer, 2 * buffer.length);
+            }
+            int read = in.read(buffer, limit, buffer.length - limit);
+            if (read < 0) {
+                endOfInput = true;
+            } else {
+                limit += read;
+            }
+        }
+
+        int start = nextLine;
+        int end = scan;
+        nextLine = scan < limit ? scan + 1 : limit;
+        if (end > start && buffer[end - 1] == '\r') end--;
+
+        fieldCount = 0;
+        int fieldStart = start;
+        for (int i = start; i <= end; i++) {
+            if (i < end && buffer[i] != ',') continue;
+            if (fieldCount == fieldStarts.length) {
+                fieldStarts = Arrays.copyOf(fieldStarts, 2 * fieldCount);
+                fieldEnds = Arrays.copyOf(fieldEnds, 2 * fieldCount);
+            }
+            fieldStarts[fieldCount] = fieldStart;
+            fieldEnds[fieldCount] = i;
+            fieldCount++;
+            fieldStart = i + 1;
+        }
+        return true;
+    }
+
+    private boolean isNull(int from, int to) {
+        return equalsIgnoreCase(from, to, "NULL");
+    }
+
+    private boolean fieldEquals(int field, String text) {
+        return equalsIgnoreCase(fieldStarts[field], fieldEnds[field], text);
+    }
+
+    private boolean equalsIgnoreCase(int from, int to, String text) {
+        if (to - from != text.length()) return false;
+        for (int i = 0; i < text.length(); i++) {
+            if (Character.toLowerCase(buffer[from + i]) != Character.toLowerCase(text.charAt(i))) return false;
+        }
+        return true;
+    }
+
+    private int parseInt(int from, int to, int fieldEnd) {
+        if (to > fieldEnd) throw new IllegalArgumentException("Field too short");
+        int value = 0;
+        for (int i = from; i < to; i++) {
+            char c = buffer[i];
+            if (c < '0' || c > '9') throw new IllegalArgumentException("Not a digit: " + c);
+            value = value * 10 + (c - '0');
+        }
+        return value;
+    }
+
+    private String columnName(int field) {
+        return header != null && field < header.length ? header[field] : "column " + (field + 1);
+    }
+}
@@ -0,0 +1,248 @@
+package finance;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Writer;
+import java.time.LocalDate;
+import java.util.Arrays;
+import java.util.Locale;
+
+// Writes CSV rows through a reusable character buffer. Numbers and dates are formatted in place
+// instead of through String.format, so writing a row creates no intermediate strings.
+
+public class CsvWriter implements Closeable {
+
+    private static final int FLUSH_SIZE = 16 * 1024;
+    private static final int MAX_DECIMALS = 9;
+    private static final double[] POWERS_OF_TEN = {1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9};
+
+    private final Writer out;
+    private final StringBuilder scratch = new StringBuilder(32); // for Double.toString digits
+    private char[] buffer = new char[2 * FLUSH_SIZE];
+    private int length;
+    private boolean inRow; // a field has been written to the current row
+
+    public CsvWriter(Writer out) {
+        this.out = out;
+    }
+
+    /**
+     * Writes a complete line, such as a header, as is.
+     */
+    public CsvWriter writeLine(CharSequence line) throws IOException {
+        field(line);
+        endRow();
+        return this;
+    }
+
+    /**
+     * Writes a text field; the text is not quoted, so it must not contain commas or line breaks.
+     */
+    public CsvWriter field(CharSequence text) {
+        separate();
+        int count = text.length();
+        ensure(count);
+        for (int i = 0; i < count; i++) buffer[length++] = text.charAt(i);
+        return this;
+    }
+
+    public CsvWriter field(char[] chars, int from, int to) {
+        separate();
+        ensure(to - from);
+        System.arraycopy(chars, from, buffer, length, to - from);
+        length += to - from;
+        return this;
+    }
+
+    /**
+     * Writes a price or volume, dropping the fraction for whole numbers; NaN is written as an empty field.
+     */
+    public CsvWriter number(double value) {
+        separate();
+        if (Double.isNaN(value)) return this;
+        if (value == Math.rint(value) && Math.abs(value) < 1e15) {
+            putLong((long) value);
+        } else {
+            scratch.setLength(0);
+            scratch.append(value); // same digits as Double.toString
+            putScratch();
+        }
+        return this;
+    }
+
+    /**
+     * Writes a value with 2 decimals, or NULL if it is missing (NaN).
+     */
+    public CsvWriter decimal(double value) {
+        return decimal(value, 2);
+    }
+
+    /**
+     * Writes a value with the given number of decimals as String.format("%.nf") would, or NULL if it is
+     * missing (NaN). The decimal separator is always a dot.
+     */
+    public CsvWriter decimal(double value, int decimals) {
+        if (decimals < 0 || decimals > MAX_DECIMALS) throw new IllegalArgumentException("Unsupported decimals: " + decimals);
+        separate();
+        if (Double.isNaN(value)) {
+            put("NULL");
+            return this;
+        }
+
+        long units = units(value, decimals);
+        if (units >= 0) {
+            if (value < 0 || 1 / value < 0) put('-'); // Formatter keeps the sign of -0.001 and -0.0
+            putUnits(units, decimals);
+        } else {
+            put(String.format(Locale.ROOT, "%." + decimals + "f", value));
+        }
+        return this;
+    }
+
+    /**
+     * Returns the value that a field written by decimal(value, decimals) reads back as, so values computed
+     * in memory can be rounded exactly as a written file holds them. NaN stays NaN.
+     */
+    public static double round(double value, int decimals) {
+        if (decimals < 0 || decimals > MAX_DECIMALS) throw new IllegalArgumentException("Unsupported decimals: " + decimals);
+        if (Double.isNaN(value)) return value;
+        long units = units(value, decimals);
+        if (units < 0) return Double.parseDouble(String.format(Locale.ROOT, "%." + decimals + "f", value));
+        double rounded = units / POWERS_OF_TEN[decimals]; // correctly rounded, as parsing the digits would be
+        return value < 0 || 1 / value < 0 ? -rounded : rounded;
+    }
+
+    /**
+     * Returns |value| * 10^decimals rounded as Formatter rounds it, or -1 if only Formatter can tell.
+     */
+    private static long units(double value, int decimals) {
+        double scaled = Math.abs(value) * POWERS_OF_TEN[decimals];
+        double whole = Math.floor(scaled);
+        double fraction = scaled - whole;
+        // Formatter rounds the shortest decimal form of the value half up. Unless the value lies within a
+        // few ulps of a tie, rounding the scaled binary value gives the same digits.
+        if (scaled < 1e15 && Math.abs(fraction - 0.5) > 4 * Math.ulp(scaled)) {
+            return (long) whole + (fraction > 0.5 ? 1 : 0);
+        }
+        return -1;
+    }
+
+    /**
+     * Writes an epoch day as yyyy-MM-dd, or as dd-MM-yyyy if dayFirst is set.
+     */
+    public CsvWriter date(long epochDay, boolean dayFirst) {
+        separate();
+        LocalDate date = LocalDate.ofEpochDay(epochDay);
+        int year = date.getYear();
+        if (year < 0 || year > 9999) {
+            put(dayFirst ? String.format(Locale.ROOT, "%02d-%02d-%04d", date.getDayOfMonth(), date.getMonthValue(), year)
+                         : date.toString());
+            return this;
+        }
+        ensure(10);
+        if (dayFirst) {
+            putDigits(date.getDayOfMonth(), 2);
+            buffer[length++] = '-';
+            putDigits(date.getMonthValue(), 2);
+            buffer[length++] = '-';
+            putDigits(year, 4);
+        } else {
+            putDigits(year, 4);
+            buffer[length++] = '-';
+            putDigits(date.getMonthValue(), 2);
+            buffer[length++] = '-';
+            putDigits(date.getDayOfMonth(), 2);
+        }
+        return this;
+    }
+
+    /**
+     * Ends the current row, handing the buffer to the underlying writer once it is large enough.
+     */
+    public void endRow() throws IOException {
+        ensure(1);
+        buffer[length++] = '\n';
+        inRow = false;
+        if (length >= FLUSH_SIZE) drain();
+    }
+
+    public void flush() throws IOException {
+        drain();
+        out.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            drain();
+        } finally {
+            out.close();
+        }
+    }
+
+    private void drain() throws IOException {
+        if (length == 0) return; // also keeps a second close from writing to the closed writer
+        out.write(buffer, 0, length);
+        length = 0;
+    }
+
+    private void separate() {
+        if (inRow) put(',');
+        inRow = true;
+    }
+
+    private void ensure(int count) {
+        if (length + count > buffer.length) buffer = Arrays.copyOf(buffer, Math.max(2 * buffer.length, length + count));
+    }
+
+    private void put(char c) {
+        ensure(1);
+        buffer[length++] = c;
+    }
+
+    private void put(String text) {
+        ensure(text.length());
+        text.getChars(0, text.length(), buffer, length);
+        length += text.length();
+    }
+
+    private void putScratch() {
+        ensure(scratch.length());
+        scratch.getChars(0, scratch.length(), buffer, length);
+        length += scratch.length();
+    }
+
+    private void putLong(long value) {
+        if (value < 0) {
+            put('-');
+            value = -value;
+        }
+        int digits = 1;
+        for (long bound = 10; digits < 19 && value >= bound; bound *= 10) digits++;
+        ensure(digits);
+        putDigits(value, digits);
+    }
+
+    /**
+     * Writes units / 10^decimals with exactly the given number of decimals.
+     */
+    private void putUnits(long units, int decimals) {
+        long scale = (long) POWERS_OF_TEN[decimals];
+        putLong(units / scale);
+        if (decimals == 0) return;
+        ensure(decimals + 1);
+        buffer[length++] = '.';
+        putDigits(units % scale, decimals);
+    }
+
+    /**
+     * Writes the lowest 'digits' decimal digits of a non-negative value, zero padded; space must be ensured.
+     */
+    private void putDigits(long value, int digits) {
+        for (int i = length + digits - 1; i >= length; i--) {
+            buffer[i] = (char) ('0' + value % 10);
+            value /= 10;
+        }
+        length += digits;
+    }
+}
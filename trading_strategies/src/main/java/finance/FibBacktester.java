@@ -1,14 +1,8 @@
 package finance;
 
 import java.io.*;
-import java.nio.file.*;
 import java.util.*;
 
-import org.jfree.chart.ChartFactory;
-import org.jfree.chart.ChartUtils;
-import org.jfree.chart.JFreeChart;
-import org.jfree.data.category.DefaultCategoryDataset;
-
 public class FibBacktester {
     private static final String DATA_FOLDER = "data/";
 
@@ -29,12 +23,10 @@ public class FibBacktester {
         double maxPositionSize           // Maximum position size as fraction of balance
         )
     {
-        double balance = initialBalance;
-        double peakBalance = initialBalance; 
-        Map<String, Double> positions = new HashMap<>();  // ticker -> position size
-        Map<String, List<String[]>> tickerData = new HashMap<>();
-        Set<String> allDates = new TreeSet<>();  // Using TreeSet for sorted dates
-        
+        PerformanceStats stats = new PerformanceStats(initialBalance);
+        PnLChart.Curve cumulativePnL = new PnLChart.Curve();
+        PnLChart.Curve benchmark = null;
+
         // Loading data
         File folder = new File(DATA_FOLDER);
         File[] processedFiles = folder.listFiles((dir, name) -> 
@@ -45,245 +37,354 @@ public class FibBacktester {
             return;
         }
 
-        for (File file : processedFiles) {
-            String ticker = file.getName().replace("processed_", "").replace(".csv", "");
-            try (BufferedReader reader = Files.newBufferedReader(file.toPath())) {
-                List<String[]> rows = new ArrayList<>();
-                reader.readLine(); 
-                String line;
-                while ((line = reader.readLine()) != null) {
-                    String[] row = line.split(",");
-                    rows.add(row);
-                    allDates.add(row[0]); // Date is at position 0
-                }
-                tickerData.put(ticker, rows);
-                positions.put(ticker, 0.0);
-            } catch (IOException e) {
-                System.err.println("Error loading file " + file.getName() + ": " + e.getMessage());
-            }
+        // Trading starts! The levels are read once into date-aligned matrices, covering the rows the strategy produced levels for
+        long start = System.nanoTime();
+        try {
+            FibMatrix matrix = FibMatrix.of(processedFiles);
+            new FibTrader(stats, buyFullBelow, buyHalfAbove, sellFullAbove, sellHalfAbove,
+                    atrVolatilityThreshold, maxPositionSize).run(matrix, 0, matrix.size(), cumulativePnL);
+            String benchmarkTicker = System.getProperty("chart.benchmark");
+            if (benchmarkTicker != null) benchmark = benchmark(matrix, benchmarkTicker, initialBalance);
+        } catch (UncheckedIOException | IllegalArgumentException | IllegalStateException e) {
+            Metrics.increment("backtest.errors");
+            System.err.println("Error during backtesting: " + e.getMessage());
+            return;
+        } finally {
+            Metrics.stopTimer("backtest.fib", start); // loading the levels and trading
         }
     
-        // Initialize performance tracking
-        List<Double> cumulativePnL = new ArrayList<>();
-        List<Double> returns = new ArrayList<>();
-        List<String> dates = new ArrayList<>();
-        List<Double> drawdownPercentages = new ArrayList<>(); 
-        int totalSignals = 0;
-        int correctSignals = 0;
+        // Print performance metrics
+        stats.print();
     
-        // Create date -> row index map for each ticker
-        Map<String, Map<String, Integer>> tickerDateIndices = new HashMap<>();
-        for (Map.Entry<String, List<String[]>> entry : tickerData.entrySet()) {
-            Map<String, Integer> dateIndices = new HashMap<>();
-            List<String[]> rows = entry.getValue();
-            for (int i = 0; i < rows.size(); i++) {
-                dateIndices.put(rows.get(i)[0], i);
-            }
-            tickerDateIndices.put(entry.getKey(), dateIndices);
+        plotCumulativePnL(cumulativePnL, benchmark);
+    }
+    
+    /**
+     * Backtests series carrying Fibonacci levels without printing or plotting anything,
+     * e.g. to compare parameter combinations. Takes the same parameters as TradeOnStrategy.
+     */
+    public static PerformanceStats evaluate(List<PriceSeries> seriesList, double initialBalance,
+                                            double buyFullBelow, double buyHalfAbove, double sellFullAbove,
+                                            double sellHalfAbove, double atrVolatilityThreshold,
+                                            double stopLossPercent, double maxPositionSize) {
+        return evaluate(FibMatrix.of(seriesList), initialBalance, buyFullBelow, buyHalfAbove, sellFullAbove,
+                sellHalfAbove, atrVolatilityThreshold, stopLossPercent, maxPositionSize);
+    }
+
+    /**
+     * Backtests levels already aligned into a matrix, which can be shared by many parameter combinations.
+     */
+    static PerformanceStats evaluate(FibMatrix matrix, double initialBalance,
+                                     double buyFullBelow, double buyHalfAbove, double sellFullAbove,
+                                     double sellHalfAbove, double atrVolatilityThreshold,
+                                     double stopLossPercent, double maxPositionSize) {
+        PerformanceStats stats = new PerformanceStats(initialBalance);
+        evaluate(matrix, 0, matrix.size(), stats, buyFullBelow, buyHalfAbove, sellFullAbove, sellHalfAbove,
+                atrVolatilityThreshold, stopLossPercent, maxPositionSize);
+        return stats;
+    }
+
+    /**
+     * Trades the dates [from, to) of the matrix into the given stats, starting all in cash at their final
+     * balance, so a range can be backtested on its own and consecutive ranges chained into one set of stats.
+     */
+    static void evaluate(FibMatrix matrix, int from, int to, PerformanceStats stats,
+                         double buyFullBelow, double buyHalfAbove, double sellFullAbove,
+                         double sellHalfAbove, double atrVolatilityThreshold,
+                         double stopLossPercent, double maxPositionSize) {
+        new FibTrader(stats, buyFullBelow, buyHalfAbove, sellFullAbove, sellHalfAbove,
+                atrVolatilityThreshold, maxPositionSize).run(matrix, from, to, null);
+    }
+
+    /**
+     * Prices and levels of all tickers aligned on a shared date axis. Row d holds every ticker's values on
+     * dates[d], with a NaN ATR for tickers without a bar carrying levels that day, so the simulation only indexes arrays.
+     * Rows are dates rather than tickers because the simulation walks all tickers one date at a time.
+     */
+    static final class FibMatrix {
+        private static final String[] LEVELS = {"ATR", "Swing High", "Swing Low", "Fib 23.6", "Fib 38.2", "Fib 61.8", "Fib 78.6"};
+
+        final List<String> tickers;
+        final long[] dates; // epoch days
+        final double[][] close;
+        final double[][] atr;
+        final double[][] swingHigh;
+        final double[][] swingLow;
+        final double[][] fib236;
+        final double[][] fib382;
+        final double[][] fib618;
+        final double[][] fib786;
+
+        private FibMatrix(List<String> tickers, long[] dates, double[][][] columns) {
+            this.tickers = tickers;
+            this.dates = dates;
+            this.close = columns[0];
+            this.atr = columns[1];
+            this.swingHigh = columns[2];
+            this.swingLow = columns[3];
+            this.fib236 = columns[4];
+            this.fib382 = columns[5];
+            this.fib618 = columns[6];
+            this.fib786 = columns[7];
         }
 
+        /**
+         * Reads the levels of the processed files, from PriceStore where cached and streamed from disk otherwise.
+         */
+        static FibMatrix of(File[] processedFiles) {
+            Builder builder = new Builder();
+            BacktestEngine.run(processedFiles, builder);
+            return builder.build();
+        }
 
-        // Portfolio allocation limits
-        int numTickers = tickerData.size();
-        double baseAllocationPerTicker = initialBalance / (numTickers * 2);
-        Map<String, Double> maxAllocationPerTicker = new HashMap<>();
-        
-        // Initialize allocation tracking
-        Map<String, Double> currentAllocation = new HashMap<>();
-        for (String ticker : tickerData.keySet()) {
-            positions.put(ticker, 0.0);
-            currentAllocation.put(ticker, 0.0);
-            maxAllocationPerTicker.put(ticker, baseAllocationPerTicker);
+        static FibMatrix of(List<PriceSeries> seriesList) {
+            Builder builder = new Builder();
+            BacktestEngine.run(seriesList, builder);
+            return builder.build();
         }
-    
-        double previousTotalValue = initialBalance;
-
-        // Trading starts!
-        for (String date : allDates) {
-            dates.add(date);
-
-            // Update available balance for each ticker
-            Map<String, Double> availableBalance = new HashMap<>();
-            double totalPortfolioValue = balance;
-            for (Map.Entry<String, Double> position : positions.entrySet()) {
-                String ticker = position.getKey();
-                double pos = position.getValue();
-                if (pos > 0) {
-                    double closePrice = Double.parseDouble(
-                        tickerData.get(ticker).get(tickerDateIndices.get(ticker).get(date))[4]
-                    );
-                    totalPortfolioValue += pos * closePrice;
+
+        int size() {
+            return dates.length;
+        }
+
+        /**
+         * Collects the bars of the engine's date-ordered merge into one row per date.
+         */
+        private static final class Builder implements BacktestEngine.BarHandler {
+            private List<String> tickers;
+            private int[][] levelIndices; // per ticker, the bar's column index of each level, looked up once
+            private long[] dates = new long[256];
+            private double[][][] columns = new double[LEVELS.length + 1][dates.length][];
+            private int size;
+
+            @Override
+            public boolean accept(String csvFileName, List<String> columns) {
+                if (!columns.contains("ATR")) {
+                    System.err.println("No Fibonacci levels found in " + csvFileName);
+                    return false;
                 }
+                return true;
             }
-            double averageAllocation = totalPortfolioValue / numTickers;
-            for (String ticker : tickerData.keySet()) {
-                double currentPos = positions.get(ticker);
-                double currentPrice = Double.parseDouble(
-                    tickerData.get(ticker).get(tickerDateIndices.get(ticker).get(date))[4]);
-                double tickerValue = currentPos * currentPrice;
-                currentAllocation.put(ticker, tickerValue);
-                double maxAllocation = Math.min(
-                    maxAllocationPerTicker.get(ticker),
-                    averageAllocation * maxPositionSize);
-                availableBalance.put(ticker, maxAllocation - tickerValue);
+
+            @Override
+            public void onStart(List<String> tickers) {
+                this.tickers = new ArrayList<>(tickers);
+                this.levelIndices = new int[tickers.size()][];
             }
-    
-            // Iterating over all tickers
-            for (String ticker : tickerData.keySet()) {
-                List<String[]> rows = tickerData.get(ticker);
-                Map<String, Integer> dateIndices = tickerDateIndices.get(ticker);
-                Integer currentIndex = dateIndices.get(date);
-                
-                if (currentIndex == null || currentIndex == 0) continue; // Skip if no data or first entry
-                
-                String[] currentRow = rows.get(currentIndex);
-                String[] previousRow = rows.get(currentIndex - 1);
-    
-                double closePrice = Double.parseDouble(currentRow[4]);
-                double previousClose = Double.parseDouble(previousRow[4]);
-                double atr = Double.parseDouble(currentRow[15]);
-                double swingHigh = Double.parseDouble(currentRow[8]);
-                double swingLow = Double.parseDouble(currentRow[9]);
-                Map<String, Double> fibLevels = Map.of(
-                    "Fib 23.6", Double.parseDouble(currentRow[10]),
-                    "Fib 38.2", Double.parseDouble(currentRow[11]),
-                    "Fib 50", Double.parseDouble(currentRow[12]),
-                    "Fib 61.8", Double.parseDouble(currentRow[13]),
-                    "Fib 78.6", Double.parseDouble(currentRow[14])
-                );
-    
-                
-                String signal = "Hold";
-                double investment = 0.0;
-                double position = positions.get(ticker);
-                double tickerBalance = availableBalance.get(ticker);
-
-                // Updating signals
-                if (atr <= atrVolatilityThreshold * closePrice) {
-                    
-                    if (closePrice <= fibLevels.get("Fib 23.6") && previousClose > fibLevels.get("Fib 23.6")) {
-                        signal = "Buy";
-                        investment = Math.min(tickerBalance, baseAllocationPerTicker * buyHalfAbove);
-                    } else if (closePrice <= fibLevels.get("Fib 38.2") && previousClose > fibLevels.get("Fib 38.2")) {
-                        signal = "Buy";
-                        investment = Math.min(tickerBalance, baseAllocationPerTicker * buyFullBelow);
-                    } else if (closePrice <= fibLevels.get("Fib 61.8") && previousClose > fibLevels.get("Fib 61.8")) {
-                        signal = "Buy";
-                        investment = Math.min(tickerBalance, baseAllocationPerTicker * buyFullBelow);
-                    }
-                    
-                    if (closePrice >= fibLevels.get("Fib 78.6") && previousClose < fibLevels.get("Fib 78.6")) {
-                        signal = "Sell";
-                        investment = position * sellHalfAbove;
-                    } else if (closePrice >= fibLevels.get("Fib 61.8") && previousClose < fibLevels.get("Fib 61.8")) {
-                        signal = "Sell";
-                        investment = position * sellFullAbove;
-                    }
+
+            @Override
+            public boolean include(BacktestEngine.Bar bar) {
+                int[] indices = levelIndices[bar.tickerIndex];
+                if (indices == null) {
+                    indices = new int[LEVELS.length];
+                    for (int level = 0; level < LEVELS.length; level++) indices[level] = bar.columnIndex(LEVELS[level]);
+                    levelIndices[bar.tickerIndex] = indices;
                 }
+                return !Double.isNaN(bar.column(indices[0])); // ATR
+            }
 
-                // Executing trades
-                if ("Buy".equalsIgnoreCase(signal)) {
-                    double positionSize = investment / closePrice;
-                    if (balance >= investment && currentAllocation.get(ticker) + investment <= maxAllocationPerTicker.get(ticker)) {
-                        positions.put(ticker, position + positionSize);
-                        balance -= investment;
-                        currentAllocation.put(ticker, currentAllocation.get(ticker) + investment);
-                        totalSignals++;
-                        if (closePrice > swingLow && closePrice < swingHigh) correctSignals++;
+            @Override
+            public void onBars(long date, List<BacktestEngine.Bar> bars) {
+                if (size == dates.length) {
+                    dates = Arrays.copyOf(dates, 2 * size);
+                    for (int c = 0; c < columns.length; c++) columns[c] = Arrays.copyOf(columns[c], 2 * size);
+                }
+                dates[size] = date;
+                for (int c = 0; c < columns.length; c++) {
+                    double[] row = new double[tickers.size()];
+                    Arrays.fill(row, Double.NaN);
+                    for (BacktestEngine.Bar bar : bars) {
+                        row[bar.tickerIndex] = c == 0 ? bar.close : bar.column(levelIndices[bar.tickerIndex][c - 1]);
                     }
-                } else if ("Sell".equalsIgnoreCase(signal)) {
-                    double sellAmount = Math.min(position, investment / closePrice);
-                    balance += sellAmount * closePrice;
-                    positions.put(ticker, position - sellAmount);
-                    currentAllocation.put(ticker, currentAllocation.get(ticker) - (sellAmount * closePrice));
-                    totalSignals++;
-                    if (closePrice < swingLow || closePrice > swingHigh) correctSignals++;
+                    columns[c][size] = row;
                 }
+                size++;
             }
-    
-            // Calculating total portfolio value
-            double totalValue = balance;
-            for (Map.Entry<String, Double> position : positions.entrySet()) {
-                String ticker = position.getKey();
-                double pos = position.getValue();
-                if (pos > 0) {
-                    String[] currentRow = tickerData.get(ticker).get(tickerDateIndices.get(ticker).get(date));
-                    double closePrice = Double.parseDouble(currentRow[4]);
-                    totalValue += pos * closePrice;
-                }
+
+            FibMatrix build() {
+                if (tickers == null) tickers = new ArrayList<>();
+                double[][][] trimmed = new double[columns.length][][];
+                for (int c = 0; c < columns.length; c++) trimmed[c] = Arrays.copyOf(columns[c], size);
+                return new FibMatrix(Collections.unmodifiableList(tickers), Arrays.copyOf(dates, size), trimmed);
             }
-    
-            // Daily performance metrics
-            double dailyReturn = (totalValue - previousTotalValue) / previousTotalValue;
-            returns.add(dailyReturn);
-            cumulativePnL.add(totalValue - initialBalance);
-            previousTotalValue = totalValue;
-
-            // Drawdown computation
-            peakBalance = Math.max(peakBalance, balance);
-            double currentDrawdown = (balance - peakBalance) / peakBalance;
-            drawdownPercentages.add(currentDrawdown);
         }
-    
-        // Final performance metrics
-        double finalValue = balance;
-        for (Map.Entry<String, Double> position : positions.entrySet()) {
-            String ticker = position.getKey();
-            double pos = position.getValue();
-            if (pos > 0) {
-                List<String[]> rows = tickerData.get(ticker);
-                double lastClose = Double.parseDouble(rows.get(rows.size() - 1)[4]);
-                finalValue += pos * lastClose;
+    }
+
+    /**
+     * Buys when the close falls through a retracement level and sells when it climbs back through one,
+     * within per-ticker allocation limits.
+     */
+    private static class FibTrader {
+        private final PerformanceStats stats;
+        private final double initialBalance;
+        private final double buyFullBelow;
+        private final double buyHalfAbove;
+        private final double sellFullAbove;
+        private final double sellHalfAbove;
+        private final double atrVolatilityThreshold;
+        private final double maxPositionSize;
+
+        FibTrader(PerformanceStats stats, double buyFullBelow, double buyHalfAbove, double sellFullAbove,
+                  double sellHalfAbove, double atrVolatilityThreshold, double maxPositionSize) {
+            this.stats = stats;
+            this.initialBalance = stats.getFinalBalance(); // the initial balance unless continuing earlier stats
+            this.buyFullBelow = buyFullBelow;
+            this.buyHalfAbove = buyHalfAbove;
+            this.sellFullAbove = sellFullAbove;
+            this.sellHalfAbove = sellHalfAbove;
+            this.atrVolatilityThreshold = atrVolatilityThreshold;
+            this.maxPositionSize = maxPositionSize;
+        }
+
+        /**
+         * Runs the simulation over the dates [from, to) of the matrix; cumulativePnL is filled for the
+         * chart unless null.
+         */
+        void run(FibMatrix matrix, int from, int to, PnLChart.Curve cumulativePnL) {
+            // Portfolio allocation limits
+            int numTickers = matrix.tickers.size();
+            double baseAllocationPerTicker = initialBalance / (numTickers * 2);
+            double balance = initialBalance;
+            double previousTotalValue = initialBalance;
+            double[] positions = new double[numTickers];          // ticker -> position size
+            double[] currentAllocation = new double[numTickers];  // ticker -> value of the position at its last close
+            double[] previousClose = new double[numTickers];      // NaN until the ticker's first bar with levels
+            double[] lastClose = new double[numTickers];
+            Arrays.fill(previousClose, Double.NaN);
+
+            for (int d = from; d < to; d++) {
+                double[] close = matrix.close[d];
+                double[] atr = matrix.atr[d];
+                double[] swingHigh = matrix.swingHigh[d];
+                double[] swingLow = matrix.swingLow[d];
+                double[] fib236 = matrix.fib236[d];
+                double[] fib382 = matrix.fib382[d];
+                double[] fib618 = matrix.fib618[d];
+                double[] fib786 = matrix.fib786[d];
+
+                // Update allocations of the tickers trading today
+                double totalPortfolioValue = balance;
+                for (int t = 0; t < numTickers; t++) {
+                    if (Double.isNaN(atr[t])) continue; // no bar with levels today
+                    double pos = positions[t];
+                    if (pos > 0) totalPortfolioValue += pos * close[t];
+                    currentAllocation[t] = pos * close[t];
+                }
+                double averageAllocation = totalPortfolioValue / numTickers;
+                double maxAllocation = Math.min(baseAllocationPerTicker, averageAllocation * maxPositionSize);
+
+                // Iterating over all tickers with a bar today
+                for (int t = 0; t < numTickers; t++) {
+                    if (Double.isNaN(atr[t])) continue;
+                    double closePrice = close[t];
+                    double previous = previousClose[t];
+                    previousClose[t] = closePrice;
+                    lastClose[t] = closePrice;
+                    if (Double.isNaN(previous)) continue; // Skip the first entry
+
+                    byte signal = PriceSeries.NEUTRAL;
+                    double investment = 0.0;
+                    double position = positions[t];
+                    double tickerBalance = maxAllocation - currentAllocation[t];
+
+                    // Updating signals
+                    if (atr[t] <= atrVolatilityThreshold * closePrice) {
+
+                        if (closePrice <= fib236[t] && previous > fib236[t]) {
+                            signal = PriceSeries.LONG;
+                            investment = Math.min(tickerBalance, baseAllocationPerTicker * buyHalfAbove);
+                        } else if (closePrice <= fib382[t] && previous > fib382[t]) {
+                            signal = PriceSeries.LONG;
+                            investment = Math.min(tickerBalance, baseAllocationPerTicker * buyFullBelow);
+                        } else if (closePrice <= fib618[t] && previous > fib618[t]) {
+                            signal = PriceSeries.LONG;
+                            investment = Math.min(tickerBalance, baseAllocationPerTicker * buyFullBelow);
+                        }
+
+                        if (closePrice >= fib786[t] && previous < fib786[t]) {
+                            signal = PriceSeries.SHORT;
+                            investment = position * sellHalfAbove;
+                        } else if (closePrice >= fib618[t] && previous < fib618[t]) {
+                            signal = PriceSeries.SHORT;
+                            investment = position * sellFullAbove;
+                        }
+                    }
+
+                    // Executing trades
+                    if (signal == PriceSeries.LONG) {
+                        double positionSize = investment / closePrice;
+                        if (balance >= investment && currentAllocation[t] + investment <= baseAllocationPerTicker) {
+                            positions[t] = position + positionSize;
+                            balance -= investment;
+                            currentAllocation[t] += investment;
+                            stats.addSignal(closePrice > swingLow[t] && closePrice < swingHigh[t]);
+                        }
+                    } else if (signal == PriceSeries.SHORT) {
+                        double sellAmount = Math.min(position, investment / closePrice);
+                        balance += sellAmount * closePrice;
+                        positions[t] = position - sellAmount;
+                        currentAllocation[t] -= sellAmount * closePrice;
+                        stats.addSignal(closePrice < swingLow[t] || closePrice > swingHigh[t]);
+                    }
+                }
+
+                // Calculating total portfolio value
+                double totalValue = balance;
+                for (int t = 0; t < numTickers; t++) {
+                    if (!Double.isNaN(atr[t]) && positions[t] > 0) totalValue += positions[t] * close[t];
+                }
+
+                // Daily performance metrics
+                double dailyReturn = (totalValue - previousTotalValue) / previousTotalValue;
+                stats.addReturn(dailyReturn);
+                if (cumulativePnL != null) cumulativePnL.add(matrix.dates[d], totalValue - initialBalance);
+                previousTotalValue = totalValue;
+
+                // Drawdown computation
+                stats.updateDrawdown(balance);
+            }
+
+            // Final performance metrics, with open positions at their last close
+            double finalValue = balance;
+            for (int t = 0; t < numTickers; t++) {
+                if (positions[t] > 0) finalValue += positions[t] * lastClose[t];
             }
+            stats.setFinalBalance(finalValue);
         }
-    
-        double cumulativeReturn = (finalValue - initialBalance) / initialBalance;
-        double avgReturn = returns.stream().mapToDouble(Double::doubleValue).average().orElse(0.0);
-        double volatility = Math.sqrt(returns.stream()
-                .mapToDouble(r -> Math.pow(r - avgReturn, 2))
-                .sum() / returns.size());
-        double sharpeRatio = volatility > 0 ? avgReturn / volatility * Math.sqrt(252) : 0.0;
-        double maxDrawdown = drawdownPercentages.stream().min(Double::compareTo).orElse(0.0);
-        double accuracy = totalSignals > 0 ? (double) correctSignals / totalSignals : 0.0;
-    
-        // Print performance metrics
-        System.out.println("\nPortfolio Performance Metrics:");
-        System.out.printf("Initial Balance: $%.2f%n", initialBalance);
-        System.out.printf("Final Balance: $%.2f%n", finalValue);
-        System.out.printf("Total Return: %.2f%%%n", cumulativeReturn * 100);
-        System.out.printf("Average Daily Return: %.2f%%%n", avgReturn * 100);
-        System.out.printf("Volatility: %.2f%%%n", volatility * 100);
-        System.out.printf("Annualized Sharpe Ratio: %.2f%n", sharpeRatio);
-        System.out.printf("Maximum Drawdown: %.2f%%%n", maxDrawdown * 100);
-        System.out.printf("Signal Accuracy: %.2f%%%n", accuracy * 100);
-    
-        plotCumulativePnL(dates, cumulativePnL);
     }
-    
-    /** 
-     * Plots and saves the cumulative profit and loss (PnL) over time as a chart.
-     * Image is saved in the same directory as 'cumulative_pnl.png'
+
+    /**
+     * The PnL of holding the benchmark ticker from its first close with levels, with the same initial
+     * balance, or null if the ticker is not in the matrix.
      */
-    private static void plotCumulativePnL(List<String> dates, List<Double> pnl) {
-        DefaultCategoryDataset dataset = new DefaultCategoryDataset();
-        for (int i = 0; i < dates.size(); i++) {
-            dataset.addValue(pnl.get(i), "Cumulative PnL", dates.get(i));
+    private static PnLChart.Curve benchmark(FibMatrix matrix, String ticker, double initialBalance) {
+        int t = matrix.tickers.indexOf(ticker);
+        if (t < 0) {
+            System.err.println("Benchmark " + ticker + " not found");
+            return null;
         }
-    
-        JFreeChart chart = ChartFactory.createLineChart(
-                "Cumulative PnL Over Time",
-                "Date",
-                "PnL ($)",
-                dataset
-        );
-    
-        try {
-            File imageFile = new File(DATA_FOLDER + "cumulative_pnl.png");
-            ChartUtils.saveChartAsPNG(imageFile, chart, 800, 600);
-            System.out.println("Cumulative PnL chart saved as " + imageFile.getPath());
-        } catch (IOException e) {
-            System.err.println("Error saving cumulative PnL chart: " + e.getMessage());
+        PnLChart.Curve pnl = new PnLChart.Curve();
+        double firstClose = Double.NaN;
+        double lastClose = Double.NaN;
+        for (int d = 0; d < matrix.size(); d++) {
+            double close = matrix.close[d][t];
+            if (!Double.isNaN(close)) lastClose = close; // the last close is held on dates the ticker did not trade
+            if (Double.isNaN(firstClose)) firstClose = lastClose;
+            pnl.add(matrix.dates[d], initialBalance * (lastClose / firstClose - 1)); // NaN, left out, before its first close
         }
+        return pnl;
     }
-    
+
+    /** 
+     * Plots and saves the cumulative profit and loss (PnL) over time as a chart, on a background thread,
+     * with its drawdown under -Dchart.drawdown=true and the benchmark's PnL unless null.
+     * Image is saved in the same directory as 'cumulative_pnl.png'
+     */
+    private static void plotCumulativePnL(PnLChart.Curve pnl, PnLChart.Curve benchmark) {
+        PnLChart chart = new PnLChart("Cumulative PnL Over Time", "PnL ($)").add("Cumulative PnL", pnl);
+        if (Boolean.getBoolean("chart.drawdown")) chart.add("Drawdown", pnl.drawdown());
+        if (benchmark != null) chart.add("Benchmark (" + System.getProperty("chart.benchmark") + ")", benchmark);
+        chart.saveAsync(new File(DATA_FOLDER + "cumulative_pnl.png"), 800, 600);
+    }
+
 }
@@ -1,12 +1,12 @@
 package finance;
 
-import java.io.BufferedReader;
-import java.io.BufferedWriter;
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Paths;
 import java.nio.file.StandardCopyOption;
-import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 
@@ -16,148 +16,179 @@ public class FibStrategy {
 
     private static final String DATA_FOLDER = "data/";
 
+    // Indicator columns, and the retracement ratios of the Fibonacci levels between the swings
+    private static final String[] INDICATORS = {"Swing High", "Swing Low", "Fib 23.6", "Fib 38.2", "Fib 50", "Fib 61.8", "Fib 78.6", "ATR"};
+    private static final double[] RATIOS = {0.236, 0.382, 0.5, 0.618, 0.786};
+
     /**
      * Applies the Fibonacci retracement trading strategy.
      */
     public static void applyFibStrategy(String csvFileName, int period, int atrPeriod) {
         String inputFilePath = DATA_FOLDER + csvFileName;
         String tempFilePath = DATA_FOLDER + "temp_" + csvFileName;
+        long start = System.nanoTime();
     
-        try (BufferedReader reader = Files.newBufferedReader(Paths.get(inputFilePath));
-            BufferedWriter writer = Files.newBufferedWriter(Paths.get(tempFilePath))) {
-    
-            String header = reader.readLine();
-            if (header == null) throw new IOException("Empty CSV file");
+        try (CsvWriter writer = new CsvWriter(Files.newBufferedWriter(Paths.get(tempFilePath)))) {
     
-            writer.write(header + ",Swing High,Swing Low,Fib 23.6,Fib 38.2,Fib 50,Fib 61.8,Fib 78.6,ATR\n");
+            PriceSeries series = PriceStore.load(csvFileName);
+            writer.writeLine(PriceSeries.HEADER + ",Swing High,Swing Low,Fib 23.6,Fib 38.2,Fib 50,Fib 61.8,Fib 78.6,ATR");
 
-            List<String[]> allRows = new ArrayList<>();
-            List<Double> closePrices = new ArrayList<>();
-            List<Double> highPrices = new ArrayList<>();
-            List<Double> lowPrices = new ArrayList<>();
-    
-            // Read and store all rows
-            String line;
-            while ((line = reader.readLine()) != null) {
-                String[] columns = line.split(",");
-                allRows.add(columns);
-                closePrices.add(parseDouble(columns[4], "Invalid Close price")); // Close at index 4
-                highPrices.add(parseDouble(columns[2], "Invalid High price")); // High at index 2
-                lowPrices.add(parseDouble(columns[3], "Invalid Low price")); // Low at index 3
-            }
+            Map<String, double[]> indicators = levels(series, period, atrPeriod);
+            double[] swingHighs = indicators.get("Swing High");
+            double[] swingLows = indicators.get("Swing Low");
+            double[] atrs = indicators.get("ATR");
 
-            // Generate indicators and signals
-            for (int i = 0; i < allRows.size(); i++) {
-                Double swingHigh = calculateMax(highPrices, i, period);
-                Double swingLow = calculateMin(lowPrices, i, period);
-                if (swingHigh == null || swingLow == null) {
-                    continue; // Skip processing for rows with insufficient data
-                }            
-
-                Double atr = null;
-                if (i >= atrPeriod) {
-                    atr = calculateATR(highPrices, lowPrices, closePrices, i, atrPeriod);
-                } else {
-                    continue; // Skip processing for rows with insufficient data for ATR
-                }                
-            
-                Map<String, Double> fibLevels = calculateFibLevels(swingHigh, swingLow);
-                if (fibLevels.isEmpty()) {
-                    continue; // Skip processing for rows with missing Fibonacci levels
+            for (int i = 0; i < series.size(); i++) {
+                if (Double.isNaN(atrs[i])) {
+                    continue; // Skip rows with insufficient data for the levels or the ATR
                 }
-    
-                String[] row = allRows.get(i);
-                writer.write(String.format("%s,%s,%s,%s,%s,%s,%s,%s,%s,%s,%s,%s,%s,%s,%s,%s%n",
-                        row[0], // Date
-                        row[1], // Open Price
-                        row[2], // High Price
-                        row[3], // Low Price
-                        row[4], // Close Price
-                        row[5], // Adjusted Close
-                        row[6], // Volume
-                        row[7], // Returns
-                        formatValue(swingHigh), // Swing High
-                        formatValue(swingLow), // Swing Low
-                        formatValue(fibLevels.get("Fib 23.6")),
-                        formatValue(fibLevels.get("Fib 38.2")),
-                        formatValue(fibLevels.get("Fib 50")),
-                        formatValue(fibLevels.get("Fib 61.8")),
-                        formatValue(fibLevels.get("Fib 78.6")),
-                        formatValue(atr))); // ATR
+                series.writeRow(writer, i); // Date, prices, Volume and Returns
+                writer.decimal(swingHighs[i]) // Swing High
+                      .decimal(swingLows[i]) // Swing Low
+                      .decimal(indicators.get("Fib 23.6")[i])
+                      .decimal(indicators.get("Fib 38.2")[i])
+                      .decimal(indicators.get("Fib 50")[i])
+                      .decimal(indicators.get("Fib 61.8")[i])
+                      .decimal(indicators.get("Fib 78.6")[i])
+                      .decimal(atrs[i]) // ATR
+                      .endRow();
             }
+            PriceStore.put(csvFileName, series.withSignals(indicators, null));
+            writer.close();
             Files.move(Paths.get(tempFilePath), Paths.get(inputFilePath), StandardCopyOption.REPLACE_EXISTING);
     
         } catch (IOException e) {
+            Metrics.increment("strategy.errors");
             System.err.println("Error applying strategy: " + e.getMessage());
         }
+        Metrics.stopTimer("strategy.fib", start);
     }    
 
-    /** 
-     * Calculates the maximum value in a list of prices for a specified period.
-     * Returns null if there are insufficient data points for the specified period.
+    /**
+     * Computes the swing, Fibonacci level and ATR columns of a series, NaN for rows with insufficient data.
      */
-    private static Double calculateMax(List<Double> values, int endIndex, int period) {
-        if (endIndex + 1 < period) return null;
-        return values.subList(endIndex + 1 - period, endIndex + 1).stream().mapToDouble(v -> v).max().orElse(Double.NaN);
-    }
+    public static Map<String, double[]> levels(PriceSeries series, int period, int atrPeriod) {
+        double[] swingHighs = IndicatorCache.swingHigh(series, period);
+        double[] swingLows = IndicatorCache.swingLow(series, period);
+        double[] atrs = IndicatorCache.atr(series, atrPeriod);
 
-    /** 
-     * Calculates the minimum value in a list of prices for a specified period.
-     * Returns null if there are insufficient data points for the specified period.
-     */
-    private static Double calculateMin(List<Double> values, int endIndex, int period) {
-        if (endIndex + 1 < period) return null;
-        return values.subList(endIndex + 1 - period, endIndex + 1).stream().mapToDouble(v -> v).min().orElse(Double.NaN);
-    }
+        // Indicator columns kept in the price store, NaN for rows skipped below
+        int size = series.size();
+        Map<String, double[]> indicators = new LinkedHashMap<>();
+        for (String name : INDICATORS) {
+            indicators.put(name, Indicators.emptyColumn(size));
+        }
+        double[][] columns = indicators.values().toArray(new double[0][]);
 
-    /** 
-     * Calculates the Fibonacci retracement levels based on the given high and low prices.
-    * Returns a map of Fibonacci levels (23.6%, 38.2%, 50%, 61.8%, and 78.6%).
-    */
-    private static Map<String, Double> calculateFibLevels(Double high, Double low) {
-        if (high == null || low == null) return Map.of();
-        double diff = high - low;
-        return Map.of(
-                "Fib 23.6", high - 0.236 * diff,
-                "Fib 38.2", high - 0.382 * diff,
-                "Fib 50", high - 0.5 * diff,
-                "Fib 61.8", high - 0.618 * diff,
-                "Fib 78.6", high - 0.786 * diff
-        );
-    }
+        // Generate indicators
+        for (int i = 0; i < size; i++) {
+            double swingHigh = swingHighs[i];
+            double swingLow = swingLows[i];
+            double atr = atrs[i];
+            if (Double.isNaN(swingHigh) || Double.isNaN(swingLow) || Double.isNaN(atr)) {
+                continue; // Skip processing for rows with insufficient data for the levels or the ATR
+            }
 
-    /** 
-     * Calculates the Average True Range (ATR) for a given period based on high, low, and close prices.
-     * Returns null if there are insufficient data points for the specified period.
-     */
-    private static Double calculateATR(List<Double> highs, List<Double> lows, List<Double> closes, int endIndex, int period) {
-        if (endIndex + 1 < period) return null;
-        double atr = 0.0;
-        for (int i = endIndex + 1 - period; i <= endIndex; i++) {
-            double highLow = highs.get(i) - lows.get(i);
-            double highClose = Math.abs(highs.get(i) - closes.get(i - 1));
-            double lowClose = Math.abs(lows.get(i) - closes.get(i - 1));
-            atr += Math.max(highLow, Math.max(highClose, lowClose));
+            columns[0][i] = swingHigh;
+            columns[1][i] = swingLow;
+            double diff = swingHigh - swingLow;
+            for (int k = 0; k < RATIOS.length; k++) {
+                columns[2 + k][i] = swingHigh - RATIOS[k] * diff;
+            }
+            columns[columns.length - 1][i] = atr;
         }
-        return atr / period;
+        return indicators;
     }
-    
+
     /**
-     * Parses a string to double, throwing an error message for invalid values.
+     * Trade signal for one bar, following the rules of FibBacktester: LONG when the close falls through
+     * the 23.6, 38.2 or 61.8 level, SHORT when it rises through the 78.6 or 61.8 level, and NEUTRAL when
+     * the ATR is above atrVolatilityThreshold times the close or there is no previous close.
      */
-    private static double parseDouble(String value, String errorMessage) {
-        try {
-            return Double.parseDouble(value);
-        } catch (NumberFormatException e) {
-            throw new IllegalArgumentException(errorMessage, e);
+    static byte signal(double close, double previousClose, double atr, double atrVolatilityThreshold,
+                       double fib236, double fib382, double fib618, double fib786) {
+        if (Double.isNaN(previousClose) || !(atr <= atrVolatilityThreshold * close)) return PriceSeries.NEUTRAL;
+        if ((close >= fib786 && previousClose < fib786) || (close >= fib618 && previousClose < fib618)) {
+            return PriceSeries.SHORT; // Selling takes precedence, as in the backtest
+        }
+        if ((close <= fib236 && previousClose > fib236) || (close <= fib382 && previousClose > fib382) ||
+            (close <= fib618 && previousClose > fib618)) {
+            return PriceSeries.LONG;
         }
+        return PriceSeries.NEUTRAL;
     }
-    
-    /** 
-     * Formats a Double value to 2 decimal places or returns "NULL" if the value is null.
+
+    /**
+     * The strategy applied to one ticker bar by bar, with the swings, Fibonacci levels and ATR as indicators.
+     * The position is the signal of the last bar rather than a holding, since the backtest sizes trades
+     * against the whole portfolio.
      */
-    private static String formatValue(Double value) {
-        return value != null ? String.format("%.2f", value) : "NULL";
+    public static class Streaming implements StreamingStrategy {
+        private static final List<String> NAMES = Collections.unmodifiableList(Arrays.asList(INDICATORS));
+
+        private final Indicators.RollingExtreme swingHigh;
+        private final Indicators.RollingExtreme swingLow;
+        private final Indicators.Atr atr;
+        private final double atrVolatilityThreshold;
+        private final double[] values = new double[INDICATORS.length];
+        private double previousClose = Double.NaN; // close of the previous bar with levels
+        private byte position = PriceSeries.NEUTRAL;
+
+        public Streaming(int period, int atrPeriod, double atrVolatilityThreshold) {
+            this.swingHigh = Indicators.RollingExtreme.max(period);
+            this.swingLow = Indicators.RollingExtreme.min(period);
+            this.atr = new Indicators.Atr(atrPeriod);
+            this.atrVolatilityThreshold = atrVolatilityThreshold;
+            Arrays.fill(values, Double.NaN);
+        }
+
+        @Override
+        public byte update(double open, double high, double low, double close, double adjClose, double volume) {
+            double swingHigh = this.swingHigh.update(high);
+            double swingLow = this.swingLow.update(low);
+            double atr = this.atr.update(high, low, close);
+            if (Double.isNaN(swingHigh) || Double.isNaN(swingLow) || Double.isNaN(atr)) {
+                Arrays.fill(values, Double.NaN);
+                return position = PriceSeries.NEUTRAL;
+            }
+
+            values[0] = swingHigh;
+            values[1] = swingLow;
+            double diff = swingHigh - swingLow;
+            for (int k = 0; k < RATIOS.length; k++) {
+                values[2 + k] = swingHigh - RATIOS[k] * diff;
+            }
+            values[values.length - 1] = atr;
+
+            position = signal(close, previousClose, atr, atrVolatilityThreshold, values[2], values[3], values[5], values[6]);
+            previousClose = close;
+            return position;
+        }
+
+        @Override
+        public byte position() {
+            return position;
+        }
+
+        @Override
+        public List<String> indicatorNames() {
+            return NAMES;
+        }
+
+        @Override
+        public double indicator(int index) {
+            return values[index];
+        }
+
+        @Override
+        public void reset() {
+            swingHigh.reset();
+            swingLow.reset();
+            atr.reset();
+            Arrays.fill(values, Double.NaN);
+            previousClose = Double.NaN;
+            position = PriceSeries.NEUTRAL;
+        }
     }
 
 }
@@ -0,0 +1,413 @@
+package finance;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.function.IntFunction;
+import java.util.function.ToLongFunction;
+
+// Memoized indicator columns, keyed by ticker, indicator, window and the checksum of the series' prices,
+// so the same column is computed once however many strategies, runs or parameter combinations ask for it.
+// Columns are kept in a size-bounded LRU on the heap (-Dindicators.cacheMB, 128 by default); with
+// -Dindicators.offHeapMB columns evicted from the heap move to an LRU of direct buffers instead of being
+// dropped, and are copied back on their next use. Returned columns are shared and must not be modified.
+//
+// Every column is kept with the state of its kernel after the last bar. A series extended by
+// PriceSeries.append gets its columns by continuing that state over the appended rows only, and the
+// columns can be saved and loaded between runs, so an incremental refresh updates them for its new bars.
+
+public class IndicatorCache {
+
+    public static final String FILE_NAME = "Indicators.bin";
+    private static final int MAGIC = 0x494E4443; // "INDC"
+    private static final int VERSION = 1;
+
+    private static final Lru<Column> HEAP =
+            new Lru<>(Long.getLong("indicators.cacheMB", 128) << 20, Column::bytes);
+    private static final Lru<StoredColumn> OFF_HEAP =
+            new Lru<>(Long.getLong("indicators.offHeapMB", 0) << 20, StoredColumn::bytes);
+
+    private static final Kind<Indicators.Sma> SMA =
+            new Kind<>("sma", Indicators.Sma::new, (sma, series, row) -> sma.update(series.adjClose[row]));
+    private static final Kind<Indicators.Ema> EMA =
+            new Kind<>("ema", Indicators.Ema::new, (ema, series, row) -> ema.update(series.adjClose[row]));
+    private static final Kind<Indicators.Rsi> RSI =
+            new Kind<>("rsi", Indicators.Rsi::new, (rsi, series, row) -> rsi.update(series.adjClose[row]));
+    private static final Kind<Indicators.Sma> VOLUME =
+            new Kind<>("volume", Indicators.Sma::new, (sma, series, row) -> sma.update(series.volume[row]));
+    private static final Kind<Indicators.Atr> ATR = new Kind<>("atr", Indicators.Atr::new,
+            (atr, series, row) -> atr.update(series.high[row], series.low[row], series.close[row]));
+    private static final Kind<Indicators.RollingExtreme> SWING_HIGH = new Kind<>("swingHigh",
+            Indicators.RollingExtreme::max, (max, series, row) -> max.update(series.high[row]));
+    private static final Kind<Indicators.RollingExtreme> SWING_LOW = new Kind<>("swingLow",
+            Indicators.RollingExtreme::min, (min, series, row) -> min.update(series.low[row]));
+
+    /**
+     * Simple moving average of the adjusted close.
+     */
+    public static double[] sma(PriceSeries series, int window) {
+        return column(series, SMA, window);
+    }
+
+    /**
+     * Exponential moving average of the adjusted close.
+     */
+    public static double[] ema(PriceSeries series, int window) {
+        return column(series, EMA, window);
+    }
+
+    /**
+     * RSI of the adjusted close.
+     */
+    public static double[] rsi(PriceSeries series, int window) {
+        return column(series, RSI, window);
+    }
+
+    /**
+     * Simple moving average of the volume.
+     */
+    public static double[] averageVolume(PriceSeries series, int window) {
+        return column(series, VOLUME, window);
+    }
+
+    /**
+     * Average True Range of the high, low and close.
+     */
+    public static double[] atr(PriceSeries series, int period) {
+        return column(series, ATR, period);
+    }
+
+    /**
+     * Rolling maximum of the high.
+     */
+    public static double[] swingHigh(PriceSeries series, int period) {
+        return column(series, SWING_HIGH, period);
+    }
+
+    /**
+     * Rolling minimum of the low.
+     */
+    public static double[] swingLow(PriceSeries series, int period) {
+        return column(series, SWING_LOW, period);
+    }
+
+    /**
+     * Drops every cached column.
+     */
+    public static void clear() {
+        HEAP.clear();
+        OFF_HEAP.clear();
+    }
+
+    /**
+     * Writes the cached columns with their kernel states to a file, replacing it atomically. Of the columns
+     * of several versions of a ticker's data only the longest is kept, the one the next rows extend.
+     */
+    public static void save(Path file) throws IOException {
+        Map<Key, Map.Entry<Key, Column>> latest = new HashMap<>(); // by the key without the checksum
+        for (Map.Entry<Key, Column> entry : HEAP.entries()) keepLongest(latest, entry.getKey(), entry.getValue());
+        for (Map.Entry<Key, StoredColumn> entry : OFF_HEAP.entries()) {
+            keepLongest(latest, entry.getKey(), entry.getValue().restore());
+        }
+
+        Path tempFile = file.resolveSibling(file.getFileName() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tempFile)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(latest.size());
+            for (Map.Entry<Key, Column> entry : latest.values()) {
+                Key key = entry.getKey();
+                Column column = entry.getValue();
+                out.writeUTF(key.ticker);
+                out.writeUTF(key.kind);
+                out.writeInt(key.window);
+                out.writeLong(key.checksum);
+                out.writeInt(column.values.length);
+                ByteBuffer values = ByteBuffer.allocate(column.values.length * Double.BYTES);
+                values.asDoubleBuffer().put(column.values);
+                out.write(values.array());
+                out.writeInt(column.state.length);
+                out.write(column.state);
+            }
+        }
+        Files.move(tempFile, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Adds the columns saved by save to the cache.
+     */
+    public static void load(Path file) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+            if (in.readInt() != MAGIC) throw new IOException("Not an indicator cache file");
+            int version = in.readInt();
+            if (version != VERSION) throw new IOException("Unsupported indicator cache version " + version);
+            int count = in.readInt();
+            for (int c = 0; c < count; c++) {
+                Key key = new Key(in.readUTF(), in.readUTF(), in.readInt(), in.readLong());
+                byte[] values = new byte[Math.multiplyExact(in.readInt(), Double.BYTES)];
+                in.readFully(values);
+                double[] column = new double[values.length / Double.BYTES];
+                ByteBuffer.wrap(values).asDoubleBuffer().get(column);
+                byte[] state = new byte[in.readInt()];
+                in.readFully(state);
+                put(key, new Column(column, state));
+            }
+        }
+    }
+
+    private static <K extends Indicators.Resumable> double[] column(PriceSeries series, Kind<K> kind, int window) {
+        Key key = new Key(series.ticker, kind.name, window, series.checksum());
+        Column column = find(key);
+        if (column != null) return column.values;
+
+        // computed outside the locks; a concurrent miss on the same key computes it twice
+        Column prefix = null;
+        if (series.prefixRows() > 0) {
+            prefix = find(new Key(series.ticker, kind.name, window, series.prefixChecksum()));
+        }
+        if (prefix != null && prefix.values.length == series.prefixRows()) {
+            Metrics.increment("indicators.cache.extensions");
+            column = kind.continueColumn(series, window, prefix);
+        } else {
+            Metrics.increment("indicators.cache.misses");
+            column = kind.continueColumn(series, window, null);
+        }
+        put(key, column);
+        return column.values;
+    }
+
+    // The cached column, moved back onto the heap if it was evicted from there, or null
+    private static Column find(Key key) {
+        Column column = HEAP.get(key);
+        if (column != null) {
+            Metrics.increment("indicators.cache.hits");
+            return column;
+        }
+        StoredColumn stored = OFF_HEAP.remove(key);
+        if (stored == null) return null;
+        Metrics.increment("indicators.cache.offHeapHits");
+        column = stored.restore();
+        put(key, column);
+        return column;
+    }
+
+    private static void put(Key key, Column column) {
+        for (Map.Entry<Key, Column> evicted : HEAP.put(key, column)) {
+            demote(evicted.getKey(), evicted.getValue());
+        }
+    }
+
+    private static void demote(Key key, Column column) {
+        Metrics.increment("indicators.cache.evictions");
+        if (!OFF_HEAP.fits(column.bytes())) return;
+        ByteBuffer buffer = ByteBuffer.allocateDirect(column.values.length * Double.BYTES).order(ByteOrder.nativeOrder());
+        buffer.asDoubleBuffer().put(column.values);
+        OFF_HEAP.put(key, new StoredColumn(buffer, column.state)); // columns evicted from here are dropped and their memory freed by the GC
+    }
+
+    private static void keepLongest(Map<Key, Map.Entry<Key, Column>> latest, Key key, Column column) {
+        Key anyVersion = new Key(key.ticker, key.kind, key.window, 0L);
+        Map.Entry<Key, Column> kept = latest.get(anyVersion);
+        if (kept == null || kept.getValue().values.length < column.values.length) {
+            latest.put(anyVersion, new AbstractMap.SimpleImmutableEntry<>(key, column));
+        }
+    }
+
+    /**
+     * An indicator: the kernel computing it and the input it takes from a row of a series.
+     */
+    private static final class Kind<K extends Indicators.Resumable> {
+        final String name;
+        final IntFunction<K> kernel;
+        final Update<K> update;
+
+        Kind(String name, IntFunction<K> kernel, Update<K> update) {
+            this.name = name;
+            this.kernel = kernel;
+            this.update = update;
+        }
+
+        /**
+         * Computes the series' column, continuing the column of its first rows from the kernel state saved
+         * with it, or from the first row if there is none.
+         */
+        Column continueColumn(PriceSeries series, int window, Column prefix) {
+            K kernel = this.kernel.apply(window);
+            double[] values = new double[series.size()];
+            int from = 0;
+            if (prefix != null) {
+                try {
+                    kernel.readState(new DataInputStream(new ByteArrayInputStream(prefix.state)));
+                    from = prefix.values.length;
+                    System.arraycopy(prefix.values, 0, values, 0, from);
+                } catch (IOException e) {
+                    kernel = this.kernel.apply(window); // a state from another kernel; compute the whole column
+                }
+            }
+            for (int row = from; row < values.length; row++) values[row] = update.apply(kernel, series, row);
+
+            ByteArrayOutputStream state = new ByteArrayOutputStream();
+            try (DataOutputStream out = new DataOutputStream(state)) {
+                kernel.writeState(out);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e); // not thrown by an in-memory stream
+            }
+            return new Column(values, state.toByteArray());
+        }
+    }
+
+    private interface Update<K> {
+        double apply(K kernel, PriceSeries series, int row);
+    }
+
+    /**
+     * A column and the state of its kernel after its last row.
+     */
+    private static final class Column {
+        final double[] values;
+        final byte[] state;
+
+        Column(double[] values, byte[] state) {
+            this.values = values;
+            this.state = state;
+        }
+
+        long bytes() {
+            return (long) values.length * Double.BYTES + state.length;
+        }
+    }
+
+    /**
+     * A column evicted from the heap into a direct buffer.
+     */
+    private static final class StoredColumn {
+        final ByteBuffer values;
+        final byte[] state;
+
+        StoredColumn(ByteBuffer values, byte[] state) {
+            this.values = values;
+            this.state = state;
+        }
+
+        long bytes() {
+            return values.capacity() + state.length;
+        }
+
+        Column restore() {
+            double[] column = new double[values.capacity() / Double.BYTES];
+            values.asDoubleBuffer().get(column);
+            return new Column(column, state);
+        }
+    }
+
+    /**
+     * Identifies a column: the indicator, its window and the exact data it was computed from.
+     */
+    private static final class Key {
+        final String ticker;
+        final String kind;
+        final int window;
+        final long checksum;
+
+        Key(String ticker, String kind, int window, long checksum) {
+            this.ticker = ticker;
+            this.kind = kind;
+            this.window = window;
+            this.checksum = checksum;
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            if (!(other instanceof Key)) return false;
+            Key key = (Key) other;
+            return window == key.window && checksum == key.checksum && kind.equals(key.kind) && ticker.equals(key.ticker);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(ticker, kind, window, checksum);
+        }
+    }
+
+    /**
+     * Least recently used entries bounded by their total size in bytes.
+     */
+    private static final class Lru<V> {
+        private final LinkedHashMap<Key, V> entries = new LinkedHashMap<>(16, 0.75f, true);
+        private final long capacity;
+        private final ToLongFunction<V> sizeOf;
+        private long bytes;
+
+        Lru(long capacity, ToLongFunction<V> sizeOf) {
+            this.capacity = capacity;
+            this.sizeOf = sizeOf;
+        }
+
+        boolean fits(long size) {
+            return size <= capacity;
+        }
+
+        synchronized V get(Key key) {
+            return entries.get(key);
+        }
+
+        synchronized V remove(Key key) {
+            V value = entries.remove(key);
+            if (value != null) bytes -= sizeOf.applyAsLong(value);
+            return value;
+        }
+
+        /**
+         * Adds an entry unless it is larger than the whole capacity, and returns the entries evicted for it.
+         */
+        synchronized List<Map.Entry<Key, V>> put(Key key, V value) {
+            long size = sizeOf.applyAsLong(value);
+            if (!fits(size)) return Collections.emptyList();
+            V previous = entries.put(key, value);
+            bytes += size - (previous != null ? sizeOf.applyAsLong(previous) : 0);
+
+            List<Map.Entry<Key, V>> evicted = Collections.emptyList();
+            Iterator<Map.Entry<Key, V>> eldest = entries.entrySet().iterator();
+            while (bytes > capacity) {
+                Map.Entry<Key, V> entry = eldest.next();
+                if (evicted.isEmpty()) evicted = new ArrayList<>();
+                evicted.add(new AbstractMap.SimpleImmutableEntry<>(entry.getKey(), entry.getValue()));
+                bytes -= sizeOf.applyAsLong(entry.getValue());
+                eldest.remove();
+            }
+            return evicted;
+        }
+
+        synchronized void clear() {
+            entries.clear();
+            bytes = 0;
+        }
+
+        synchronized List<Map.Entry<Key, V>> entries() {
+            List<Map.Entry<Key, V>> snapshot = new ArrayList<>(entries.size());
+            for (Map.Entry<Key, V> entry : entries.entrySet()) {
+                snapshot.add(new AbstractMap.SimpleImmutableEntry<>(entry.getKey(), entry.getValue()));
+            }
+            return snapshot;
+        }
+    }
+}
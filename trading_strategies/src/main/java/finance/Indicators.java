@@ -0,0 +1,485 @@
+package finance;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
+
+// Incremental indicator kernels: every update is O(1) and allocation-free. A kernel's state can be saved
+// after the last bar and restored later, so new bars continue the columns exactly as a full pass would.
+
+public class Indicators {
+
+    /**
+     * A kernel whose state can be written and read back into a new kernel of the same window, which then
+     * continues as the original would have.
+     */
+    public interface Resumable {
+        void writeState(DataOutput out) throws IOException;
+
+        void readState(DataInput in) throws IOException;
+    }
+
+    /**
+     * Simple moving average over a sliding window, kept as a running sum.
+     */
+    public static class Sma implements Resumable {
+        private final double[] window;
+        private int count;
+        private int next;
+        private double sum;
+
+        public Sma(int windowSize) {
+            this.window = new double[checkWindow(windowSize)];
+        }
+
+        /**
+         * Adds a value and returns the average of the last windowSize values, or NaN until the window is full.
+         */
+        public double update(double value) {
+            if (count == window.length) {
+                sum -= window[next];
+            } else {
+                count++;
+            }
+            window[next] = value;
+            next = (next + 1) % window.length;
+            sum += value;
+            return count == window.length ? sum / window.length : Double.NaN;
+        }
+
+        public void reset() {
+            count = 0;
+            next = 0;
+            sum = 0.0;
+        }
+
+        @Override
+        public void writeState(DataOutput out) throws IOException {
+            writeWindow(out, window);
+            out.writeInt(count);
+            out.writeInt(next);
+            out.writeDouble(sum);
+        }
+
+        @Override
+        public void readState(DataInput in) throws IOException {
+            readWindow(in, window);
+            count = in.readInt();
+            next = in.readInt();
+            sum = in.readDouble();
+        }
+    }
+
+    /**
+     * Exponential moving average, seeded with the simple average of the first windowSize values.
+     */
+    public static class Ema implements Resumable {
+        private final int windowSize;
+        private final double multiplier;
+        private int count;
+        private double ema;
+
+        public Ema(int windowSize) {
+            this.windowSize = checkWindow(windowSize);
+            this.multiplier = 2.0 / (windowSize + 1);
+        }
+
+        /**
+         * Adds a value and returns the current EMA, or NaN until windowSize values have been seen.
+         */
+        public double update(double value) {
+            count++;
+            if (count < windowSize) {
+                ema += value; // accumulating the seed average
+                return Double.NaN;
+            }
+            if (count == windowSize) {
+                ema = (ema + value) / windowSize;
+            } else {
+                ema = (value - ema) * multiplier + ema;
+            }
+            return ema;
+        }
+
+        public void reset() {
+            count = 0;
+            ema = 0.0;
+        }
+
+        @Override
+        public void writeState(DataOutput out) throws IOException {
+            out.writeInt(windowSize);
+            out.writeInt(count);
+            out.writeDouble(ema);
+        }
+
+        @Override
+        public void readState(DataInput in) throws IOException {
+            checkState(in.readInt(), windowSize);
+            count = in.readInt();
+            ema = in.readDouble();
+        }
+    }
+
+    /**
+     * Wilder smoothing (RMA), seeded with the simple average of the first period values.
+     */
+    public static class Wilder implements Resumable {
+        private final int period;
+        private int count;
+        private double average;
+
+        public Wilder(int period) {
+            this.period = checkWindow(period);
+        }
+
+        /**
+         * Adds a value and returns the smoothed average, or NaN until period values have been seen.
+         */
+        public double update(double value) {
+            count++;
+            if (count < period) {
+                average += value;
+                return Double.NaN;
+            }
+            if (count == period) {
+                average = (average + value) / period;
+            } else {
+                average = (average * (period - 1) + value) / period;
+            }
+            return average;
+        }
+
+        public void reset() {
+            count = 0;
+            average = 0.0;
+        }
+
+        @Override
+        public void writeState(DataOutput out) throws IOException {
+            out.writeInt(period);
+            out.writeInt(count);
+            out.writeDouble(average);
+        }
+
+        @Override
+        public void readState(DataInput in) throws IOException {
+            checkState(in.readInt(), period);
+            count = in.readInt();
+            average = in.readDouble();
+        }
+    }
+
+    /**
+     * Relative Strength Index over the price changes in the window: the average of the gains over the average
+     * of the losses, each taken over the bars that moved in that direction.
+     */
+    public static class Rsi implements Resumable {
+        private final int window;
+        private final double[] deltas;
+        private int updates;
+        private int deltaCount;
+        private int next;
+        private double previous;
+        private double gainSum;
+        private double lossSum;
+        private int gainCount;
+        private int lossCount;
+
+        public Rsi(int window) {
+            this.window = checkWindow(window);
+            this.deltas = new double[window];
+        }
+
+        /**
+         * Adds a price and returns the RSI of the window ending at it, or NaN until window prices have been seen.
+         */
+        public double update(double price) {
+            if (updates > 0) {
+                double delta = price - previous;
+                if (deltaCount == window) {
+                    remove(deltas[next]);
+                } else {
+                    deltaCount++;
+                }
+                deltas[next] = delta;
+                next = (next + 1) % window;
+                if (delta > 0) {
+                    gainSum += delta;
+                    gainCount++;
+                } else if (delta < 0) {
+                    lossSum -= delta;
+                    lossCount++;
+                }
+            }
+            previous = price;
+            updates++;
+            if (updates < window) return Double.NaN;
+
+            double gain = gainCount > 0 ? gainSum / gainCount : 0.0;
+            double loss = lossCount > 0 ? lossSum / lossCount : 0.0;
+            if (loss == 0) return 100.0; // No losses in the window
+            double rs = gain / loss;
+            return 100 - (100 / (1 + rs));
+        }
+
+        private void remove(double delta) {
+            if (delta > 0) {
+                gainSum = --gainCount > 0 ? gainSum - delta : 0.0;
+            } else if (delta < 0) {
+                lossSum = --lossCount > 0 ? lossSum + delta : 0.0;
+            }
+        }
+
+        public void reset() {
+            updates = 0;
+            deltaCount = 0;
+            next = 0;
+            gainSum = 0.0;
+            lossSum = 0.0;
+            gainCount = 0;
+            lossCount = 0;
+        }
+
+        @Override
+        public void writeState(DataOutput out) throws IOException {
+            writeWindow(out, deltas);
+            out.writeInt(updates);
+            out.writeInt(deltaCount);
+            out.writeInt(next);
+            out.writeDouble(previous);
+            out.writeDouble(gainSum);
+            out.writeDouble(lossSum);
+            out.writeInt(gainCount);
+            out.writeInt(lossCount);
+        }
+
+        @Override
+        public void readState(DataInput in) throws IOException {
+            readWindow(in, deltas);
+            updates = in.readInt();
+            deltaCount = in.readInt();
+            next = in.readInt();
+            previous = in.readDouble();
+            gainSum = in.readDouble();
+            lossSum = in.readDouble();
+            gainCount = in.readInt();
+            lossCount = in.readInt();
+        }
+    }
+
+    /**
+     * Average True Range: the mean true range over the last period bars.
+     */
+    public static class Atr implements Resumable {
+        private final Sma trueRanges;
+        private boolean hasPrevious;
+        private double previousClose;
+
+        public Atr(int period) {
+            this.trueRanges = new Sma(period);
+        }
+
+        /**
+         * Adds a bar and returns the ATR, or NaN until period true ranges (period + 1 bars) have been seen.
+         */
+        public double update(double high, double low, double close) {
+            double atr = Double.NaN;
+            if (hasPrevious) {
+                double highLow = high - low;
+                double highClose = Math.abs(high - previousClose);
+                double lowClose = Math.abs(low - previousClose);
+                atr = trueRanges.update(Math.max(highLow, Math.max(highClose, lowClose)));
+            }
+            hasPrevious = true;
+            previousClose = close;
+            return atr;
+        }
+
+        public void reset() {
+            trueRanges.reset();
+            hasPrevious = false;
+        }
+
+        @Override
+        public void writeState(DataOutput out) throws IOException {
+            trueRanges.writeState(out);
+            out.writeBoolean(hasPrevious);
+            out.writeDouble(previousClose);
+        }
+
+        @Override
+        public void readState(DataInput in) throws IOException {
+            trueRanges.readState(in);
+            hasPrevious = in.readBoolean();
+            previousClose = in.readDouble();
+        }
+    }
+
+    /**
+     * Sliding-window maximum or minimum, kept in a monotonic deque of candidate values.
+     */
+    public static class RollingExtreme implements Resumable {
+        private final int period;
+        private final boolean max;
+        private final double[] values;
+        private final long[] indices;
+        private int head;
+        private int size;
+        private long index;
+
+        private RollingExtreme(int period, boolean max) {
+            this.period = checkWindow(period);
+            this.max = max;
+            this.values = new double[period];
+            this.indices = new long[period];
+        }
+
+        public static RollingExtreme max(int period) {
+            return new RollingExtreme(period, true);
+        }
+
+        public static RollingExtreme min(int period) {
+            return new RollingExtreme(period, false);
+        }
+
+        /**
+         * Adds a value and returns the extreme of the last period values, or NaN until the window is full.
+         */
+        public double update(double value) {
+            // Drop the candidate that fell out of the window
+            if (size > 0 && indices[head] <= index - period) {
+                head = (head + 1) % period;
+                size--;
+            }
+            // Drop candidates the new value dominates
+            while (size > 0) {
+                int tail = (head + size - 1) % period;
+                if (max ? values[tail] > value : values[tail] < value) break;
+                size--;
+            }
+            int slot = (head + size) % period;
+            values[slot] = value;
+            indices[slot] = index;
+            size++;
+            index++;
+            return index >= period ? values[head] : Double.NaN;
+        }
+
+        public void reset() {
+            head = 0;
+            size = 0;
+            index = 0;
+        }
+
+        @Override
+        public void writeState(DataOutput out) throws IOException {
+            out.writeBoolean(max);
+            writeWindow(out, values);
+            for (long candidateIndex : indices) out.writeLong(candidateIndex);
+            out.writeInt(head);
+            out.writeInt(size);
+            out.writeLong(index);
+        }
+
+        @Override
+        public void readState(DataInput in) throws IOException {
+            if (in.readBoolean() != max) throw new IOException("State of a rolling " + (max ? "minimum" : "maximum"));
+            readWindow(in, values);
+            for (int i = 0; i < indices.length; i++) indices[i] = in.readLong();
+            head = in.readInt();
+            size = in.readInt();
+            index = in.readLong();
+        }
+    }
+
+    /**
+     * Calculates the simple moving average for every bar, NaN where the window is not yet full.
+     */
+    public static double[] sma(double[] values, int windowSize) {
+        Sma sma = new Sma(windowSize);
+        double[] result = new double[values.length];
+        for (int i = 0; i < values.length; i++) result[i] = sma.update(values[i]);
+        return result;
+    }
+
+    /**
+     * Calculates the exponential moving average for every bar, NaN before the first full window.
+     */
+    public static double[] ema(double[] values, int windowSize) {
+        Ema ema = new Ema(windowSize);
+        double[] result = new double[values.length];
+        for (int i = 0; i < values.length; i++) result[i] = ema.update(values[i]);
+        return result;
+    }
+
+    /**
+     * Calculates the RSI for every bar, NaN before the first full window.
+     */
+    public static double[] rsi(double[] prices, int window) {
+        Rsi rsi = new Rsi(window);
+        double[] result = new double[prices.length];
+        for (int i = 0; i < prices.length; i++) result[i] = rsi.update(prices[i]);
+        return result;
+    }
+
+    /**
+     * Calculates the ATR for every bar, NaN for the first period bars.
+     */
+    public static double[] atr(double[] highs, double[] lows, double[] closes, int period) {
+        Atr atr = new Atr(period);
+        double[] result = new double[closes.length];
+        for (int i = 0; i < closes.length; i++) result[i] = atr.update(highs[i], lows[i], closes[i]);
+        return result;
+    }
+
+    /**
+     * Calculates the rolling maximum for every bar, NaN where the window is not yet full.
+     */
+    public static double[] rollingMax(double[] values, int period) {
+        return rollingExtreme(RollingExtreme.max(period), values);
+    }
+
+    /**
+     * Calculates the rolling minimum for every bar, NaN where the window is not yet full.
+     */
+    public static double[] rollingMin(double[] values, int period) {
+        return rollingExtreme(RollingExtreme.min(period), values);
+    }
+
+    private static double[] rollingExtreme(RollingExtreme extreme, double[] values) {
+        double[] result = new double[values.length];
+        for (int i = 0; i < values.length; i++) result[i] = extreme.update(values[i]);
+        return result;
+    }
+
+    /**
+     * Returns an array of the given length filled with NaN, for indicator columns that are populated sparsely.
+     */
+    public static double[] emptyColumn(int length) {
+        double[] column = new double[length];
+        Arrays.fill(column, Double.NaN);
+        return column;
+    }
+
+    private static void writeWindow(DataOutput out, double[] window) throws IOException {
+        out.writeInt(window.length);
+        for (double value : window) out.writeDouble(value);
+    }
+
+    private static void readWindow(DataInput in, double[] window) throws IOException {
+        checkState(in.readInt(), window.length);
+        for (int i = 0; i < window.length; i++) window[i] = in.readDouble();
+    }
+
+    // A state is only read into a kernel of the window it was written for
+    private static void checkState(int windowSize, int expected) throws IOException {
+        if (windowSize != expected) throw new IOException("State of window " + windowSize + ", not " + expected);
+    }
+
+    private static int checkWindow(int windowSize) {
+        if (windowSize <= 0) throw new IllegalArgumentException("Window size must be positive: " + windowSize);
+        return windowSize;
+    }
+}
@@ -1,13 +1,33 @@
 package finance;
 
+import com.sun.net.httpserver.HttpServer;
 import okhttp3.OkHttpClient;
 import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.concurrent.TimeUnit;
 import java.io.File;
 
 public class MainApp {
     public static void main(String[] args) {
 
+        // With -Dmetrics.port=<port> the run's metrics are served at http://localhost:<port>/metrics while it runs
+        HttpServer metricsServer = null;
+        Integer metricsPort = Integer.getInteger("metrics.port");
+        if (metricsPort != null) {
+            try {
+                metricsServer = Metrics.serve(metricsPort);
+            } catch (IOException e) {
+                System.err.println("Error serving metrics: " + e.getMessage());
+            }
+        }
+
         System.out.println("Fetching historical data for 50 stocks...");
 
         String[] tickers = {
@@ -34,8 +54,18 @@ public class MainApp {
                 .readTimeout(30, TimeUnit.SECONDS)
                 .writeTimeout(30, TimeUnit.SECONDS)
                 .build();
+        int maxConcurrentRequests = 4; // Example number of requests in flight at once
+        double requestsPerSecond = 2.0; // Example rate, keep it within the API plan's quota
+        int maxRetries = 3; // Example number of retries for rate-limited or failed requests
+        // With -Dincremental=true only bars newer than the existing CSV files are appended and processed
+        boolean incremental = Boolean.getBoolean("incremental");
         try {
-            YHFinanceDataFetcher.fetchStockData(client, tickers);
+            if (incremental) {
+                YHFinanceDataFetcher.refreshStockDataAsync(client, tickers, maxConcurrentRequests, requestsPerSecond, maxRetries);
+            } else {
+                YHFinanceDataFetcher.fetchStockDataAsync(client, tickers, maxConcurrentRequests, requestsPerSecond, maxRetries);
+            }
+            // YHFinanceDataFetcher.fetchStockData(client, tickers); // one ticker at a time
         } finally {
             client.dispatcher().executorService().shutdown();
             client.connectionPool().evictAll();
@@ -54,6 +84,9 @@ public class MainApp {
 
 
 
+        // Tickers are processed in parallel on this many threads; 1 processes them one after another
+        int parallelism = Integer.getInteger("parallelism", Runtime.getRuntime().availableProcessors());
+
         final String dataFolder = "data/";
         File folder = new File(dataFolder);
         // deleting old processed files
@@ -67,14 +100,44 @@ public class MainApp {
                 }
             }
         }
-        // processing stock data
+        // processing stock data, or restoring it from the binary cache if no CSV changed since it was written
         File[] csvFiles = folder.listFiles((dir, name) -> name.toLowerCase().endsWith(".csv"));
-        if (csvFiles != null) {
-            for (File csvFile : csvFiles) {
-                String fileName = csvFile.getName();
-                YHFinanceDataFetcher.addReturnsColumn(fileName);
+        if (csvFiles == null) csvFiles = new File[0];
+        Path priceCache = Paths.get(dataFolder + PriceCache.FILE_NAME);
+        try {
+            if (PriceCache.isUpToDate(priceCache, csvFiles)) {
+                PriceStore.preload(priceCache);
+            } else {
+                if (incremental && Files.exists(priceCache)) {
+                    // only the rows appended since the cache was written are parsed
+                    PriceStore.preload(priceCache);
+                    TickerPipeline.forEach(csvFiles, parallelism, YHFinanceDataFetcher::refreshReturns);
+                } else {
+                    TickerPipeline.forEach(csvFiles, parallelism, YHFinanceDataFetcher::addReturnsColumn);
+                }
+                List<PriceSeries> processedSeries = new ArrayList<>();
+                for (File csvFile : csvFiles) {
+                    processedSeries.add(PriceStore.load(PriceStore.fileNameOf(PriceStore.tickerOf(csvFile.getName()))));
+                }
+                PriceCache.write(priceCache, processedSeries);
+            }
+        } catch (IOException e) {
+            System.err.println("Error using price cache: " + e.getMessage());
+        }
+        // incremental runs continue the indicator columns of the last run over the new bars only
+        Path indicatorCache = Paths.get(dataFolder + IndicatorCache.FILE_NAME);
+        if (incremental && Files.exists(indicatorCache)) {
+            try {
+                IndicatorCache.load(indicatorCache);
+            } catch (IOException e) {
+                System.err.println("Error loading indicator cache: " + e.getMessage());
             }
         }
+        // processed files the strategies run on; the strategies write them when the data came from the cache
+        File[] processedFiles = new File[csvFiles.length];
+        for (int i = 0; i < csvFiles.length; i++) {
+            processedFiles[i] = new File(folder, PriceStore.fileNameOf(PriceStore.tickerOf(csvFiles[i].getName())));
+        }
 
 
         /* !! Trading Strategies !! */
@@ -84,12 +147,9 @@ public class MainApp {
 
         // int shortWindow = 5; // Example short window size
         // int longWindow = 20; // Example long window size
-        // File[] processedFiles = folder.listFiles((dir, name) -> name.startsWith("processed_") && name.endsWith(".csv"));
-        // if (processedFiles != null) {
-        //     for (File csvFile : processedFiles) {
-        //         TradingStrategy1.applyMovingAverageStrategy(csvFile.getName(), shortWindow, longWindow);
-        //     }
-        // }
+        // TickerPipeline.forEach(processedFiles, parallelism, fileName ->
+        //         TradingStrategy1.applyMovingAverageStrategy(fileName, shortWindow, longWindow));
+        // PositionMatrix.flush(); // writes data/portfolio.csv once for all tickers
 
         // // Trade on Strategy
         // Backtester.TradeOnStrategy();
@@ -102,12 +162,9 @@ public class MainApp {
 
         // int shortWindow = 5; // Example short window size
         // int longWindow = 20; // Example long window size
-        // File[] processedFiles = folder.listFiles((dir, name) -> name.startsWith("processed_") && name.endsWith(".csv"));
-        // if (processedFiles != null) {
-        //     for (File csvFile : processedFiles) {
-        //         TradingStrategy2.applyEmaStrategy(csvFile.getName(), shortWindow, longWindow);
-        //     }
-        // }
+        // TickerPipeline.forEach(processedFiles, parallelism, fileName ->
+        //         TradingStrategy2.applyEmaStrategy(fileName, shortWindow, longWindow));
+        // PositionMatrix.flush(); // writes data/portfolio.csv once for all tickers
 
         // // Trade on Strategy
         // Backtester.TradeOnStrategy();
@@ -122,12 +179,9 @@ public class MainApp {
         // int longWindow = 20; // Example long window size
         // int rsiWindow = 14; // Example rsi window size
         // int volumeWindow = 20; // Example volume window size
-        // File[] processedFiles = folder.listFiles((dir, name) -> name.startsWith("processed_") && name.endsWith(".csv"));
-        // if (processedFiles != null) {
-        //     for (File csvFile : processedFiles) {
-        //         TradingStrategy3.applyCustomStrategy(csvFile.getName(), shortWindow, longWindow, rsiWindow, volumeWindow);
-        //     }
-        // }
+        // TickerPipeline.forEach(processedFiles, parallelism, fileName ->
+        //         TradingStrategy3.applyCustomStrategy(fileName, shortWindow, longWindow, rsiWindow, volumeWindow));
+        // PositionMatrix.flush(); // writes data/portfolio.csv once for all tickers
 
         // // Trade on Strategy
         // Backtester.TradeOnStrategy();
@@ -142,12 +196,9 @@ public class MainApp {
         // int longWindow = 20; // Example long window size
         // int rsiWindow = 14; // Example rsi window size
         // int volumeWindow = 20; // Example volume window size
-        // File[] processedFiles = folder.listFiles((dir, name) -> name.startsWith("processed_") && name.endsWith(".csv"));
-        // if (processedFiles != null) {
-        //     for (File csvFile : processedFiles) {
-        //         TradingStrategy4.applyCustomStrategy(csvFile.getName(), shortWindow, longWindow, rsiWindow, volumeWindow);
-        //     }
-        // }
+        // TickerPipeline.forEach(processedFiles, parallelism, fileName ->
+        //         TradingStrategy4.applyCustomStrategy(fileName, shortWindow, longWindow, rsiWindow, volumeWindow));
+        // PositionMatrix.flush(); // writes data/portfolio.csv once for all tickers
 
         // // Trade on Strategy
         // Backtester.TradeOnStrategy();
@@ -169,17 +220,122 @@ public class MainApp {
         // double stopLossPercent = 0.02;
         // double maxPositionSize = 0.05;
 
-        // File[] processedFiles = folder.listFiles((dir, name) -> name.startsWith("processed_") && name.endsWith(".csv"));
-        // if (processedFiles != null) {
-        //     for (File csvFile : processedFiles) {
-        //         FibStrategy.applyFibStrategy(csvFile.getName(), period, atrPeriod);
-        //     }
-        // }
+        // TickerPipeline.forEach(processedFiles, parallelism, fileName ->
+        //         FibStrategy.applyFibStrategy(fileName, period, atrPeriod));
 
         // FibBacktester.TradeOnStrategy(initialBalance, buyFullBelow, buyHalfAbove, sellFullAbove, sellHalfAbove, 
         //                                 atrVolatilityThreshold, stopLossPercent, maxPositionSize);
 
         // // Fibonacci retracement strategy ends here... 
 
+
+
+        // // Parameter sweep : backtests every combination of a parameter grid and ranks them by Sharpe ratio
+        // // Strategies: ma, ema, ma-rsi-volume, ema-rsi-volume (Trading Strategies 1 - 4) and fib
+
+        // String sweepStrategy = System.getProperty("sweep.strategy", "ma");
+        // ParameterGrid grid = ParameterGrid.parse(System.getProperty("sweep.grid", "shortWindow=3:10:1;longWindow=15:50:5"));
+        // List<ParameterSweep.Result> results = ParameterSweep.run(sweepStrategy, grid, processedFiles, parallelism);
+        // ParameterSweep.printRanking(results, 20);
+        // ParameterSweep.writeResults(Paths.get(dataFolder + "sweep_results.csv"), results);
+
+        // // Parameter sweep ends here...
+
+
+
+        // // Strategy comparison : backtests several strategies, each over its own grid, in one pass over the
+        // // loaded data, without rewriting the processed files, and ranks them together by Sharpe ratio
+
+        // Map<String, ParameterGrid> grids = new LinkedHashMap<>();
+        // for (String strategy : System.getProperty("compare.strategies", "ma,ema,ma-rsi-volume,ema-rsi-volume,fib").split(",")) {
+        //     // e.g. -Dcompare.grid.ma="shortWindow=5,10"; without a grid the strategy runs once with the example values
+        //     grids.put(strategy.trim(), ParameterGrid.parse(System.getProperty("compare.grid." + strategy.trim(), "")));
+        // }
+        // List<ParameterSweep.Result> comparison = ParameterSweep.run(grids, processedFiles, parallelism);
+        // ParameterSweep.printRanking(comparison, 20);
+        // ParameterSweep.writeResults(Paths.get(dataFolder + "comparison_results.csv"), comparison);
+
+        // // Strategy comparison ends here...
+
+
+
+        // // Walk-forward optimization : picks the best combination of a grid on each rolling training window
+        // // and backtests it on the test window that follows, out of sample
+
+        // String walkForwardStrategy = System.getProperty("walkforward.strategy", "ma");
+        // ParameterGrid walkForwardGrid = ParameterGrid.parse(System.getProperty("walkforward.grid", "shortWindow=3:10:1;longWindow=15:50:5"));
+        // int trainDays = Integer.getInteger("walkforward.trainDays", 730); // calendar days
+        // int testDays = Integer.getInteger("walkforward.testDays", 180);
+        // WalkForward.Report walkForward = WalkForward.run(walkForwardStrategy, walkForwardGrid, processedFiles,
+        //         trainDays, testDays, parallelism);
+        // walkForward.print();
+        // walkForward.write(Paths.get(dataFolder + "walkforward_results.csv"));
+
+        // // Walk-forward optimization ends here...
+
+
+
+        // // Database : stores the bars, and the positions of the strategy run above, through JDBC, e.g. with
+        // // -Ddb.url=jdbc:mysql://localhost:3306/trading -Ddb.user=<user> -Ddb.password=<password>
+
+        // try (PriceDatabase database = PriceDatabase.open(System.getProperty("db.url"), System.getProperty("db.user"),
+        //         System.getProperty("db.password"), Integer.getInteger("db.poolSize", 4))) {
+        //     List<PriceSeries> stored = new ArrayList<>();
+        //     for (File processedFile : processedFiles) stored.add(PriceStore.load(processedFile.getName()));
+        //     database.saveBars(stored);
+        //     database.savePositions(System.getProperty("db.strategy", "ma"), stored); // skips series without positions
+        //     // database.saveResults(results); // the parameter sweep's results
+        // } catch (IOException | SQLException e) {
+        //     System.err.println("Error using database: " + e.getMessage());
+        // }
+
+        // // Database ends here...
+
+
+
+        // // Market data replay : feeds the bars of all tickers to a streaming strategy date by date and reports
+        // // the per-bar latency percentiles and throughput. Speeds: max, realtime or a multiple such as 86400x
+
+        // double replaySpeed = MarketReplay.parseSpeed(System.getProperty("replay.speed", "max"));
+        // int warmupPasses = Integer.getInteger("replay.warmup", 3); // unmeasured passes before the measured one
+        // MarketReplay.Report replayReport = MarketReplay.run(processedFiles,
+        //         () -> new TradingStrategy3.Streaming(5, 20, 14, 20), replaySpeed, warmupPasses);
+        // replayReport.print();
+
+        // // Market data replay ends here...
+
+
+
+        // // Off-heap backtest : maps the price cache and backtests a streaming strategy over it, reading the
+        // // prices in place rather than loading them onto the heap, for universes larger than the heap
+
+        // try {
+        //     OffHeapUniverse universe = OffHeapUniverse.map(priceCache);
+        //     Backtester.evaluate(universe, () -> new TradingStrategy1.Streaming(5, 20)).print();
+        // } catch (IOException e) {
+        //     System.err.println("Error mapping price cache: " + e.getMessage());
+        // }
+
+        // // Off-heap backtest ends here...
+
+
+
+        // Charts are rendered in the background; wait for them so they are saved and timed
+        PnLChart.awaitRendering();
+
+        if (incremental) {
+            try {
+                IndicatorCache.save(indicatorCache);
+            } catch (IOException e) {
+                System.err.println("Error saving indicator cache: " + e.getMessage());
+            }
+        }
+
+        // Stage timings and counters of this run
+        Metrics.writeJson(Paths.get(dataFolder + "metrics.json"));
+        Metrics.writePrometheus(Paths.get(dataFolder + "metrics.prom"));
+        System.out.println("Run metrics saved as " + dataFolder + "metrics.json and " + dataFolder + "metrics.prom");
+        if (metricsServer != null) metricsServer.stop(0);
+
     }
 }
\ No newline at end of file
@@ -0,0 +1,200 @@
+package finance;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Supplier;
+
+// Replays the stored price series as a market-data feed: the bars of all tickers are released date by
+// date, as fast as possible or paced at a multiple of real time, into one streaming strategy per ticker.
+// The series come from PriceStore, so from the binary price cache when MainApp preloaded it, and are
+// flattened into a schedule before the replay, so no parsing or I/O is measured.
+
+public class MarketReplay {
+
+    public static final double MAX_SPEED = 0.0; // no pacing, each date is released once the previous one is done
+
+    private static final long NANOS_PER_DAY = TimeUnit.DAYS.toNanos(1);
+    private static final long SPIN_NANOS = TimeUnit.MICROSECONDS.toNanos(100); // busy-wait before a release
+
+    /**
+     * Latencies and throughput of one replay, in nanoseconds.
+     */
+    public static final class Report {
+        public final LatencyHistogram updateLatency = new LatencyHistogram(); // one strategy update
+        public final LatencyHistogram signalLatency = new LatencyHistogram(); // from a date's release to a bar's position
+        public long bars;
+        public int dates;
+        public int tickers;
+        public long elapsedNanos;
+        public long longSignals;
+        public long shortSignals;
+
+        public double getBarsPerSecond() {
+            return elapsedNanos == 0 ? 0.0 : bars * 1e9 / elapsedNanos;
+        }
+
+        public void print() {
+            System.out.println("\nMarket Data Replay:");
+            System.out.printf("Replayed %d bars of %d tickers over %d dates in %.3f s%n",
+                    bars, tickers, dates, elapsedNanos / 1e9);
+            System.out.printf("Throughput: %.0f bars/s%n", getBarsPerSecond());
+            System.out.printf("Positions: %d long, %d short%n", longSignals, shortSignals);
+            printPercentiles("Update latency", updateLatency);
+            printPercentiles("Signal latency", signalLatency);
+        }
+
+        private static void printPercentiles(String name, LatencyHistogram histogram) {
+            System.out.printf(Locale.ROOT, "%s (us): mean %.3f, p50 %.3f, p90 %.3f, p99 %.3f, p99.9 %.3f, p99.99 %.3f, max %.3f%n",
+                    name, histogram.getMean() / 1e3, histogram.getValueAtPercentile(50) / 1e3,
+                    histogram.getValueAtPercentile(90) / 1e3, histogram.getValueAtPercentile(99) / 1e3,
+                    histogram.getValueAtPercentile(99.9) / 1e3, histogram.getValueAtPercentile(99.99) / 1e3,
+                    histogram.getMax() / 1e3);
+        }
+    }
+
+    /**
+     * Parses a replay speed: "max" for no pacing, "realtime" for one calendar day of bars per day,
+     * or a multiple of real time such as "86400x" for one calendar day per second.
+     */
+    public static double parseSpeed(String value) {
+        String speed = value.trim().toLowerCase(Locale.ROOT);
+        if (speed.equals("max")) return MAX_SPEED;
+        if (speed.equals("realtime")) return 1.0;
+        try {
+            double multiple = Double.parseDouble(speed.endsWith("x") ? speed.substring(0, speed.length() - 1) : speed);
+            if (multiple > 0 && !Double.isInfinite(multiple)) return multiple;
+        } catch (NumberFormatException e) {
+            // reported below
+        }
+        throw new IllegalArgumentException("Invalid replay speed: " + value);
+    }
+
+    /**
+     * Replays the processed files' series, loaded through PriceStore, into a new strategy per ticker.
+     * Warm-up passes replay the data unpaced and unmeasured first, so that the measured run is JIT-compiled.
+     */
+    public static Report run(File[] processedFiles, Supplier<StreamingStrategy> strategy, double speed, int warmupPasses) {
+        File[] sorted = processedFiles.clone();
+        Arrays.sort(sorted, Comparator.comparing(File::getName));
+        List<PriceSeries> data = new ArrayList<>();
+        for (File file : sorted) {
+            try {
+                data.add(PriceStore.load(file.getName()));
+            } catch (IOException e) {
+                System.err.println("Error reading file " + file.getName() + ": " + e.getMessage());
+            }
+        }
+        return run(data, strategy, speed, warmupPasses);
+    }
+
+    public static Report run(List<PriceSeries> data, Supplier<StreamingStrategy> strategy, double speed, int warmupPasses) {
+        Schedule schedule = new Schedule(data);
+        for (int pass = 0; pass < warmupPasses; pass++) {
+            replay(schedule, strategy, MAX_SPEED);
+        }
+        return replay(schedule, strategy, speed);
+    }
+
+    private static Report replay(Schedule schedule, Supplier<StreamingStrategy> strategy, double speed) {
+        StreamingStrategy[] strategies = new StreamingStrategy[schedule.series.length];
+        for (int t = 0; t < strategies.length; t++) strategies[t] = strategy.get();
+
+        Report report = new Report();
+        report.tickers = strategies.length;
+        report.dates = schedule.dates.length;
+        LatencyHistogram updateLatency = report.updateLatency;
+        LatencyHistogram signalLatency = report.signalLatency;
+        long longSignals = 0;
+        long shortSignals = 0;
+
+        long start = System.nanoTime();
+        for (int d = 0; d < schedule.dates.length; d++) {
+            long release;
+            if (speed == MAX_SPEED) {
+                release = System.nanoTime();
+            } else {
+                // scheduled release; when the replay falls behind, the delay counts towards the signal latency
+                release = start + (long) ((schedule.dates[d] - schedule.dates[0]) * (NANOS_PER_DAY / speed));
+                awaitNanos(release);
+            }
+
+            for (int b = schedule.dateStarts[d]; b < schedule.dateStarts[d + 1]; b++) {
+                int ticker = schedule.tickers[b];
+                int row = schedule.rows[b];
+                PriceSeries series = schedule.series[ticker];
+
+                long before = System.nanoTime();
+                byte position = strategies[ticker].update(series.open[row], series.high[row], series.low[row],
+                        series.close[row], series.adjClose[row], series.volume[row]);
+                long after = System.nanoTime();
+
+                updateLatency.record(after - before);
+                signalLatency.record(after - release);
+                if (position == PriceSeries.LONG) longSignals++;
+                else if (position == PriceSeries.SHORT) shortSignals++;
+            }
+        }
+        report.elapsedNanos = System.nanoTime() - start;
+        report.bars = schedule.dateStarts[schedule.dates.length];
+        report.longSignals = longSignals;
+        report.shortSignals = shortSignals;
+        return report;
+    }
+
+    // Parks until shortly before the deadline and spins for the rest, since parking overshoots by tens of microseconds
+    private static void awaitNanos(long deadline) {
+        long remaining;
+        while ((remaining = deadline - System.nanoTime()) > SPIN_NANOS) {
+            LockSupport.parkNanos(remaining - SPIN_NANOS);
+        }
+        while (deadline - System.nanoTime() > 0) {
+            // spin; Thread.onSpinWait is not available on Java 8
+        }
+    }
+
+    /**
+     * All bars in replay order: by date, then by ticker in the order of the series, as flat index arrays.
+     */
+    private static final class Schedule {
+        final PriceSeries[] series;
+        final long[] dates;      // distinct dates, ascending
+        final int[] dateStarts;  // bars of date d are at [dateStarts[d], dateStarts[d + 1])
+        final int[] tickers;
+        final int[] rows;
+
+        Schedule(List<PriceSeries> data) {
+            series = data.toArray(new PriceSeries[0]);
+            TradingCalendar calendar = TradingCalendar.of(data);
+            dates = calendar.dates();
+
+            // count the bars of each date, then place them ticker by ticker, so a date's bars are in ticker
+            // order and a repeated date is replayed as a further bar on the same date
+            dateStarts = new int[dates.length + 1];
+            int bars = 0;
+            for (int t = 0; t < series.length; t++) {
+                for (int d : calendar.offsets(t)) dateStarts[d + 1]++;
+                bars += series[t].size();
+            }
+            for (int d = 0; d < dates.length; d++) dateStarts[d + 1] += dateStarts[d];
+
+            tickers = new int[bars];
+            rows = new int[bars];
+            int[] next = Arrays.copyOf(dateStarts, dates.length);
+            for (int t = 0; t < series.length; t++) {
+                int[] offsets = calendar.offsets(t);
+                for (int row = 0; row < offsets.length; row++) {
+                    int b = next[offsets[row]]++;
+                    tickers[b] = t;
+                    rows[b] = row;
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,211 @@
+package finance;
+
+import com.google.gson.stream.JsonWriter;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+// Run metrics shared by all stages: counters, timers and value histograms by dotted name, e.g. "strategy.ma"
+// or "fetch.errors". Recording is thread-safe and cheap enough for per-ticker work; the per-bar loops are
+// not instrumented. The metrics are written as JSON or Prometheus text and can be served over HTTP.
+
+public class Metrics {
+
+    private static final String PREFIX = "trading_";
+    private static final double[] QUANTILES = {0.5, 0.9, 0.99};
+
+    private static final Map<String, LongAdder> COUNTERS = new ConcurrentHashMap<>();
+    private static final Map<String, Distribution> TIMERS = new ConcurrentHashMap<>();
+    private static final Map<String, Distribution> HISTOGRAMS = new ConcurrentHashMap<>();
+
+    /**
+     * Values of one timer or histogram, recorded under a lock since LatencyHistogram is not thread-safe.
+     */
+    private static final class Distribution {
+        private final LatencyHistogram histogram = new LatencyHistogram();
+
+        synchronized void record(long value) {
+            histogram.record(value);
+        }
+
+        synchronized LatencyHistogram snapshot() {
+            LatencyHistogram copy = new LatencyHistogram();
+            copy.add(histogram);
+            return copy;
+        }
+    }
+
+    public static void increment(String counter) {
+        add(counter, 1);
+    }
+
+    public static void add(String counter, long delta) {
+        COUNTERS.computeIfAbsent(counter, name -> new LongAdder()).add(delta);
+    }
+
+    /**
+     * Records the time elapsed since startNanos, a System.nanoTime() value, and returns it.
+     */
+    public static long stopTimer(String timer, long startNanos) {
+        long elapsed = System.nanoTime() - startNanos;
+        TIMERS.computeIfAbsent(timer, name -> new Distribution()).record(elapsed);
+        return elapsed;
+    }
+
+    /**
+     * Records a value in a histogram, e.g. the number of bars of a ticker.
+     */
+    public static void observe(String histogram, long value) {
+        HISTOGRAMS.computeIfAbsent(histogram, name -> new Distribution()).record(value);
+    }
+
+    public static long getCount(String counter) {
+        LongAdder adder = COUNTERS.get(counter);
+        return adder == null ? 0 : adder.sum();
+    }
+
+    /**
+     * Forgets all metrics, e.g. between benchmark runs.
+     */
+    public static void reset() {
+        COUNTERS.clear();
+        TIMERS.clear();
+        HISTOGRAMS.clear();
+    }
+
+    /**
+     * Writes the metrics as JSON: counters by name, and for timers (in seconds) and histograms the count,
+     * sum, mean, percentiles and maximum.
+     */
+    public static void writeJson(Writer out) throws IOException {
+        JsonWriter json = new JsonWriter(out);
+        json.setIndent("  ");
+        json.beginObject();
+        json.name("counters").beginObject();
+        for (Map.Entry<String, LongAdder> counter : new TreeMap<>(COUNTERS).entrySet()) {
+            json.name(counter.getKey()).value(counter.getValue().sum());
+        }
+        json.endObject();
+        json.name("timers");
+        writeJson(json, TIMERS, 1e-9);
+        json.name("histograms");
+        writeJson(json, HISTOGRAMS, 1.0);
+        json.endObject();
+        json.flush();
+    }
+
+    private static void writeJson(JsonWriter json, Map<String, Distribution> distributions, double scale) throws IOException {
+        json.beginObject();
+        for (Map.Entry<String, Distribution> entry : new TreeMap<>(distributions).entrySet()) {
+            LatencyHistogram histogram = entry.getValue().snapshot();
+            json.name(entry.getKey()).beginObject();
+            json.name("count").value(histogram.getCount());
+            json.name("sum").value(histogram.getMean() * histogram.getCount() * scale);
+            json.name("mean").value(histogram.getMean() * scale);
+            for (double quantile : QUANTILES) {
+                json.name("p" + formatPercent(quantile)).value(histogram.getValueAtPercentile(quantile * 100) * scale);
+            }
+            json.name("max").value(histogram.getMax() * scale);
+            json.endObject();
+        }
+        json.endObject();
+    }
+
+    /**
+     * Writes the metrics in the Prometheus text format: counters as "_total", timers as summaries in
+     * seconds and histograms as summaries, all names prefixed with "trading_".
+     */
+    public static void writePrometheus(Writer out) throws IOException {
+        for (Map.Entry<String, LongAdder> counter : new TreeMap<>(COUNTERS).entrySet()) {
+            String name = PREFIX + sanitize(counter.getKey()) + "_total";
+            out.write("# TYPE " + name + " counter\n");
+            out.write(name + " " + counter.getValue().sum() + "\n");
+        }
+        writePrometheus(out, TIMERS, "_seconds", 1e-9);
+        writePrometheus(out, HISTOGRAMS, "", 1.0);
+        out.flush();
+    }
+
+    private static void writePrometheus(Writer out, Map<String, Distribution> distributions, String unit, double scale) throws IOException {
+        for (Map.Entry<String, Distribution> entry : new TreeMap<>(distributions).entrySet()) {
+            LatencyHistogram histogram = entry.getValue().snapshot();
+            String name = PREFIX + sanitize(entry.getKey()) + unit;
+            out.write("# TYPE " + name + " summary\n");
+            for (double quantile : QUANTILES) {
+                out.write(name + "{quantile=\"" + quantile + "\"} " + format(histogram.getValueAtPercentile(quantile * 100) * scale) + "\n");
+            }
+            out.write(name + "_sum " + format(histogram.getMean() * histogram.getCount() * scale) + "\n");
+            out.write(name + "_count " + histogram.getCount() + "\n");
+            out.write("# TYPE " + name + "_max gauge\n");
+            out.write(name + "_max " + format(histogram.getMax() * scale) + "\n");
+        }
+    }
+
+    public static void writeJson(Path filePath) {
+        try (Writer writer = Files.newBufferedWriter(filePath)) {
+            writeJson(writer);
+        } catch (IOException e) {
+            System.err.println("Error saving metrics: " + e.getMessage());
+        }
+    }
+
+    public static void writePrometheus(Path filePath) {
+        try (Writer writer = Files.newBufferedWriter(filePath)) {
+            writePrometheus(writer);
+        } catch (IOException e) {
+            System.err.println("Error saving metrics: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Serves the current metrics on the loopback interface, as Prometheus text at /metrics and as JSON at
+     * /metrics.json. The server must be stopped for the JVM to exit.
+     */
+    public static HttpServer serve(int port) throws IOException {
+        HttpServer server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+        server.createContext("/metrics", exchange -> {
+            boolean json = exchange.getRequestURI().getPath().equals("/metrics.json");
+            StringWriter body = new StringWriter();
+            if (json) writeJson(body); else writePrometheus(body);
+            respond(exchange, json ? "application/json" : "text/plain; version=0.0.4", body.toString());
+        });
+        server.start();
+        System.out.println("Serving metrics on http://localhost:" + server.getAddress().getPort() + "/metrics");
+        return server;
+    }
+
+    private static void respond(HttpExchange exchange, String contentType, String body) throws IOException {
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", contentType + "; charset=utf-8");
+        exchange.sendResponseHeaders(200, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+
+    private static String sanitize(String name) {
+        return name.replaceAll("[^a-zA-Z0-9_]", "_");
+    }
+
+    private static String format(double value) {
+        return Double.toString(value);
+    }
+
+    private static String formatPercent(double quantile) {
+        double percent = quantile * 100;
+        return percent == Math.rint(percent) ? String.valueOf((long) percent) : String.valueOf(percent);
+    }
+}
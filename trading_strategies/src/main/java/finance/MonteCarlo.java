@@ -0,0 +1,163 @@
+package finance;
+
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.SplittableRandom;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.IntStream;
+
+// Monte Carlo robustness check of a backtest: its daily portfolio returns are resampled with the stationary
+// block bootstrap, which keeps the returns' short-range dependence such as volatility clusters, into many
+// alternative paths of the same length. The spread of the paths' Sharpe ratio, total return and maximum
+// drawdown shows how much of the backtest's single figure could be luck. Paths are generated in parallel,
+// each chunk of paths with its own split of one seeded generator, so results depend only on the seed.
+
+public class MonteCarlo {
+
+    private static final int PATHS_PER_CHUNK = 1024; // a chunk's paths share one generator
+    private static final double[] PERCENTILES = {2.5, 5, 50, 95, 97.5};
+
+    /**
+     * Sorted metrics of all resampled paths.
+     */
+    public static final class Report {
+        public final int paths;
+        public final int days;
+        public final double meanBlockLength;
+        public final double[] sharpeRatios;  // ascending
+        public final double[] totalReturns;  // ascending
+        public final double[] maxDrawdowns;  // ascending, so the worst first
+
+        private Report(int days, double meanBlockLength, double[] sharpeRatios, double[] totalReturns, double[] maxDrawdowns) {
+            this.paths = sharpeRatios.length;
+            this.days = days;
+            this.meanBlockLength = meanBlockLength;
+            this.sharpeRatios = sharpeRatios;
+            this.totalReturns = totalReturns;
+            this.maxDrawdowns = maxDrawdowns;
+        }
+
+        /**
+         * Returns the value below or at which the given percentage of a sorted metric's paths fall.
+         */
+        public static double percentile(double[] sorted, double percent) {
+            if (sorted.length == 0) return Double.NaN;
+            int rank = (int) Math.ceil(Math.min(100.0, Math.max(0.0, percent)) / 100.0 * sorted.length);
+            return sorted[Math.max(0, rank - 1)];
+        }
+
+        public void print() {
+            System.out.printf(Locale.ROOT, "%nMonte Carlo Bootstrap (%d paths of %d days, mean block of %.1f days):%n",
+                    paths, days, meanBlockLength);
+            StringBuilder header = new StringBuilder(String.format("%-16s", "Percentile"));
+            for (double percent : PERCENTILES) {
+                header.append(String.format("%10s", (percent == Math.rint(percent) ? String.valueOf((long) percent) : String.valueOf(percent)) + "%"));
+            }
+            System.out.println(header);
+            printRow("Sharpe Ratio", sharpeRatios, 1.0, "");
+            printRow("Total Return", totalReturns, 100.0, "%");
+            printRow("Max Drawdown", maxDrawdowns, 100.0, "%");
+        }
+
+        private static void printRow(String name, double[] sorted, double scale, String unit) {
+            StringBuilder row = new StringBuilder(String.format("%-16s", name));
+            for (double percent : PERCENTILES) {
+                row.append(String.format(Locale.ROOT, "%10s", String.format(Locale.ROOT, "%.2f", percentile(sorted, percent) * scale) + unit));
+            }
+            System.out.println(row);
+        }
+    }
+
+    /**
+     * The usual block length for daily returns when none is given: the cube root of the number of days.
+     */
+    public static double defaultBlockLength(int days) {
+        return Math.max(1.0, Math.cbrt(days));
+    }
+
+    /**
+     * Resamples the daily returns into the given number of paths with blocks of geometrically distributed
+     * length, meanBlockLength on average, starting at uniformly random days and wrapping around the end.
+     * The metrics are computed as PerformanceStats computes them, while each path is generated.
+     */
+    public static Report run(double[] dailyReturns, int paths, double meanBlockLength, long seed, int parallelism) {
+        if (dailyReturns.length == 0) throw new IllegalArgumentException("No returns to resample");
+        if (paths <= 0) throw new IllegalArgumentException("Number of paths must be positive: " + paths);
+        if (!(meanBlockLength >= 1.0)) throw new IllegalArgumentException("Mean block length must be at least 1: " + meanBlockLength);
+
+        long start = System.nanoTime();
+        double[] sharpeRatios = new double[paths];
+        double[] totalReturns = new double[paths];
+        double[] maxDrawdowns = new double[paths];
+
+        // one generator per chunk, split in order, so the paths do not depend on the threads running them
+        int chunks = (paths + PATHS_PER_CHUNK - 1) / PATHS_PER_CHUNK;
+        SplittableRandom root = new SplittableRandom(seed);
+        SplittableRandom[] generators = new SplittableRandom[chunks];
+        for (int c = 0; c < chunks; c++) generators[c] = root.split();
+
+        // log(1 - p) for a block to end after each day with probability p = 1 / meanBlockLength
+        double logContinue = Math.log1p(-1.0 / meanBlockLength);
+
+        ForkJoinPool pool = new ForkJoinPool(Math.max(1, parallelism));
+        try {
+            pool.submit(() -> IntStream.range(0, chunks).parallel().forEach(c -> {
+                SplittableRandom random = generators[c];
+                int to = Math.min(paths, (c + 1) * PATHS_PER_CHUNK);
+                for (int path = c * PATHS_PER_CHUNK; path < to; path++) {
+                    resample(dailyReturns, random, logContinue, path, sharpeRatios, totalReturns, maxDrawdowns);
+                }
+            })).join();
+        } finally {
+            pool.shutdown();
+        }
+
+        Arrays.parallelSort(sharpeRatios);
+        Arrays.parallelSort(totalReturns);
+        Arrays.parallelSort(maxDrawdowns);
+        Metrics.stopTimer("montecarlo", start);
+        return new Report(dailyReturns.length, meanBlockLength, sharpeRatios, totalReturns, maxDrawdowns);
+    }
+
+    private static void resample(double[] returns, SplittableRandom random, double logContinue, int path,
+                                 double[] sharpeRatios, double[] totalReturns, double[] maxDrawdowns) {
+        int days = returns.length;
+        double balance = 1.0;
+        double peak = 1.0;
+        double trough = 1.0; // lowest balance since the peak, so the drawdown is only divided out when it deepens
+        double maxDrawdown = 0.0;
+        double sum = 0.0;
+        double sumOfSquares = 0.0;
+
+        int day = 0;
+        while (day < days) {
+            // a block of geometric length starting anywhere, one draw each for its start and length
+            int index = random.nextInt(days);
+            // capped at the history, so an endless mean length cannot overflow
+            long length = 1 + (long) Math.min(days, Math.log(1.0 - random.nextDouble()) / logContinue);
+            int end = (int) Math.min(days, day + length);
+            for (; day < end; day++) {
+                double dailyReturn = returns[index];
+                if (++index == days) index = 0;
+
+                sum += dailyReturn;
+                sumOfSquares += dailyReturn * dailyReturn;
+                balance += balance * dailyReturn;
+                if (balance > peak) {
+                    peak = balance;
+                    trough = balance;
+                } else if (balance < trough) {
+                    trough = balance;
+                    maxDrawdown = Math.min(maxDrawdown, (balance - peak) / peak);
+                }
+            }
+        }
+
+        // returns are small, so the sums lose no meaningful precision to the running mean PerformanceStats keeps
+        double mean = sum / days;
+        double volatility = Math.sqrt(Math.max(0.0, sumOfSquares / days - mean * mean));
+        sharpeRatios[path] = volatility > 0 ? mean / volatility * Math.sqrt(252) : 0.0;
+        totalReturns[path] = balance - 1.0;
+        maxDrawdowns[path] = maxDrawdown;
+    }
+}
@@ -0,0 +1,198 @@
+package finance;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.LongBuffer;
+import java.nio.file.Path;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+
+// Price columns of a whole universe held outside the Java heap, one block per ticker in the price cache's
+// layout. Mapped from the cache file, the blocks are paged in by the operating system as they are read, so
+// a universe may be larger than the heap; copied from loaded series, they live in direct buffers. Either
+// way the accessors read the columns in place and the garbage collector never scans or moves them, so its
+// pauses do not grow with the universe.
+
+public class OffHeapUniverse {
+
+    public static final int OPEN = 0;
+    public static final int HIGH = 1;
+    public static final int LOW = 2;
+    public static final int CLOSE = 3;
+    public static final int ADJ_CLOSE = 4;
+    public static final int VOLUME = 5;
+    public static final int RETURNS = 6;
+    private static final int PRICE_COLUMNS = 7;
+
+    private final String[] tickers;
+    private final boolean[] dayFirst;
+    private final Map<String, Integer> tickerIndex = new HashMap<>();
+    private final LongBuffer[] dates;        // [ticker], epoch days
+    private final DoubleBuffer[][] columns;  // [column][ticker]
+
+    OffHeapUniverse(String[] tickers, boolean[] dayFirst, ByteBuffer[] blocks) {
+        this.tickers = tickers;
+        this.dayFirst = dayFirst;
+        this.dates = new LongBuffer[tickers.length];
+        this.columns = new DoubleBuffer[PRICE_COLUMNS][tickers.length];
+        for (int t = 0; t < tickers.length; t++) {
+            tickerIndex.put(tickers[t], t);
+            ByteBuffer block = blocks[t].order(ByteOrder.LITTLE_ENDIAN);
+            int rows = block.capacity() / 8 / (PRICE_COLUMNS + 1);
+            dates[t] = view(block, 0, rows).asLongBuffer();
+            for (int c = 0; c < PRICE_COLUMNS; c++) {
+                columns[c][t] = view(block, (c + 1) * rows, rows).asDoubleBuffer();
+            }
+        }
+    }
+
+    /**
+     * Maps the price cache file written by PriceCache.write. Its memory is released once the universe is
+     * no longer referenced.
+     */
+    public static OffHeapUniverse map(Path cacheFile) throws IOException {
+        return PriceCache.mapUniverse(cacheFile);
+    }
+
+    /**
+     * Copies the base price columns of the series into direct buffers, in the given order.
+     */
+    public static OffHeapUniverse copyOf(Collection<PriceSeries> seriesList) {
+        String[] tickers = new String[seriesList.size()];
+        boolean[] dayFirst = new boolean[tickers.length];
+        ByteBuffer[] blocks = new ByteBuffer[tickers.length];
+        int t = 0;
+        for (PriceSeries series : seriesList) {
+            tickers[t] = series.ticker;
+            dayFirst[t] = series.isDayFirst();
+            blocks[t] = ByteBuffer.allocateDirect(PriceCache.blockBytes(series.size()));
+            PriceCache.putBlock(blocks[t], series);
+            t++;
+        }
+        return new OffHeapUniverse(tickers, dayFirst, blocks);
+    }
+
+    /**
+     * Returns the number of tickers.
+     */
+    public int size() {
+        return tickers.length;
+    }
+
+    public String ticker(int t) {
+        return tickers[t];
+    }
+
+    /**
+     * Returns the index of the ticker, or -1 if the universe does not hold it.
+     */
+    public int indexOf(String ticker) {
+        Integer t = tickerIndex.get(ticker);
+        return t != null ? t : -1;
+    }
+
+    public boolean isDayFirst(int t) {
+        return dayFirst[t];
+    }
+
+    /**
+     * Returns the number of rows of the ticker.
+     */
+    public int rows(int t) {
+        return dates[t].limit();
+    }
+
+    /**
+     * Returns the date of a ticker's row in epoch days.
+     */
+    public long date(int t, int row) {
+        return dates[t].get(row);
+    }
+
+    /**
+     * Returns a price column's value, with the column one of OPEN to RETURNS.
+     */
+    public double value(int column, int t, int row) {
+        return columns[column][t].get(row);
+    }
+
+    public double open(int t, int row) {
+        return columns[OPEN][t].get(row);
+    }
+
+    public double high(int t, int row) {
+        return columns[HIGH][t].get(row);
+    }
+
+    public double low(int t, int row) {
+        return columns[LOW][t].get(row);
+    }
+
+    public double close(int t, int row) {
+        return columns[CLOSE][t].get(row);
+    }
+
+    public double adjClose(int t, int row) {
+        return columns[ADJ_CLOSE][t].get(row);
+    }
+
+    public double volume(int t, int row) {
+        return columns[VOLUME][t].get(row);
+    }
+
+    public double returns(int t, int row) {
+        return columns[RETURNS][t].get(row);
+    }
+
+    /**
+     * Returns a read-only view of the ticker's dates, for bulk reads without copying.
+     */
+    public LongBuffer dates(int t) {
+        return dates[t].asReadOnlyBuffer();
+    }
+
+    /**
+     * Returns a read-only view of one of the ticker's price columns, for bulk reads without copying.
+     */
+    public DoubleBuffer column(int column, int t) {
+        return columns[column][t].asReadOnlyBuffer();
+    }
+
+    /**
+     * Returns the ticker's first row whose date is not before the given epoch day.
+     */
+    public int rowOf(int t, long epochDay) {
+        LongBuffer tickerDates = dates[t];
+        int low = 0;
+        int high = tickerDates.limit();
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (tickerDates.get(middle) < epochDay) low = middle + 1;
+            else high = middle;
+        }
+        return low;
+    }
+
+    /**
+     * Copies a ticker's rows onto the heap, for code that needs a PriceSeries.
+     */
+    public PriceSeries toSeries(int t) {
+        int rows = rows(t);
+        long[] seriesDates = new long[rows];
+        dates[t].duplicate().get(seriesDates);
+        double[][] values = new double[PRICE_COLUMNS][rows];
+        for (int c = 0; c < PRICE_COLUMNS; c++) columns[c][t].duplicate().get(values[c]);
+        return new PriceSeries(tickers[t], seriesDates, values[OPEN], values[HIGH], values[LOW], values[CLOSE],
+                values[ADJ_CLOSE], values[VOLUME], values[RETURNS], dayFirst[t]);
+    }
+
+    // Little-endian view of rows 8-byte values starting at the given value index
+    private static ByteBuffer view(ByteBuffer block, int index, int rows) {
+        ByteBuffer view = block.duplicate();
+        view.limit((index + rows) * 8).position(index * 8);
+        return view.slice().order(ByteOrder.LITTLE_ENDIAN);
+    }
+}
@@ -0,0 +1,97 @@
+package finance;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+// Cartesian grid of named parameter values, enumerated without materialising the combinations
+
+public class ParameterGrid {
+
+    private final Map<String, double[]> values = new LinkedHashMap<>();
+
+    /**
+     * Adds a parameter taking each of the given values.
+     */
+    public ParameterGrid add(String name, double... parameterValues) {
+        if (parameterValues.length == 0) throw new IllegalArgumentException("No values for " + name);
+        values.put(name, parameterValues.clone());
+        return this;
+    }
+
+    /**
+     * Adds a parameter running from 'from' to 'to' inclusive in steps of 'step'.
+     */
+    public ParameterGrid range(String name, double from, double to, double step) {
+        if (step <= 0) throw new IllegalArgumentException("Step must be positive for " + name + ": " + step);
+        List<Double> range = new ArrayList<>();
+        for (int i = 0; from + i * step <= to + step * 1e-9; i++) range.add(from + i * step);
+        double[] parameterValues = new double[range.size()];
+        for (int i = 0; i < parameterValues.length; i++) parameterValues[i] = range.get(i);
+        return add(name, parameterValues);
+    }
+
+    /**
+     * Parses a grid such as "shortWindow=3:10:1;longWindow=20,30,50": parameters are separated by
+     * semicolons and take either a from:to:step range or a comma separated list of values.
+     */
+    public static ParameterGrid parse(String spec) {
+        ParameterGrid grid = new ParameterGrid();
+        for (String parameter : spec.split(";")) {
+            if (parameter.trim().isEmpty()) continue;
+            String[] nameAndValues = parameter.split("=", 2);
+            if (nameAndValues.length != 2) throw new IllegalArgumentException("Invalid parameter: " + parameter);
+            String name = nameAndValues[0].trim();
+            String valueSpec = nameAndValues[1].trim();
+            try {
+                if (valueSpec.contains(":")) {
+                    String[] range = valueSpec.split(":");
+                    if (range.length != 3) throw new IllegalArgumentException("Invalid range for " + name + ": " + valueSpec);
+                    grid.range(name, Double.parseDouble(range[0]), Double.parseDouble(range[1]), Double.parseDouble(range[2]));
+                } else {
+                    String[] list = valueSpec.split(",");
+                    double[] parameterValues = new double[list.length];
+                    for (int i = 0; i < list.length; i++) parameterValues[i] = Double.parseDouble(list[i].trim());
+                    grid.add(name, parameterValues);
+                }
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Invalid values for " + name + ": " + valueSpec, e);
+            }
+        }
+        return grid;
+    }
+
+    public List<String> names() {
+        return Collections.unmodifiableList(new ArrayList<>(values.keySet()));
+    }
+
+    /**
+     * Returns the number of combinations.
+     */
+    public int size() {
+        long size = 1;
+        for (double[] parameterValues : values.values()) {
+            size *= parameterValues.length;
+            if (size > Integer.MAX_VALUE) throw new IllegalStateException("Too many parameter combinations");
+        }
+        return (int) size;
+    }
+
+    /**
+     * Returns the combination with the given index, the last parameter varying fastest.
+     */
+    public Map<String, Double> combination(int index) {
+        Map<String, Double> combination = new LinkedHashMap<>();
+        List<String> names = names();
+        double[] chosen = new double[names.size()];
+        for (int p = names.size() - 1; p >= 0; p--) {
+            double[] parameterValues = values.get(names.get(p));
+            chosen[p] = parameterValues[index % parameterValues.length];
+            index /= parameterValues.length;
+        }
+        for (int p = 0; p < names.size(); p++) combination.put(names.get(p), chosen[p]);
+        return combination;
+    }
+}
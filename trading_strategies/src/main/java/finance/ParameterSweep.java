@@ -0,0 +1,396 @@
+package finance;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.math.MathContext;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+// Grid search over strategy parameters: every combination is backtested in memory on the same
+// loaded prices, in parallel, and the combinations are ranked by Sharpe ratio. Several strategies can be
+// swept in one run, sharing the loaded data, the indicator columns and the date-aligned returns.
+
+public class ParameterSweep {
+
+    public static final String MOVING_AVERAGE = "ma";          // Trading Strategy 1
+    public static final String EMA = "ema";                    // Trading Strategy 2
+    public static final String MA_RSI_VOLUME = "ma-rsi-volume";   // Trading Strategy 3
+    public static final String EMA_RSI_VOLUME = "ema-rsi-volume"; // Trading Strategy 4
+    public static final String FIBONACCI = "fib";
+
+    // Values used for parameters missing from the grid, as in MainApp
+    private static final Map<String, Double> DEFAULTS = new LinkedHashMap<>();
+    static {
+        DEFAULTS.put("shortWindow", 5.0);
+        DEFAULTS.put("longWindow", 20.0);
+        DEFAULTS.put("rsiWindow", 14.0);
+        DEFAULTS.put("volumeWindow", 20.0);
+        DEFAULTS.put("period", 10.0);
+        DEFAULTS.put("atrPeriod", 7.0);
+        DEFAULTS.put("initialBalance", 100000.0);
+        DEFAULTS.put("buyFullBelow", 0.5);
+        DEFAULTS.put("buyHalfAbove", 0.25);
+        DEFAULTS.put("sellFullAbove", 0.2);
+        DEFAULTS.put("sellHalfAbove", 0.1);
+        DEFAULTS.put("atrVolatilityThreshold", 0.2);
+        DEFAULTS.put("stopLossPercent", 0.02);
+        DEFAULTS.put("maxPositionSize", 0.05);
+    }
+
+    // Parameters each strategy takes; a grid may only set these
+    private static final Map<String, List<String>> PARAMETERS = new LinkedHashMap<>();
+    static {
+        List<String> crossover = Arrays.asList("shortWindow", "longWindow");
+        List<String> crossoverRsiVolume = Arrays.asList("shortWindow", "longWindow", "rsiWindow", "volumeWindow");
+        PARAMETERS.put(MOVING_AVERAGE, crossover);
+        PARAMETERS.put(EMA, crossover);
+        PARAMETERS.put(MA_RSI_VOLUME, crossoverRsiVolume);
+        PARAMETERS.put(EMA_RSI_VOLUME, crossoverRsiVolume);
+        PARAMETERS.put(FIBONACCI, Arrays.asList("period", "atrPeriod", "initialBalance", "buyFullBelow", "buyHalfAbove",
+                "sellFullAbove", "sellHalfAbove", "atrVolatilityThreshold", "stopLossPercent", "maxPositionSize"));
+    }
+
+    // Best first: by Sharpe ratio, then total return, then maximum drawdown
+    static final Comparator<Result> RANKING = Comparator.comparingDouble((Result result) -> result.stats.getSharpeRatio())
+            .thenComparingDouble(result -> result.stats.getTotalReturn())
+            .thenComparingDouble(result -> result.stats.getMaxDrawdown())
+            .reversed();
+
+    /**
+     * Performance of one parameter combination.
+     */
+    public static final class Result {
+        public final String strategy;
+        public final Map<String, Double> parameters;
+        public final PerformanceStats stats;
+
+        Result(String strategy, Map<String, Double> parameters, PerformanceStats stats) {
+            this.strategy = strategy;
+            this.parameters = Collections.unmodifiableMap(parameters);
+            this.stats = stats;
+        }
+    }
+
+    /**
+     * Sweeps the grid over the processed files' price data, loaded once through PriceStore.
+     */
+    public static List<Result> run(String strategy, ParameterGrid grid, File[] processedFiles, int parallelism) {
+        return run(strategy, grid, load(processedFiles), parallelism);
+    }
+
+    /**
+     * Backtests every combination of the grid on the given series and returns the results ranked by
+     * Sharpe ratio, then total return, then maximum drawdown. Indicator columns are computed once per
+     * ticker and window and shared by all combinations using them.
+     */
+    public static List<Result> run(String strategy, ParameterGrid grid, List<PriceSeries> data, int parallelism) {
+        return run(Collections.singletonMap(strategy, grid), data, parallelism);
+    }
+
+    /**
+     * Sweeps a grid per strategy over the processed files' price data, loaded once through PriceStore.
+     */
+    public static List<Result> run(Map<String, ParameterGrid> grids, File[] processedFiles, int parallelism) {
+        return run(grids, load(processedFiles), parallelism);
+    }
+
+    /**
+     * Backtests every combination of each strategy's grid in one run and ranks them all together. An empty
+     * grid backtests the strategy once with the default parameters. The strategies share the indicator
+     * columns, e.g. the moving averages of Trading Strategies 1 and 3 or the average volume of 3 and 4.
+     */
+    public static List<Result> run(Map<String, ParameterGrid> grids, List<PriceSeries> data, int parallelism) {
+        List<String> strategies = new ArrayList<>(grids.keySet());
+        int[] offsets = new int[strategies.size() + 1]; // combinations of strategy s are [offsets[s], offsets[s + 1])
+        for (int s = 0; s < strategies.size(); s++) {
+            String strategy = strategies.get(s);
+            ParameterGrid grid = grids.get(strategy);
+            validate(strategy, grid);
+            offsets[s + 1] = Math.addExact(offsets[s], grid.size());
+        }
+
+        SharedIndicators indicators = new SharedIndicators(data);
+        ForkJoinPool pool = new ForkJoinPool(Math.max(1, parallelism));
+        List<Result> results;
+        try {
+            results = pool.submit(() -> IntStream.range(0, offsets[strategies.size()]).parallel()
+                    .mapToObj(index -> {
+                        int s = 0;
+                        while (index >= offsets[s + 1]) s++;
+                        String strategy = strategies.get(s);
+                        Map<String, Double> combination = grids.get(strategy).combination(index - offsets[s]);
+                        return new Result(strategy, combination, evaluate(strategy, withDefaults(combination), indicators));
+                    })
+                    .collect(Collectors.toList())).join();
+        } finally {
+            pool.shutdown();
+        }
+
+        List<Result> ranked = new ArrayList<>(results);
+        ranked.sort(RANKING);
+        return ranked;
+    }
+
+    /**
+     * Prints the best combinations as a table.
+     */
+    public static void printRanking(List<Result> results, int limit) {
+        if (results.isEmpty()) {
+            System.out.println("No parameter combinations evaluated.");
+            return;
+        }
+        List<String> names = parameterNames(results);
+        boolean strategies = hasSeveralStrategies(results);
+        int[] widths = new int[names.size()];
+        StringBuilder header = new StringBuilder(String.format("%-6s", "Rank"));
+        if (strategies) header.append(String.format("%-16s", "Strategy"));
+        for (int p = 0; p < names.size(); p++) {
+            widths[p] = Math.max(10, names.get(p).length() + 2);
+            header.append(String.format("%" + widths[p] + "s", names.get(p)));
+        }
+        header.append(String.format("%10s%12s%14s", "Sharpe", "Return", "Max Drawdown"));
+
+        System.out.println("\nParameter Sweep Ranking (" + results.size() + " combinations):");
+        System.out.println(header);
+        for (int i = 0; i < Math.min(limit, results.size()); i++) {
+            Result result = results.get(i);
+            StringBuilder row = new StringBuilder(String.format("%-6d", i + 1));
+            if (strategies) row.append(String.format("%-16s", result.strategy));
+            for (int p = 0; p < names.size(); p++) {
+                row.append(String.format("%" + widths[p] + "s", formatParameter(result.parameters.get(names.get(p)))));
+            }
+            row.append(String.format("%10.2f%11.2f%%%13.2f%%", result.stats.getSharpeRatio(),
+                    result.stats.getTotalReturn() * 100, result.stats.getMaxDrawdown() * 100));
+            System.out.println(row);
+        }
+    }
+
+    /**
+     * Writes all results, in rank order, as a CSV file.
+     */
+    public static void writeResults(Path filePath, List<Result> results) {
+        try (BufferedWriter writer = Files.newBufferedWriter(filePath)) {
+            List<String> names = parameterNames(results);
+            boolean strategies = hasSeveralStrategies(results);
+            writer.write("Rank," + (strategies ? "Strategy," : "") + (names.isEmpty() ? "" : String.join(",", names) + ",")
+                    + "Sharpe,Total Return,Max Drawdown,Average Daily Return,Volatility,Signal Accuracy,Final Balance\n");
+            for (int i = 0; i < results.size(); i++) {
+                Result result = results.get(i);
+                StringBuilder row = new StringBuilder().append(i + 1);
+                if (strategies) row.append(',').append(result.strategy);
+                for (String name : names) {
+                    Double value = result.parameters.get(name);
+                    row.append(',').append(value == null ? "" : formatParameter(value));
+                }
+                PerformanceStats stats = result.stats;
+                row.append(String.format(",%.4f,%.6f,%.6f,%.8f,%.8f,%.4f,%.2f%n", stats.getSharpeRatio(),
+                        stats.getTotalReturn(), stats.getMaxDrawdown(), stats.getAverageReturn(),
+                        stats.getVolatility(), stats.getAccuracy(), stats.getFinalBalance()));
+                writer.write(row.toString());
+            }
+            System.out.println("Parameter sweep results saved as " + filePath);
+        } catch (IOException e) {
+            System.err.println("Error saving parameter sweep results: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Checks that the strategy is known and the grid only sets parameters the strategy takes; any other
+     * parameter would only repeat the same backtest for each of its values.
+     */
+    static void validate(String strategy, ParameterGrid grid) {
+        List<String> parameters = PARAMETERS.get(strategy);
+        if (parameters == null) throw new IllegalArgumentException("Unknown strategy: " + strategy);
+        for (String name : grid.names()) {
+            if (!DEFAULTS.containsKey(name)) throw new IllegalArgumentException("Unknown parameter: " + name);
+            if (!parameters.contains(name)) {
+                throw new IllegalArgumentException("Strategy " + strategy + " has no parameter " + name
+                        + "; its parameters are " + String.join(", ", parameters));
+            }
+        }
+    }
+
+    /**
+     * Completes a combination with the default value of every parameter it does not set.
+     */
+    static Map<String, Double> withDefaults(Map<String, Double> combination) {
+        Map<String, Double> parameters = new LinkedHashMap<>(DEFAULTS);
+        parameters.putAll(combination);
+        return parameters;
+    }
+
+    /**
+     * Backtests one combination; parameters hold a value for every known parameter name.
+     */
+    private static PerformanceStats evaluate(String strategy, Map<String, Double> parameters, SharedIndicators indicators) {
+        if (FIBONACCI.equals(strategy)) {
+            int period = intParameter(parameters, "period");
+            int atrPeriod = intParameter(parameters, "atrPeriod");
+            return FibBacktester.evaluate(indicators.fibonacci(period, atrPeriod), parameters.get("initialBalance"),
+                    parameters.get("buyFullBelow"), parameters.get("buyHalfAbove"),
+                    parameters.get("sellFullAbove"), parameters.get("sellHalfAbove"),
+                    parameters.get("atrVolatilityThreshold"), parameters.get("stopLossPercent"),
+                    parameters.get("maxPositionSize"));
+        }
+
+        return Backtester.evaluate(positions(strategy, parameters, indicators));
+    }
+
+    /**
+     * Returns the positions Trading Strategy 1 - 4 take with the given parameters, on the shared date axis.
+     */
+    static Backtester.ReturnMatrix positions(String strategy, Map<String, Double> parameters, SharedIndicators indicators) {
+        int shortWindow = intParameter(parameters, "shortWindow");
+        int longWindow = intParameter(parameters, "longWindow");
+        int rsiWindow = intParameter(parameters, "rsiWindow");
+        int volumeWindow = intParameter(parameters, "volumeWindow");
+        List<byte[]> signals = new ArrayList<>(indicators.data.size());
+        for (int t = 0; t < indicators.data.size(); t++) {
+            PriceSeries series = indicators.data.get(t);
+            byte[] positions;
+            switch (strategy) {
+                case MOVING_AVERAGE:
+                    positions = TradingStrategy1.positions(indicators.sma(t, shortWindow), indicators.sma(t, longWindow));
+                    break;
+                case EMA:
+                    positions = TradingStrategy2.positions(indicators.ema(t, shortWindow), indicators.ema(t, longWindow));
+                    break;
+                case MA_RSI_VOLUME:
+                    positions = TradingStrategy3.positions(indicators.sma(t, shortWindow), indicators.sma(t, longWindow),
+                            indicators.rsi(t, rsiWindow), series.volume, indicators.averageVolume(t, volumeWindow));
+                    break;
+                default:
+                    positions = TradingStrategy4.positions(indicators.ema(t, shortWindow), indicators.ema(t, longWindow),
+                            indicators.rsi(t, rsiWindow), series.volume, indicators.averageVolume(t, volumeWindow));
+                    break;
+            }
+            signals.add(positions);
+        }
+        return indicators.returns().withPositions(indicators.data, signals);
+    }
+
+    static List<PriceSeries> load(File[] processedFiles) {
+        File[] sorted = processedFiles.clone();
+        Arrays.sort(sorted, Comparator.comparing(File::getName));
+        List<PriceSeries> data = new ArrayList<>();
+        for (File file : sorted) {
+            try {
+                data.add(PriceStore.load(file.getName()));
+            } catch (IOException e) {
+                System.err.println("Error reading file " + file.getName() + ": " + e.getMessage());
+            }
+        }
+        return data;
+    }
+
+    /**
+     * Parameter columns of a ranking: the grid's order for one strategy, and every swept parameter
+     * in the order of DEFAULTS when several strategies are ranked together.
+     */
+    private static List<String> parameterNames(List<Result> results) {
+        Set<String> names = new LinkedHashSet<>();
+        for (Result result : results) names.addAll(result.parameters.keySet());
+        List<String> ordered = new ArrayList<>(names);
+        if (hasSeveralStrategies(results)) {
+            List<String> known = new ArrayList<>(DEFAULTS.keySet());
+            ordered.sort(Comparator.comparingInt(known::indexOf));
+        }
+        return ordered;
+    }
+
+    private static boolean hasSeveralStrategies(List<Result> results) {
+        for (Result result : results) {
+            if (!result.strategy.equals(results.get(0).strategy)) return true;
+        }
+        return false;
+    }
+
+    static int intParameter(Map<String, Double> parameters, String name) {
+        double value = parameters.get(name);
+        if (value != Math.rint(value) || value <= 0) {
+            throw new IllegalArgumentException(name + " must be a positive whole number: " + value);
+        }
+        return (int) value;
+    }
+
+    static String formatParameter(Double value) {
+        if (value == null) return "-"; // not a parameter of this result's strategy
+        // rounded so that steps like 0.1 + 0.2 print as 0.3
+        return new BigDecimal(value).round(new MathContext(10)).stripTrailingZeros().toPlainString();
+    }
+
+    /**
+     * Indicator columns of each ticker, computed on first use by any combination and then shared.
+     */
+    static final class SharedIndicators {
+        final List<PriceSeries> data;
+        private final List<Map<String, double[]>> columns = new ArrayList<>();
+        private final Map<String, FibBacktester.FibMatrix> fibonacci = new ConcurrentHashMap<>();
+        private Backtester.ReturnMatrix returns;
+
+        SharedIndicators(List<PriceSeries> data) {
+            this.data = data;
+            for (int t = 0; t < data.size(); t++) {
+                columns.add(new ConcurrentHashMap<>());
+            }
+        }
+
+        double[] sma(int t, int window) {
+            return column(t, "sma:" + window, () -> IndicatorCache.sma(data.get(t), window));
+        }
+
+        double[] ema(int t, int window) {
+            return column(t, "ema:" + window, () -> IndicatorCache.ema(data.get(t), window));
+        }
+
+        double[] rsi(int t, int window) {
+            return column(t, "rsi:" + window, () -> IndicatorCache.rsi(data.get(t), window));
+        }
+
+        double[] averageVolume(int t, int window) {
+            return column(t, "volume:" + window, () -> IndicatorCache.averageVolume(data.get(t), window));
+        }
+
+        /**
+         * Returns of all tickers on the shared date axis, merged once for every combination's positions.
+         */
+        synchronized Backtester.ReturnMatrix returns() {
+            if (returns == null) returns = Backtester.ReturnMatrix.returnsOf(data);
+            return returns;
+        }
+
+        /**
+         * Returns the levels of all tickers for the given periods, aligned once and then shared by every
+         * combination of the trading parameters.
+         */
+        FibBacktester.FibMatrix fibonacci(int period, int atrPeriod) {
+            return fibonacci.computeIfAbsent(period + ":" + atrPeriod, key -> {
+                List<PriceSeries> levels = new ArrayList<>(data.size());
+                for (PriceSeries series : data) {
+                    levels.add(series.withSignals(FibStrategy.levels(series, period, atrPeriod), null));
+                }
+                return FibBacktester.FibMatrix.of(levels);
+            });
+        }
+
+        private double[] column(int t, String key, Supplier<double[]> compute) {
+            return columns.get(t).computeIfAbsent(key, k -> compute.get());
+        }
+    }
+}
@@ -0,0 +1,106 @@
+package finance;
+
+// Running portfolio performance metrics, updated once per trading day in constant memory
+
+public class PerformanceStats {
+
+    private final double initialBalance;
+    private double finalBalance;
+    private double peakValue;
+    private double maxDrawdown;
+    private int days;
+    private double meanReturn;
+    private double squaredDeviations; // sum of squared deviations from the running mean
+    private int totalSignals;
+    private int correctSignals;
+
+    public PerformanceStats(double initialBalance) {
+        this.initialBalance = initialBalance;
+        this.finalBalance = initialBalance;
+        this.peakValue = initialBalance;
+    }
+
+    /**
+     * Adds one day's portfolio return.
+     */
+    public void addReturn(double dailyReturn) {
+        days++;
+        double delta = dailyReturn - meanReturn;
+        meanReturn += delta / days;
+        squaredDeviations += delta * (dailyReturn - meanReturn);
+    }
+
+    /**
+     * Tracks the drawdown of the given value from its running peak.
+     */
+    public void updateDrawdown(double value) {
+        peakValue = Math.max(peakValue, value);
+        maxDrawdown = Math.min(maxDrawdown, (value - peakValue) / peakValue);
+    }
+
+    public void addSignal(boolean correct) {
+        totalSignals++;
+        if (correct) correctSignals++;
+    }
+
+    /**
+     * Adds a day's signals at once, of which 'correct' moved in favour of the position.
+     */
+    public void addSignals(int signals, int correct) {
+        totalSignals += signals;
+        correctSignals += correct;
+    }
+
+    public void setFinalBalance(double finalBalance) {
+        this.finalBalance = finalBalance;
+    }
+
+    public double getInitialBalance() {
+        return initialBalance;
+    }
+
+    public double getFinalBalance() {
+        return finalBalance;
+    }
+
+    public double getTotalReturn() {
+        return (finalBalance - initialBalance) / initialBalance;
+    }
+
+    public double getAverageReturn() {
+        return days > 0 ? meanReturn : 0.0;
+    }
+
+    public double getVolatility() {
+        return Math.sqrt(squaredDeviations / days);
+    }
+
+    public double getSharpeRatio() {
+        double volatility = getVolatility();
+        return volatility > 0 ? getAverageReturn() / volatility * Math.sqrt(252) : 0.0;
+    }
+
+    public double getMaxDrawdown() {
+        return maxDrawdown;
+    }
+
+    public double getAccuracy() {
+        return totalSignals > 0 ? (double) correctSignals / totalSignals : 0.0;
+    }
+
+    public int getDays() {
+        return days;
+    }
+
+    public void print() {
+        System.out.println("\nPortfolio Performance Metrics:");
+        System.out.printf("Initial Balance: $%.2f%n", initialBalance);
+        System.out.printf("Final Balance: $%.2f%n", finalBalance);
+        System.out.printf("Total Return: %.2f%%%n", getTotalReturn() * 100);
+        System.out.printf("Average Daily Return: %.2f%%%n", getAverageReturn() * 100);
+        System.out.printf("Volatility: %.2f%%%n", getVolatility() * 100);
+        System.out.printf("Annualized Sharpe Ratio: %.2f%n", getSharpeRatio());
+        System.out.printf("Maximum Drawdown: %.2f%%%n", getMaxDrawdown() * 100);
+        System.out.printf("Signal Accuracy: %.2f%%%n", getAccuracy() * 100);
+    }
+}
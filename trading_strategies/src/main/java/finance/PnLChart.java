@@ -0,0 +1,208 @@
+package finance;
+
+import java.io.File;
+import java.io.IOException;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.jfree.chart.ChartFactory;
+import org.jfree.chart.ChartUtils;
+import org.jfree.chart.JFreeChart;
+import org.jfree.data.time.Day;
+import org.jfree.data.time.TimeSeries;
+import org.jfree.data.time.TimeSeriesCollection;
+
+// Time series charts of backtest results, such as the cumulative PnL with its drawdown and a benchmark.
+// Every series is downsampled to about one point per horizontal pixel with Largest-Triangle-Three-Buckets,
+// which keeps the peaks and troughs a line chart would show, so rendering does not grow with the history.
+// Charts are rendered on a background thread; awaitRendering waits for the pending ones.
+
+public class PnLChart {
+
+    private static final ThreadPoolExecutor RENDERER = new ThreadPoolExecutor(1, 1, 1, TimeUnit.SECONDS,
+            new LinkedBlockingQueue<>(), task -> new Thread(task, "chart-renderer"));
+    static {
+        RENDERER.allowCoreThreadTimeOut(true); // the idle thread ends, so it does not keep the JVM alive
+    }
+    private static final List<Future<?>> PENDING = new ArrayList<>();
+
+    private final String title;
+    private final String valueAxisLabel;
+    private final List<String> names = new ArrayList<>();
+    private final List<Curve> curves = new ArrayList<>();
+
+    public PnLChart(String title, String valueAxisLabel) {
+        this.title = title;
+        this.valueAxisLabel = valueAxisLabel;
+    }
+
+    /**
+     * Values by date, appended in date order.
+     */
+    public static final class Curve {
+        private long[] dates = new long[256]; // epoch days
+        private double[] values = new double[dates.length];
+        private int size;
+
+        /**
+         * Appends a value; NaN values, e.g. before a benchmark's first price, are left out.
+         */
+        public void add(long epochDay, double value) {
+            if (Double.isNaN(value)) return;
+            if (size == dates.length) {
+                dates = Arrays.copyOf(dates, 2 * size);
+                values = Arrays.copyOf(values, 2 * size);
+            }
+            dates[size] = epochDay;
+            values[size++] = value;
+        }
+
+        public int size() {
+            return size;
+        }
+
+        /**
+         * Returns the drawdown of a PnL curve: how far each value is below the highest value so far,
+         * counting the starting PnL of 0, in the same units.
+         */
+        public Curve drawdown() {
+            Curve drawdown = new Curve();
+            double peak = 0.0;
+            for (int i = 0; i < size; i++) {
+                peak = Math.max(peak, values[i]);
+                drawdown.add(dates[i], values[i] - peak);
+            }
+            return drawdown;
+        }
+    }
+
+    /**
+     * Adds a series to the chart.
+     */
+    public PnLChart add(String name, Curve curve) {
+        names.add(name);
+        curves.add(curve);
+        return this;
+    }
+
+    /**
+     * Renders the chart to a PNG file on the background thread, with each series downsampled to the
+     * chart's width in points.
+     */
+    public Future<?> saveAsync(File imageFile, int width, int height) {
+        Future<?> rendering = RENDERER.submit(() -> save(imageFile, width, height));
+        synchronized (PENDING) {
+            PENDING.add(rendering);
+        }
+        return rendering;
+    }
+
+    /**
+     * Renders the chart to a PNG file on the calling thread.
+     */
+    public void save(File imageFile, int width, int height) {
+        long start = System.nanoTime();
+        TimeSeriesCollection dataset = new TimeSeriesCollection();
+        for (int s = 0; s < curves.size(); s++) {
+            Curve curve = curves.get(s);
+            TimeSeries series = new TimeSeries(names.get(s));
+            for (int i : downsample(curve.dates, curve.values, curve.size, width)) {
+                LocalDate date = LocalDate.ofEpochDay(curve.dates[i]);
+                series.add(new Day(date.getDayOfMonth(), date.getMonthValue(), date.getYear()), curve.values[i], false);
+            }
+            dataset.addSeries(series);
+        }
+
+        JFreeChart chart = ChartFactory.createTimeSeriesChart(title, "Date", valueAxisLabel, dataset,
+                curves.size() > 1, false, false);
+        try {
+            ChartUtils.saveChartAsPNG(imageFile, chart, width, height);
+            System.out.println("Cumulative PnL chart saved as " + imageFile.getPath());
+        } catch (IOException e) {
+            System.err.println("Error saving cumulative PnL chart: " + e.getMessage());
+        } finally {
+            Metrics.stopTimer("chart", start);
+        }
+    }
+
+    /**
+     * Waits until the charts submitted so far have been saved.
+     */
+    public static void awaitRendering() {
+        List<Future<?>> pending;
+        synchronized (PENDING) {
+            pending = new ArrayList<>(PENDING);
+            PENDING.clear();
+        }
+        for (Future<?> rendering : pending) {
+            try {
+                rendering.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (ExecutionException e) {
+                System.err.println("Error rendering chart: " + e.getCause());
+            }
+        }
+    }
+
+    /**
+     * Picks at most threshold of the first size points with Largest-Triangle-Three-Buckets: the first and
+     * last points are kept, and from each of the equal buckets in between the point forming the largest
+     * triangle with the point picked before it and the average of the next bucket. Returns their indices.
+     */
+    static int[] downsample(long[] x, double[] y, int size, int threshold) {
+        if (threshold >= size || threshold < 3) {
+            int[] all = new int[size];
+            for (int i = 0; i < size; i++) all[i] = i;
+            return all;
+        }
+
+        int[] sampled = new int[threshold];
+        int count = 0;
+        double bucketSize = (double) (size - 2) / (threshold - 2);
+        int previous = 0;
+        sampled[count++] = previous;
+
+        for (int bucket = 0; bucket < threshold - 2; bucket++) {
+            // average of the next bucket, or the last point for the last bucket
+            int nextStart = (int) ((bucket + 1) * bucketSize) + 1;
+            int nextEnd = Math.min((int) ((bucket + 2) * bucketSize) + 1, size);
+            double averageX = 0.0;
+            double averageY = 0.0;
+            for (int i = nextStart; i < nextEnd; i++) {
+                averageX += x[i];
+                averageY += y[i];
+            }
+            averageX /= nextEnd - nextStart;
+            averageY /= nextEnd - nextStart;
+
+            int start = (int) (bucket * bucketSize) + 1;
+            int end = (int) ((bucket + 1) * bucketSize) + 1;
+            double previousX = x[previous];
+            double previousY = y[previous];
+            double largestArea = -1.0;
+            int picked = start;
+            for (int i = start; i < end; i++) {
+                // twice the triangle's area; the factor does not change which is largest
+                double area = Math.abs((previousX - averageX) * (y[i] - previousY) - (previousX - x[i]) * (averageY - previousY));
+                if (area > largestArea) {
+                    largestArea = area;
+                    picked = i;
+                }
+            }
+            sampled[count++] = picked;
+            previous = picked;
+        }
+
+        sampled[count] = size - 1;
+        return sampled;
+    }
+}
@@ -0,0 +1,74 @@
+package finance;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+import java.util.TreeMap;
+
+// Date x ticker matrix of byte-coded positions, accumulated in memory and written to portfolio.csv once
+
+public class PositionMatrix {
+
+    private static final String DATA_FOLDER = "data/";
+    private static final String PORTFOLIO_FILE = DATA_FOLDER + "portfolio.csv";
+
+    private static final Map<String, PriceSeries> SERIES = new TreeMap<>(); // ticker -> series for its dates
+    private static final Map<String, byte[]> POSITIONS = new TreeMap<>(); // ticker -> position per series row
+
+    /**
+     * Records the positions of one ticker, replacing any positions merged for it before.
+     * Safe to call from several strategy threads at once.
+     */
+    public static synchronized void merge(PriceSeries series, byte[] positions) {
+        if (positions.length != series.size()) {
+            throw new IllegalArgumentException("Expected " + series.size() + " positions for " + series.ticker
+                    + " but got " + positions.length);
+        }
+        SERIES.put(series.ticker, series);
+        POSITIONS.put(series.ticker, positions);
+    }
+
+    /**
+     * Writes all merged positions to the shared portfolio file, with tickers as columns and dates as rows.
+     */
+    public static synchronized void flush() {
+        if (SERIES.isEmpty()) return;
+
+        // one merge gives both the date axis and where each ticker's rows fall on it
+        TradingCalendar calendar = TradingCalendar.of(SERIES.values());
+        long[] dates = calendar.dates();
+        byte[][] matrix = new byte[dates.length][SERIES.size()];
+        int column = 0;
+        for (byte[] positions : POSITIONS.values()) {
+            int[] offsets = calendar.offsets(column);
+            for (int i = 0; i < positions.length; i++) matrix[offsets[i]][column] = positions[i];
+            column++;
+        }
+        PriceSeries dateFormat = SERIES.values().iterator().next();
+
+        try (CsvWriter writer = new CsvWriter(Files.newBufferedWriter(Paths.get(PORTFOLIO_FILE), StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING))) {
+            writer.writeLine("Date," + String.join(",", SERIES.keySet()));
+
+            boolean dayFirst = dateFormat.isDayFirst();
+            for (int i = 0; i < dates.length; i++) {
+                writer.date(dates[i], dayFirst);
+                for (byte position : matrix[i]) {
+                    writer.field(PriceSeries.positionName(position));
+                }
+                writer.endRow();
+            }
+        } catch (IOException e) {
+            System.err.println("Error saving portfolio info: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Drops all merged positions, e.g. before running the next strategy.
+     */
+    public static synchronized void clear() {
+        SERIES.clear();
+        POSITIONS.clear();
+    }
+}
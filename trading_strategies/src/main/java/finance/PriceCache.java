@@ -0,0 +1,278 @@
+package finance;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.LongBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+// Binary columnar cache of price series, read back through a memory-mapped file.
+//
+// Layout (little-endian):
+//   header:  magic int, version int, ticker count int, reserved int
+//   index:   per ticker - name length short, UTF-8 name, date layout byte, rows int,
+//            first date long, last date long, data offset long
+//   data:    per ticker, 8-byte aligned - dates long[rows], then open, high, low, close,
+//            adjusted close, volume and returns as double[rows] each
+
+public class PriceCache {
+
+    public static final String FILE_NAME = "Prices.bin";
+    private static final int MAGIC = 0x50524353; // "PRCS"
+    private static final int VERSION = 1;
+    private static final int HEADER_BYTES = 16;
+    private static final int PRICE_COLUMNS = 7;
+
+    /**
+     * Writes the base price columns of the given series to a cache file, replacing it atomically.
+     */
+    public static void write(Path cacheFile, Collection<PriceSeries> seriesList) throws IOException {
+        byte[][] names = new byte[seriesList.size()][];
+        int indexBytes = 0;
+        int t = 0;
+        for (PriceSeries series : seriesList) {
+            names[t] = series.ticker.getBytes(StandardCharsets.UTF_8);
+            indexBytes += 2 + names[t].length + 1 + 4 + 8 + 8 + 8;
+            t++;
+        }
+
+        ByteBuffer index = ByteBuffer.allocate(HEADER_BYTES + indexBytes).order(ByteOrder.LITTLE_ENDIAN);
+        index.putInt(MAGIC).putInt(VERSION).putInt(seriesList.size()).putInt(0);
+        long offset = align(HEADER_BYTES + indexBytes);
+        t = 0;
+        for (PriceSeries series : seriesList) {
+            int rows = series.size();
+            index.putShort((short) names[t].length).put(names[t]);
+            index.put((byte) (series.isDayFirst() ? 1 : 0));
+            index.putInt(rows);
+            index.putLong(rows > 0 ? series.dates[0] : 0L);
+            index.putLong(rows > 0 ? series.dates[rows - 1] : 0L);
+            index.putLong(offset);
+            offset += (long) rows * 8 * (PRICE_COLUMNS + 1);
+            t++;
+        }
+        index.flip();
+
+        Path tempFile = cacheFile.resolveSibling(cacheFile.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(tempFile, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            channel.write(index);
+            channel.position(align(HEADER_BYTES + indexBytes));
+            for (PriceSeries series : seriesList) {
+                ByteBuffer block = ByteBuffer.allocate(blockBytes(series.size()));
+                putBlock(block, series);
+                while (block.hasRemaining()) channel.write(block);
+            }
+        }
+        Files.move(tempFile, cacheFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Reads every series in the cache file, in the order they were written.
+     */
+    public static Map<String, PriceSeries> read(Path cacheFile) throws IOException {
+        Map<String, PriceSeries> result = new LinkedHashMap<>();
+        try (FileChannel channel = FileChannel.open(cacheFile, StandardOpenOption.READ)) {
+            for (IndexEntry entry : readIndex(channel)) {
+                result.put(entry.ticker, readSeries(mapBlock(channel, entry), entry, 0, entry.rows));
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Reads one ticker restricted to the dates in [fromEpochDay, toEpochDay], or returns null if the cache
+     * does not hold the ticker. Only the requested rows are copied out of the mapped file.
+     */
+    public static PriceSeries read(Path cacheFile, String ticker, long fromEpochDay, long toEpochDay) throws IOException {
+        try (FileChannel channel = FileChannel.open(cacheFile, StandardOpenOption.READ)) {
+            for (IndexEntry entry : readIndex(channel)) {
+                if (!entry.ticker.equals(ticker)) continue;
+                if (entry.rows == 0 || toEpochDay < entry.firstDate || fromEpochDay > entry.lastDate) {
+                    return readSeries(ByteBuffer.allocate(0), entry, 0, 0);
+                }
+                ByteBuffer block = mapBlock(channel, entry);
+                LongBuffer dates = slice(block, 0).asLongBuffer();
+                int from = lowerBound(dates, entry.rows, fromEpochDay);
+                int to = lowerBound(dates, entry.rows, toEpochDay + 1);
+                return readSeries(block, entry, from, to);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Maps every ticker's data block of the cache file for an OffHeapUniverse. Each block is mapped on its
+     * own, so the file may be larger than a single mapping allows; nothing is read until it is accessed.
+     */
+    static OffHeapUniverse mapUniverse(Path cacheFile) throws IOException {
+        try (FileChannel channel = FileChannel.open(cacheFile, StandardOpenOption.READ)) {
+            IndexEntry[] entries = readIndex(channel);
+            String[] tickers = new String[entries.length];
+            boolean[] dayFirst = new boolean[entries.length];
+            ByteBuffer[] blocks = new ByteBuffer[entries.length];
+            for (int t = 0; t < entries.length; t++) {
+                IndexEntry entry = entries[t];
+                tickers[t] = entry.ticker;
+                dayFirst[t] = entry.dayFirst;
+                blocks[t] = mapBlock(channel, entry);
+            }
+            return new OffHeapUniverse(tickers, dayFirst, blocks); // mappings stay valid after the channel closes
+        }
+    }
+
+    /**
+     * Checks whether the cache file exists, holds exactly the given tickers and is newer than their CSV files.
+     */
+    public static boolean isUpToDate(Path cacheFile, File[] csvFiles) {
+        if (!Files.exists(cacheFile)) return false;
+        long cacheModified = cacheFile.toFile().lastModified();
+        try (FileChannel channel = FileChannel.open(cacheFile, StandardOpenOption.READ)) {
+            IndexEntry[] entries = readIndex(channel);
+            if (entries.length != csvFiles.length) return false;
+            Set<String> tickers = new HashSet<>();
+            for (IndexEntry entry : entries) tickers.add(entry.ticker);
+            for (File csvFile : csvFiles) {
+                if (!tickers.contains(PriceStore.tickerOf(csvFile.getName()))) return false;
+                if (csvFile.lastModified() > cacheModified) return false;
+            }
+            return true;
+        } catch (IOException | RuntimeException e) {
+            return false; // unreadable or outdated cache files are simply rebuilt
+        }
+    }
+
+    /**
+     * Reads the header and index, which come first in the file, from a mapping of at most 2 GB; a single
+     * mapping cannot be larger, and the data blocks are mapped one by one.
+     */
+    private static IndexEntry[] readIndex(FileChannel channel) throws IOException {
+        long size = Math.min(channel.size(), Integer.MAX_VALUE);
+        MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+        if (buffer.remaining() < HEADER_BYTES || buffer.getInt(0) != MAGIC) {
+            throw new IOException("Not a price cache file");
+        }
+        if (buffer.getInt(4) != VERSION) {
+            throw new IOException("Unsupported price cache version " + buffer.getInt(4));
+        }
+        return readIndex(buffer);
+    }
+
+    /**
+     * Maps a ticker's data block on its own. The mapping stays valid after the channel is closed.
+     */
+    private static MappedByteBuffer mapBlock(FileChannel channel, IndexEntry entry) throws IOException {
+        MappedByteBuffer block = channel.map(FileChannel.MapMode.READ_ONLY, entry.offset, blockBytes(entry.rows));
+        block.order(ByteOrder.LITTLE_ENDIAN);
+        return block;
+    }
+
+    private static IndexEntry[] readIndex(ByteBuffer buffer) {
+        ByteBuffer index = buffer.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        index.position(HEADER_BYTES);
+        IndexEntry[] entries = new IndexEntry[buffer.getInt(8)];
+        for (int t = 0; t < entries.length; t++) {
+            byte[] name = new byte[index.getShort()];
+            index.get(name);
+            IndexEntry entry = new IndexEntry();
+            entry.ticker = new String(name, StandardCharsets.UTF_8);
+            entry.dayFirst = index.get() == 1;
+            entry.rows = index.getInt();
+            entry.firstDate = index.getLong();
+            entry.lastDate = index.getLong();
+            entry.offset = index.getLong();
+            entries[t] = entry;
+        }
+        return entries;
+    }
+
+    /**
+     * Copies rows [from, to) out of the ticker's data block.
+     */
+    private static PriceSeries readSeries(ByteBuffer block, IndexEntry entry, int from, int to) {
+        int rows = to - from;
+        long[] dates = new long[rows];
+        double[][] columns = new double[PRICE_COLUMNS][rows];
+        if (rows > 0) {
+            slice(block, from * 8).asLongBuffer().get(dates);
+            for (int c = 0; c < PRICE_COLUMNS; c++) {
+                slice(block, (entry.rows * (c + 1) + from) * 8).asDoubleBuffer().get(columns[c]);
+            }
+        }
+        return new PriceSeries(entry.ticker, dates, columns[0], columns[1], columns[2], columns[3],
+                columns[4], columns[5], columns[6], entry.dayFirst);
+    }
+
+    private static ByteBuffer slice(ByteBuffer block, int offset) {
+        ByteBuffer view = block.duplicate();
+        view.position(offset);
+        return view.slice().order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    /**
+     * Returns the first row whose date is not before the given epoch day.
+     */
+    private static int lowerBound(LongBuffer dates, int rows, long epochDay) {
+        int low = 0;
+        int high = rows;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (dates.get(middle) < epochDay) low = middle + 1;
+            else high = middle;
+        }
+        return low;
+    }
+
+    /**
+     * Size of a ticker's data block: the dates and the price columns.
+     */
+    static int blockBytes(int rows) {
+        return Math.toIntExact((long) rows * 8 * (PRICE_COLUMNS + 1));
+    }
+
+    /**
+     * Fills an empty buffer of blockBytes(rows) with the series' data block in the cache layout, leaving it
+     * flipped for reading.
+     */
+    static void putBlock(ByteBuffer block, PriceSeries series) {
+        block.order(ByteOrder.LITTLE_ENDIAN);
+        block.asLongBuffer().put(series.dates);
+        block.position(series.size() * 8);
+        for (double[] column : columnsOf(series)) {
+            block.asDoubleBuffer().put(column);
+            block.position(block.position() + column.length * 8);
+        }
+        block.flip();
+    }
+
+    private static double[][] columnsOf(PriceSeries series) {
+        return new double[][] {series.open, series.high, series.low, series.close,
+                               series.adjClose, series.volume, series.returns};
+    }
+
+    private static long align(long offset) {
+        return (offset + 7) & ~7L;
+    }
+
+    private static class IndexEntry {
+        String ticker;
+        boolean dayFirst;
+        int rows;
+        long firstDate;
+        long lastDate;
+        long offset;
+    }
+}
@@ -0,0 +1,413 @@
+package finance;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ForkJoinPool;
+
+// Database store for bars, strategy positions and backtest results, next to the CSV files, through JDBC.
+// Rows are written in batches of prepared statements, one transaction per ticker, on a small pool of
+// connections; with MySQL the driver rewrites each batch into multi-row INSERTs. Bars and positions are
+// keyed by ticker and date, so date ranges are read back through the primary key. The SQL is plain enough
+// to run on a local stand-in such as H2 in MySQL mode for testing.
+
+public class PriceDatabase implements AutoCloseable {
+
+    private static final int BATCH_SIZE = 1000; // rows per executeBatch
+
+    private static final String[] SCHEMA = {
+        "CREATE TABLE IF NOT EXISTS bars ("
+            + "ticker VARCHAR(32) NOT NULL, trade_date DATE NOT NULL, "
+            + "open_price DOUBLE NOT NULL, high_price DOUBLE NOT NULL, low_price DOUBLE NOT NULL, "
+            + "close_price DOUBLE NOT NULL, adj_close DOUBLE NOT NULL, volume DOUBLE NOT NULL, "
+            + "daily_return DOUBLE, " // NULL on a ticker's first row
+            + "PRIMARY KEY (ticker, trade_date))",
+        "CREATE TABLE IF NOT EXISTS positions ("
+            + "strategy VARCHAR(32) NOT NULL, ticker VARCHAR(32) NOT NULL, trade_date DATE NOT NULL, "
+            + "position TINYINT NOT NULL, "
+            + "PRIMARY KEY (strategy, ticker, trade_date))",
+        "CREATE TABLE IF NOT EXISTS backtest_results ("
+            + "id BIGINT NOT NULL AUTO_INCREMENT, run_at TIMESTAMP NOT NULL, strategy VARCHAR(32) NOT NULL, "
+            + "parameters VARCHAR(1024) NOT NULL, sharpe_ratio DOUBLE, total_return DOUBLE, " // NULL where NaN
+            + "max_drawdown DOUBLE, average_return DOUBLE, volatility DOUBLE, "
+            + "signal_accuracy DOUBLE, final_balance DOUBLE, days INT NOT NULL, "
+            + "PRIMARY KEY (id))"
+    };
+
+    private final String url;
+    private final String user;
+    private final String password;
+    private final BlockingQueue<Connection> idle;
+    private final int poolSize;
+    private int opened;
+    private boolean closed;
+
+    private PriceDatabase(String url, String user, String password, int poolSize) {
+        this.url = url;
+        this.user = user;
+        this.password = password;
+        this.poolSize = poolSize;
+        this.idle = new ArrayBlockingQueue<>(poolSize);
+    }
+
+    /**
+     * Connects to the database and creates the tables it lacks. Up to poolSize connections are opened,
+     * as the writes need them. For MySQL, batch rewriting is enabled unless the URL sets it.
+     */
+    public static PriceDatabase open(String url, String user, String password, int poolSize) throws SQLException {
+        if (url.startsWith("jdbc:mysql:") && !url.contains("rewriteBatchedStatements")) {
+            url += (url.contains("?") ? "&" : "?") + "rewriteBatchedStatements=true";
+        }
+        PriceDatabase database = new PriceDatabase(url, user, password, Math.max(1, poolSize));
+        database.inTransaction(connection -> {
+            try (Statement statement = connection.createStatement()) {
+                for (String table : SCHEMA) statement.execute(table);
+            }
+            return null;
+        });
+        return database;
+    }
+
+    /**
+     * Stores the bars of every series, replacing the stored bars within each series' date range.
+     * Tickers are written in parallel, one connection each.
+     */
+    public void saveBars(List<PriceSeries> data) throws SQLException {
+        forEach(data, this::saveBars);
+    }
+
+    public void saveBars(PriceSeries series) throws SQLException {
+        if (series.size() == 0) return;
+        long start = System.nanoTime();
+        inTransaction(connection -> {
+            delete(connection, "DELETE FROM bars WHERE ticker = ? AND trade_date BETWEEN ? AND ?", null, series);
+            try (PreparedStatement insert = connection.prepareStatement("INSERT INTO bars (ticker, trade_date, "
+                    + "open_price, high_price, low_price, close_price, adj_close, volume, daily_return) "
+                    + "VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?)")) {
+                for (int i = 0; i < series.size(); i++) {
+                    insert.setString(1, series.ticker);
+                    insert.setObject(2, LocalDate.ofEpochDay(series.dates[i]));
+                    insert.setDouble(3, series.open[i]);
+                    insert.setDouble(4, series.high[i]);
+                    insert.setDouble(5, series.low[i]);
+                    insert.setDouble(6, series.close[i]);
+                    insert.setDouble(7, series.adjClose[i]);
+                    insert.setDouble(8, series.volume[i]);
+                    setValue(insert, 9, series.returns[i]);
+                    addBatch(insert, i, series.size());
+                }
+            }
+            return null;
+        });
+        Metrics.stopTimer("db.bars", start);
+        Metrics.add("db.rows", series.size());
+    }
+
+    /**
+     * Stores the positions a strategy took on every series, replacing its stored positions within each
+     * series' date range. Series without positions are skipped.
+     */
+    public void savePositions(String strategy, List<PriceSeries> data) throws SQLException {
+        forEach(data, series -> savePositions(strategy, series));
+    }
+
+    public void savePositions(String strategy, PriceSeries series) throws SQLException {
+        if (series.positions == null || series.size() == 0) return;
+        long start = System.nanoTime();
+        inTransaction(connection -> {
+            delete(connection, "DELETE FROM positions WHERE strategy = ? AND ticker = ? AND trade_date BETWEEN ? AND ?",
+                    strategy, series);
+            try (PreparedStatement insert = connection.prepareStatement(
+                    "INSERT INTO positions (strategy, ticker, trade_date, position) VALUES (?, ?, ?, ?)")) {
+                for (int i = 0; i < series.size(); i++) {
+                    insert.setString(1, strategy);
+                    insert.setString(2, series.ticker);
+                    insert.setObject(3, LocalDate.ofEpochDay(series.dates[i]));
+                    insert.setByte(4, series.positions[i]);
+                    addBatch(insert, i, series.size());
+                }
+            }
+            return null;
+        });
+        Metrics.stopTimer("db.positions", start);
+        Metrics.add("db.rows", series.size());
+    }
+
+    /**
+     * Stores the metrics of backtests, e.g. a parameter sweep's results, in one batch.
+     */
+    public void saveResults(List<ParameterSweep.Result> results) throws SQLException {
+        long start = System.nanoTime();
+        Timestamp runAt = new Timestamp(System.currentTimeMillis());
+        inTransaction(connection -> {
+            try (PreparedStatement insert = connection.prepareStatement("INSERT INTO backtest_results (run_at, "
+                    + "strategy, parameters, sharpe_ratio, total_return, max_drawdown, average_return, volatility, "
+                    + "signal_accuracy, final_balance, days) VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)")) {
+                for (int i = 0; i < results.size(); i++) {
+                    ParameterSweep.Result result = results.get(i);
+                    PerformanceStats stats = result.stats;
+                    insert.setTimestamp(1, runAt);
+                    insert.setString(2, result.strategy);
+                    insert.setString(3, formatParameters(result.parameters));
+                    setValue(insert, 4, stats.getSharpeRatio());
+                    setValue(insert, 5, stats.getTotalReturn());
+                    setValue(insert, 6, stats.getMaxDrawdown());
+                    setValue(insert, 7, stats.getAverageReturn());
+                    setValue(insert, 8, stats.getVolatility());
+                    setValue(insert, 9, stats.getAccuracy());
+                    setValue(insert, 10, stats.getFinalBalance());
+                    insert.setInt(11, stats.getDays());
+                    addBatch(insert, i, results.size());
+                }
+            }
+            return null;
+        });
+        Metrics.stopTimer("db.results", start);
+        Metrics.add("db.rows", results.size());
+    }
+
+    public void saveResult(String strategy, Map<String, Double> parameters, PerformanceStats stats) throws SQLException {
+        saveResults(Collections.singletonList(new ParameterSweep.Result(strategy, parameters, stats)));
+    }
+
+    /**
+     * Returns the tickers with stored bars, in order.
+     */
+    public List<String> tickers() throws SQLException {
+        return inTransaction(connection -> {
+            List<String> tickers = new ArrayList<>();
+            try (Statement statement = connection.createStatement();
+                 ResultSet rows = statement.executeQuery("SELECT DISTINCT ticker FROM bars ORDER BY ticker")) {
+                while (rows.next()) tickers.add(rows.getString(1));
+            }
+            return tickers;
+        });
+    }
+
+    /**
+     * Reads a ticker's bars from 'from' to 'to', both inclusive.
+     */
+    public PriceSeries loadBars(String ticker, LocalDate from, LocalDate to) throws SQLException {
+        return load(ticker, null, from, to);
+    }
+
+    /**
+     * Reads a ticker's bars from 'from' to 'to', both inclusive, carrying the strategy's stored positions,
+     * neutral on dates it has none for.
+     */
+    public PriceSeries loadPositions(String strategy, String ticker, LocalDate from, LocalDate to) throws SQLException {
+        return load(ticker, strategy, from, to);
+    }
+
+    private PriceSeries load(String ticker, String strategy, LocalDate from, LocalDate to) throws SQLException {
+        String sql = "SELECT b.trade_date, b.open_price, b.high_price, b.low_price, b.close_price, b.adj_close, "
+                + "b.volume, b.daily_return" + (strategy != null ? ", p.position" : "") + " FROM bars b"
+                + (strategy != null ? " LEFT JOIN positions p ON p.strategy = ? AND p.ticker = b.ticker"
+                        + " AND p.trade_date = b.trade_date" : "")
+                + " WHERE b.ticker = ? AND b.trade_date BETWEEN ? AND ? ORDER BY b.trade_date";
+        return inTransaction(connection -> {
+            try (PreparedStatement query = connection.prepareStatement(sql)) {
+                int parameter = 1;
+                if (strategy != null) query.setString(parameter++, strategy);
+                query.setString(parameter++, ticker);
+                query.setObject(parameter++, from);
+                query.setObject(parameter, to);
+                try (ResultSet rows = query.executeQuery()) {
+                    return read(ticker, rows, strategy != null);
+                }
+            }
+        });
+    }
+
+    private static PriceSeries read(String ticker, ResultSet rows, boolean withPositions) throws SQLException {
+        int capacity = 256;
+        long[] dates = new long[capacity];
+        double[][] prices = new double[7][capacity]; // open, high, low, close, adjClose, volume, returns
+        byte[] positions = new byte[capacity];
+        int size = 0;
+        while (rows.next()) {
+            if (size == capacity) {
+                capacity *= 2;
+                dates = Arrays.copyOf(dates, capacity);
+                for (int c = 0; c < prices.length; c++) prices[c] = Arrays.copyOf(prices[c], capacity);
+                positions = Arrays.copyOf(positions, capacity);
+            }
+            dates[size] = rows.getObject(1, LocalDate.class).toEpochDay();
+            for (int c = 0; c < prices.length; c++) {
+                double value = rows.getDouble(c + 2);
+                prices[c][size] = rows.wasNull() ? Double.NaN : value;
+            }
+            if (withPositions) positions[size] = rows.getByte(9); // 0, neutral, when there is no position row
+            size++;
+        }
+        for (int c = 0; c < prices.length; c++) prices[c] = Arrays.copyOf(prices[c], size);
+        PriceSeries series = new PriceSeries(ticker, Arrays.copyOf(dates, size), prices[0], prices[1], prices[2],
+                prices[3], prices[4], prices[5], prices[6], false);
+        return withPositions ? series.withSignals(Collections.emptyMap(), Arrays.copyOf(positions, size)) : series;
+    }
+
+    /**
+     * Closes the pooled connections; connections in use are closed when they are given back.
+     */
+    @Override
+    public void close() throws SQLException {
+        synchronized (this) {
+            closed = true;
+        }
+        SQLException failure = null;
+        Connection connection;
+        while ((connection = idle.poll()) != null) {
+            try {
+                connection.close();
+            } catch (SQLException e) {
+                failure = e;
+            }
+        }
+        if (failure != null) throw failure;
+    }
+
+    // Deletes the rows of the series' date range, for the strategy unless null
+    private static void delete(Connection connection, String sql, String strategy, PriceSeries series) throws SQLException {
+        try (PreparedStatement delete = connection.prepareStatement(sql)) {
+            int parameter = 1;
+            if (strategy != null) delete.setString(parameter++, strategy);
+            delete.setString(parameter++, series.ticker);
+            delete.setObject(parameter++, LocalDate.ofEpochDay(series.dates[0]));
+            delete.setObject(parameter, LocalDate.ofEpochDay(series.dates[series.size() - 1]));
+            delete.executeUpdate();
+        }
+    }
+
+    // Stores NaN as NULL, which MySQL requires
+    private static void setValue(PreparedStatement statement, int parameter, double value) throws SQLException {
+        if (Double.isNaN(value)) statement.setNull(parameter, Types.DOUBLE);
+        else statement.setDouble(parameter, value);
+    }
+
+    // Adds the current row and sends the batch when it is full or the last row was added
+    private static void addBatch(PreparedStatement insert, int row, int rows) throws SQLException {
+        insert.addBatch();
+        if ((row + 1) % BATCH_SIZE == 0 || row == rows - 1) insert.executeBatch();
+    }
+
+    private static String formatParameters(Map<String, Double> parameters) {
+        // in the grid syntax, e.g. "shortWindow=5;longWindow=20"
+        StringBuilder formatted = new StringBuilder();
+        for (Map.Entry<String, Double> parameter : parameters.entrySet()) {
+            if (formatted.length() > 0) formatted.append(';');
+            formatted.append(parameter.getKey()).append('=').append(ParameterSweep.formatParameter(parameter.getValue()));
+        }
+        return formatted.toString();
+    }
+
+    /**
+     * Work on a pooled connection.
+     */
+    private interface SqlWork<T> {
+        T run(Connection connection) throws SQLException;
+    }
+
+    private interface SeriesWork {
+        void run(PriceSeries series) throws SQLException;
+    }
+
+    // Runs the work for every series on as many threads as there are pooled connections
+    private void forEach(List<PriceSeries> data, SeriesWork work) throws SQLException {
+        ForkJoinPool pool = new ForkJoinPool(poolSize);
+        try {
+            pool.submit(() -> data.parallelStream().forEach(series -> {
+                try {
+                    work.run(series);
+                } catch (SQLException e) {
+                    throw new IllegalStateException(e);
+                }
+            })).join();
+        } catch (RuntimeException e) {
+            // join may rethrow a copy of the worker's exception, with the original as its cause
+            for (Throwable cause = e; cause != null; cause = cause.getCause()) {
+                if (cause instanceof SQLException) throw (SQLException) cause;
+            }
+            throw e;
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    /**
+     * Runs the work in one transaction on a pooled connection, rolling back if it fails.
+     */
+    private <T> T inTransaction(SqlWork<T> work) throws SQLException {
+        Connection connection = acquire();
+        boolean reusable = false;
+        try {
+            T result = work.run(connection);
+            connection.commit();
+            reusable = true;
+            return result;
+        } catch (SQLException | RuntimeException e) {
+            Metrics.increment("db.errors");
+            try {
+                connection.rollback();
+                reusable = true;
+            } catch (SQLException rollbackFailure) {
+                e.addSuppressed(rollbackFailure);
+            }
+            throw e;
+        } finally {
+            release(connection, reusable);
+        }
+    }
+
+    private Connection acquire() throws SQLException {
+        Connection connection = idle.poll();
+        if (connection != null) return connection;
+        synchronized (this) {
+            if (closed) throw new SQLException("Database closed");
+            if (opened < poolSize) {
+                opened++;
+                try {
+                    connection = DriverManager.getConnection(url, user, password);
+                    connection.setAutoCommit(false);
+                    return connection;
+                } catch (SQLException e) {
+                    opened--;
+                    throw e;
+                }
+            }
+        }
+        try {
+            return idle.take();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted waiting for a connection", e);
+        }
+    }
+
+    private void release(Connection connection, boolean reusable) {
+        synchronized (this) {
+            if (reusable && !closed) {
+                idle.offer(connection);
+                return;
+            }
+            opened--;
+        }
+        try {
+            connection.close();
+        } catch (SQLException e) {
+            // the connection is dropped either way
+        }
+    }
+}
@@ -0,0 +1,412 @@
+package finance;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.StringReader;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+// Columnar price history of a single ticker, backed by primitive arrays
+
+public class PriceSeries {
+
+    public static final String HEADER = "Date,Open Price,High Price,Low Price,Close Price,Adjusted Close,Volume,Returns";
+    private static final int BASE_COLUMNS = HEADER.split(",").length;
+
+    public static final byte LONG = 1;
+    public static final byte NEUTRAL = 0;
+    public static final byte SHORT = -1;
+
+    public final String ticker;
+    public final long[] dates; // epoch days
+    public final double[] open;
+    public final double[] high;
+    public final double[] low;
+    public final double[] close;
+    public final double[] adjClose;
+    public final double[] volume;
+    public final double[] returns; // NaN where the returns value is NULL
+    public final byte[] positions; // null until a strategy has been applied
+    private final Map<String, double[]> columns; // strategy indicator columns by header name
+    private final boolean dayFirst; // dates are written as dd-MM-yyyy rather than yyyy-MM-dd
+    private volatile long checksum; // of the dates and prices, 0 until first computed
+    private long prefixChecksum;    // of the series this one was appended to, 0 if it was not
+    private int prefixRows;
+
+    public PriceSeries(String ticker, long[] dates, double[] open, double[] high, double[] low, double[] close,
+                       double[] adjClose, double[] volume, double[] returns, boolean dayFirst) {
+        this(ticker, dates, open, high, low, close, adjClose, volume, returns, null,
+             Collections.<String, double[]>emptyMap(), dayFirst);
+    }
+
+    private PriceSeries(String ticker, long[] dates, double[] open, double[] high, double[] low, double[] close,
+                        double[] adjClose, double[] volume, double[] returns, byte[] positions,
+                        Map<String, double[]> columns, boolean dayFirst) {
+        this.ticker = ticker;
+        this.dates = dates;
+        this.open = open;
+        this.high = high;
+        this.low = low;
+        this.close = close;
+        this.adjClose = adjClose;
+        this.volume = volume;
+        this.returns = returns;
+        this.positions = positions;
+        this.columns = columns;
+        this.dayFirst = dayFirst;
+    }
+
+    /**
+     * Loads a raw or processed CSV file into primitive columns. Columns beyond the base price layout
+     * are kept as strategy indicator columns, with the "Position" column decoded into byte positions.
+     */
+    public static PriceSeries load(String ticker, Path filePath) throws IOException {
+        try (CsvReader reader = new CsvReader(Files.newBufferedReader(filePath))) {
+            return parse(ticker, reader);
+        }
+    }
+
+    /**
+     * Loads only the rows of a CSV file dated after the given epoch day. The file is read backwards from
+     * its end, so the cost is proportional to the number of new rows rather than to the whole history.
+     */
+    public static PriceSeries loadTail(String ticker, Path filePath, long afterEpochDay) throws IOException {
+        String header;
+        try (BufferedReader reader = Files.newBufferedReader(filePath)) {
+            header = reader.readLine();
+            if (header == null) throw new IOException("Empty CSV file");
+        }
+        List<String> lines = new ArrayList<>();
+        for (String line : readLinesBackwards(filePath)) {
+            if (line.equals(header)) break;
+            if (parseDate(line.substring(0, line.indexOf(','))) <= afterEpochDay) break;
+            lines.add(line);
+        }
+        Collections.reverse(lines);
+        try (CsvReader reader = new CsvReader(new StringReader(header + '\n' + String.join("\n", lines)))) {
+            return parse(ticker, reader);
+        }
+    }
+
+    /**
+     * Returns the date of the last row of a CSV file as an epoch day, or null if it has no rows.
+     */
+    public static Long readLastDate(Path filePath) throws IOException {
+        for (String line : readLinesBackwards(filePath)) {
+            int comma = line.indexOf(',');
+            if (comma <= 0) return null;
+            String date = line.substring(0, comma);
+            return "Date".equals(date) ? null : parseDate(date);
+        }
+        return null;
+    }
+
+    /**
+     * Returns the non-empty lines of a file from last to first, reading it in chunks from the end.
+     */
+    private static Iterable<String> readLinesBackwards(Path filePath) {
+        return () -> new Iterator<String>() {
+            private static final int CHUNK = 64 * 1024;
+            private RandomAccessFile file;
+            private long position = -1;
+            private byte[] pending = new byte[0]; // start of the file not yet split into lines
+            private final Deque<String> lines = new ArrayDeque<>();
+
+            @Override
+            public boolean hasNext() {
+                try {
+                    if (file == null) {
+                        file = new RandomAccessFile(filePath.toFile(), "r");
+                        position = file.length();
+                    }
+                    while (lines.isEmpty() && (position > 0 || pending.length > 0)) {
+                        readChunk();
+                    }
+                    if (lines.isEmpty()) file.close();
+                    return !lines.isEmpty();
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }
+
+            @Override
+            public String next() {
+                if (!hasNext()) throw new NoSuchElementException();
+                return lines.pollFirst();
+            }
+
+            private void readChunk() throws IOException {
+                int length = (int) Math.min(CHUNK, position);
+                byte[] buffer = new byte[length + pending.length];
+                position -= length;
+                file.seek(position);
+                file.readFully(buffer, 0, length);
+                System.arraycopy(pending, 0, buffer, length, pending.length);
+
+                // Everything before the first newline may continue in the previous chunk
+                int end = buffer.length;
+                for (int i = buffer.length - 1; i >= 0; i--) {
+                    if (buffer[i] != '\n') continue;
+                    addLine(buffer, i + 1, end);
+                    end = i;
+                }
+                if (position == 0) {
+                    addLine(buffer, 0, end);
+                    pending = new byte[0];
+                } else {
+                    pending = Arrays.copyOf(buffer, end);
+                }
+            }
+
+            private void addLine(byte[] buffer, int from, int to) {
+                if (to > from && buffer[to - 1] == '\r') to--;
+                if (to > from) lines.addLast(new String(buffer, from, to - from, StandardCharsets.UTF_8));
+            }
+        };
+    }
+
+    private static PriceSeries parse(String ticker, CsvReader reader) throws IOException {
+        String[] headers = reader.readHeader();
+        int extraCount = Math.max(0, headers.length - BASE_COLUMNS);
+        int positionColumn = -1;
+        for (int c = BASE_COLUMNS; c < headers.length; c++) {
+            if ("Position".equals(headers[c])) positionColumn = c;
+        }
+
+        int capacity = 256;
+        long[] dates = new long[capacity];
+        double[][] base = new double[BASE_COLUMNS - 1][capacity];
+        double[][] extras = new double[extraCount][capacity];
+        byte[] positions = positionColumn >= 0 ? new byte[capacity] : null;
+        boolean dayFirst = false;
+
+        int size = 0;
+        while (reader.next()) {
+            if (size == capacity) {
+                capacity *= 2;
+                dates = Arrays.copyOf(dates, capacity);
+                for (int c = 0; c < base.length; c++) base[c] = Arrays.copyOf(base[c], capacity);
+                for (int c = 0; c < extras.length; c++) extras[c] = Arrays.copyOf(extras[c], capacity);
+                if (positions != null) positions = Arrays.copyOf(positions, capacity);
+            }
+            if (size == 0) dayFirst = reader.isDayFirst(0);
+            dates[size] = reader.getDate(0);
+            for (int c = 1; c < BASE_COLUMNS; c++) {
+                base[c - 1][size] = reader.getDouble(c);
+            }
+            for (int c = BASE_COLUMNS; c < headers.length; c++) {
+                if (c == positionColumn) {
+                    positions[size] = reader.getPosition(c);
+                } else {
+                    extras[c - BASE_COLUMNS][size] = reader.getDouble(c);
+                }
+            }
+            size++;
+        }
+
+        Map<String, double[]> columns = new LinkedHashMap<>();
+        for (int c = BASE_COLUMNS; c < headers.length; c++) {
+            if (c != positionColumn) columns.put(headers[c], Arrays.copyOf(extras[c - BASE_COLUMNS], size));
+        }
+        return new PriceSeries(ticker, Arrays.copyOf(dates, size),
+                Arrays.copyOf(base[0], size), Arrays.copyOf(base[1], size), Arrays.copyOf(base[2], size),
+                Arrays.copyOf(base[3], size), Arrays.copyOf(base[4], size), Arrays.copyOf(base[5], size),
+                Arrays.copyOf(base[6], size), positions != null ? Arrays.copyOf(positions, size) : null,
+                Collections.unmodifiableMap(columns), dayFirst);
+    }
+
+    /**
+     * Returns a new series with the rows of the given series appended. Strategy output is not carried over.
+     */
+    public PriceSeries append(PriceSeries tail) {
+        PriceSeries appended = new PriceSeries(ticker, concat(dates, tail.dates), concat(open, tail.open),
+                concat(high, tail.high), concat(low, tail.low), concat(close, tail.close),
+                concat(adjClose, tail.adjClose), concat(volume, tail.volume), concat(returns, tail.returns), dayFirst);
+        appended.prefixChecksum = checksum();
+        appended.prefixRows = size();
+        appended.checksum = appended.checksum(appended.prefixChecksum, size()); // hashing the new rows only
+        return appended;
+    }
+
+    /**
+     * Returns a copy of this series sharing the price columns, carrying the given strategy output.
+     */
+    public PriceSeries withSignals(Map<String, double[]> indicatorColumns, byte[] positions) {
+        PriceSeries signalled = new PriceSeries(ticker, dates, open, high, low, close, adjClose, volume, returns,
+                positions, Collections.unmodifiableMap(new LinkedHashMap<>(indicatorColumns)), dayFirst);
+        signalled.checksum = checksum; // same price columns
+        signalled.prefixChecksum = prefixChecksum;
+        signalled.prefixRows = prefixRows;
+        return signalled;
+    }
+
+    /**
+     * Returns a 64-bit hash of the dates and the price columns indicators are computed from, identifying
+     * this version of the ticker's data; computed once per series.
+     */
+    public long checksum() {
+        long hash = checksum;
+        if (hash == 0) {
+            hash = checksum(1L, 0); // seeded with 1, the checksum of an empty series, which append continues from
+            checksum = hash;
+        }
+        return hash;
+    }
+
+    /**
+     * Returns the checksum of the series this one was built from by append, whose rows are the first
+     * prefixRows() of this one, or 0 if it was not built by append.
+     */
+    long prefixChecksum() {
+        return prefixChecksum;
+    }
+
+    int prefixRows() {
+        return prefixRows;
+    }
+
+    // Continues a hash over the rows from the given one on, so appending rows only hashes the new ones
+    private long checksum(long hash, int from) {
+        for (int i = from; i < dates.length; i++) {
+            hash = mix(hash, dates[i]);
+            hash = mix(hash, Double.doubleToLongBits(high[i]));
+            hash = mix(hash, Double.doubleToLongBits(low[i]));
+            hash = mix(hash, Double.doubleToLongBits(close[i]));
+            hash = mix(hash, Double.doubleToLongBits(adjClose[i]));
+            hash = mix(hash, Double.doubleToLongBits(volume[i]));
+        }
+        return hash != 0 ? hash : 1;
+    }
+
+    private static long mix(long hash, long value) {
+        return Long.rotateLeft(hash ^ (value * 0x9E3779B97F4A7C15L), 27) * 0xC2B2AE3D27D4EB4FL;
+    }
+
+    public int size() {
+        return dates.length;
+    }
+
+    public boolean isDayFirst() {
+        return dayFirst;
+    }
+
+    /**
+     * Returns the indicator column with the given header name, or null if the series has none.
+     */
+    public double[] column(String name) {
+        return columns.get(name);
+    }
+
+    public Set<String> columnNames() {
+        return columns.keySet();
+    }
+
+    /**
+     * Formats the date of a row in the layout it was read in.
+     */
+    public String formatDate(int row) {
+        return formatEpochDay(dates[row]);
+    }
+
+    /**
+     * Formats an epoch day in the date layout of this series.
+     */
+    public String formatEpochDay(long epochDay) {
+        LocalDate date = LocalDate.ofEpochDay(epochDay);
+        if (!dayFirst) return date.toString();
+        return String.format("%02d-%02d-%04d", date.getDayOfMonth(), date.getMonthValue(), date.getYear());
+    }
+
+    /**
+     * Writes the base price columns of a row (Date through Returns) as the next CSV fields.
+     */
+    public void writeRow(CsvWriter writer, int row) {
+        writer.date(dates[row], dayFirst)
+              .number(open[row])
+              .number(high[row])
+              .number(low[row])
+              .number(close[row])
+              .number(adjClose[row])
+              .number(volume[row])
+              .decimal(returns[row]);
+    }
+
+    /**
+     * Parses a date in either yyyy-MM-dd or dd-MM-yyyy layout into an epoch day.
+     */
+    public static long parseDate(String value) {
+        try {
+            if (isDayFirst(value)) {
+                return LocalDate.of(parseDigits(value, 6, 10), parseDigits(value, 3, 5),
+                        parseDigits(value, 0, 2)).toEpochDay();
+            }
+            return LocalDate.of(parseDigits(value, 0, 4), parseDigits(value, 5, 7),
+                    parseDigits(value, 8, 10)).toEpochDay();
+        } catch (RuntimeException e) {
+            throw new IllegalArgumentException("Invalid date: " + value, e);
+        }
+    }
+
+    public static String positionName(byte position) {
+        return position == LONG ? "Long" : position == SHORT ? "Short" : "Neutral";
+    }
+
+    public static byte parsePosition(String value) {
+        if ("Long".equalsIgnoreCase(value)) return LONG;
+        if ("Short".equalsIgnoreCase(value)) return SHORT;
+        return NEUTRAL;
+    }
+
+    private static long[] concat(long[] head, long[] tail) {
+        long[] result = Arrays.copyOf(head, head.length + tail.length);
+        System.arraycopy(tail, 0, result, head.length, tail.length);
+        return result;
+    }
+
+    private static double[] concat(double[] head, double[] tail) {
+        double[] result = Arrays.copyOf(head, head.length + tail.length);
+        System.arraycopy(tail, 0, result, head.length, tail.length);
+        return result;
+    }
+
+    private static boolean isDayFirst(String date) {
+        return date.length() >= 10 && date.charAt(2) == '-' && date.charAt(5) == '-';
+    }
+
+    private static int parseDigits(String value, int from, int to) {
+        int digits = 0;
+        for (int i = from; i < to; i++) {
+            char c = value.charAt(i);
+            if (c < '0' || c > '9') throw new IllegalArgumentException("Not a digit: " + c);
+            digits = digits * 10 + (c - '0');
+        }
+        return digits;
+    }
+
+    /**
+     * Parses a numeric field, mapping empty and NULL values to NaN.
+     */
+    public static double parseValue(String value, String columnName) {
+        if (value.isEmpty() || "NULL".equalsIgnoreCase(value)) return Double.NaN;
+        try {
+            return Double.parseDouble(value);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid " + columnName + ": " + value, e);
+        }
+    }
+}
@@ -0,0 +1,81 @@
+package finance;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+// Shared in-memory store of price series, loaded once per processed file
+
+public class PriceStore {
+
+    private static final String DATA_FOLDER = "data/";
+    private static final Map<String, PriceSeries> SERIES = new ConcurrentHashMap<>();
+
+    /**
+     * Returns the series for a processed CSV file, loading it from disk on first use.
+     */
+    public static PriceSeries load(String csvFileName) throws IOException {
+        try {
+            return SERIES.computeIfAbsent(csvFileName, name -> {
+                try {
+                    return PriceSeries.load(tickerOf(name), Paths.get(DATA_FOLDER + name));
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    /**
+     * Returns the series already held for a processed CSV file, or null without touching the disk.
+     */
+    public static PriceSeries cached(String csvFileName) {
+        return SERIES.get(csvFileName);
+    }
+
+    /**
+     * Fills the store from a binary price cache, so that no CSV file has to be parsed for these tickers.
+     */
+    public static void preload(Path cacheFile) throws IOException {
+        for (PriceSeries series : PriceCache.read(cacheFile).values()) {
+            SERIES.put(fileNameOf(series.ticker), series);
+        }
+    }
+
+    /**
+     * Replaces the cached series for a processed CSV file, e.g. once a strategy has added its signals.
+     */
+    public static void put(String csvFileName, PriceSeries series) {
+        SERIES.put(csvFileName, series);
+    }
+
+    /**
+     * Drops the cached series for a file so that the next load re-reads it from disk.
+     */
+    public static void invalidate(String csvFileName) {
+        SERIES.remove(csvFileName);
+    }
+
+    public static void clear() {
+        SERIES.clear();
+    }
+
+    /**
+     * Returns the processed CSV file name of a ticker.
+     */
+    public static String fileNameOf(String ticker) {
+        return "processed_" + ticker + ".csv";
+    }
+
+    /**
+     * Derives the ticker symbol from a raw or processed CSV file name.
+     */
+    public static String tickerOf(String csvFileName) {
+        return csvFileName.replace("processed_", "").replace(".csv", "");
+    }
+}
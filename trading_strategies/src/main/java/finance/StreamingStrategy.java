@@ -0,0 +1,35 @@
+package finance;
+
+import java.util.List;
+
+// A strategy applied to one ticker bar by bar, for live feeds and market-data replays. Each update is
+// O(1) and allocation-free and does no file I/O; fed a ticker's history in date order, it produces the
+// same indicator values and positions as the batch strategy writes to the processed file.
+
+public interface StreamingStrategy {
+
+    /**
+     * Adds the next bar of the ticker and returns the position after it.
+     */
+    byte update(double open, double high, double low, double close, double adjClose, double volume);
+
+    /**
+     * Returns the position after the last bar, NEUTRAL before the first one.
+     */
+    byte position();
+
+    /**
+     * Names of the indicators, in the order of their columns in the processed file.
+     */
+    List<String> indicatorNames();
+
+    /**
+     * Returns an indicator value after the last bar, NaN while there is not enough data for it.
+     */
+    double indicator(int index);
+
+    /**
+     * Forgets all bars seen so far.
+     */
+    void reset();
+}
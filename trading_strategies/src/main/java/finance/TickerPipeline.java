@@ -0,0 +1,90 @@
+package finance;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+// Runs independent per-ticker work on a work-stealing pool
+
+public class TickerPipeline {
+
+    /**
+     * Applies the task to every file name and returns the results in file name order,
+     * independent of the order in which the tickers finish.
+     */
+    public static <R> List<R> map(File[] files, int parallelism, Function<String, R> task) {
+        File[] sorted = files.clone();
+        Arrays.sort(sorted, Comparator.comparing(File::getName));
+        Object[] results = new Object[sorted.length];
+
+        if (parallelism <= 1 || sorted.length <= 1) {
+            for (int i = 0; i < sorted.length; i++) {
+                results[i] = task.apply(sorted[i].getName());
+            }
+        } else {
+            ForkJoinPool pool = new ForkJoinPool(parallelism);
+            try {
+                pool.invoke(new TickerTask<>(sorted, results, task, 0, sorted.length));
+            } finally {
+                pool.shutdown();
+            }
+        }
+
+        List<R> ordered = new ArrayList<>(results.length);
+        for (Object result : results) {
+            @SuppressWarnings("unchecked")
+            R value = (R) result;
+            ordered.add(value);
+        }
+        return ordered;
+    }
+
+    /**
+     * Runs the task for every file name, in parallel when parallelism is greater than one.
+     */
+    public static void forEach(File[] files, int parallelism, Consumer<String> task) {
+        map(files, parallelism, fileName -> {
+            task.accept(fileName);
+            return null;
+        });
+    }
+
+    /**
+     * Splits the ticker range in halves until single tickers remain, so idle workers can steal
+     * the untouched halves of slow tickers' siblings.
+     */
+    private static class TickerTask<R> extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final File[] files;
+        private final Object[] results;
+        private final Function<String, R> task;
+        private final int from;
+        private final int to;
+
+        TickerTask(File[] files, Object[] results, Function<String, R> task, int from, int to) {
+            this.files = files;
+            this.results = results;
+            this.task = task;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from == 1) {
+                results[from] = task.apply(files[from].getName());
+                return;
+            }
+            int middle = (from + to) >>> 1;
+            invokeAll(new TickerTask<>(files, results, task, from, middle),
+                      new TickerTask<>(files, results, task, middle, to));
+        }
+    }
+}
@@ -0,0 +1,124 @@
+package finance;
+
+import java.util.Arrays;
+import java.util.Collection;
+
+// Shared date axis of several tickers: the union of their dates as sorted epoch days, and for each ticker
+// the index on the axis of every one of its rows. The axis is built by a k-way merge of the tickers' date
+// arrays, which are already sorted, as a tree of pairwise merges, so nothing is sorted or hashed and
+// aligned access afterwards is plain array indexing in chronological order.
+
+public final class TradingCalendar {
+
+    private final long[] dates;    // distinct epoch days, ascending
+    private final int[][] offsets; // offsets[t][row] is the index of the ticker's row on the axis
+
+    private TradingCalendar(long[] dates, int[][] offsets) {
+        this.dates = dates;
+        this.offsets = offsets;
+    }
+
+    public static TradingCalendar of(Collection<PriceSeries> seriesList) {
+        long[][] tickerDates = new long[seriesList.size()][];
+        int t = 0;
+        for (PriceSeries series : seriesList) tickerDates[t++] = series.dates;
+        return of(tickerDates);
+    }
+
+    /**
+     * Merges the tickers' dates, each in ascending order. A date repeated within a ticker maps its rows
+     * to the same index.
+     */
+    public static TradingCalendar of(long[][] tickerDates) {
+        long[] dates = tickerDates.length > 0 ? merge(tickerDates, 0, tickerDates.length) : new long[0];
+        if (tickerDates.length == 1 && dates == tickerDates[0]) dates = dates.clone(); // never share a ticker's array
+
+        // each ticker's dates are on the axis, so one forward pass from its first date finds them all
+        int[][] offsets = new int[tickerDates.length][];
+        for (int t = 0; t < tickerDates.length; t++) {
+            long[] tickerDays = tickerDates[t];
+            offsets[t] = new int[tickerDays.length];
+            if (tickerDays.length == 0) continue;
+            int index = Arrays.binarySearch(dates, tickerDays[0]);
+            for (int row = 0; row < tickerDays.length; row++) {
+                while (dates[index] < tickerDays[row]) index++;
+                offsets[t][row] = index;
+            }
+        }
+        return new TradingCalendar(dates, offsets);
+    }
+
+    /**
+     * Returns the number of dates on the axis.
+     */
+    public int size() {
+        return dates.length;
+    }
+
+    /**
+     * Returns the date at an index of the axis in epoch days.
+     */
+    public long date(int index) {
+        return dates[index];
+    }
+
+    /**
+     * Returns the axis, not to be modified.
+     */
+    public long[] dates() {
+        return dates;
+    }
+
+    /**
+     * Returns the axis index of each of the ticker's rows, ascending; not to be modified.
+     */
+    public int[] offsets(int t) {
+        return offsets[t];
+    }
+
+    /**
+     * Distinct dates of the tickers [from, to), merging the halves pairwise, so every date is copied once
+     * per level of a tree of log k levels, and the arrays of tickers trading the same days stay short.
+     */
+    private static long[] merge(long[][] tickerDates, int from, int to) {
+        if (to - from == 1) return distinct(tickerDates[from], from);
+        int middle = (from + to) >>> 1;
+        long[] left = merge(tickerDates, from, middle);
+        long[] right = merge(tickerDates, middle, to);
+
+        long[] merged = new long[left.length + right.length];
+        int size = 0;
+        int i = 0;
+        int j = 0;
+        while (i < left.length && j < right.length) {
+            long date = Math.min(left[i], right[j]);
+            if (left[i] == date) i++;
+            if (right[j] == date) j++;
+            merged[size++] = date;
+        }
+        while (i < left.length) merged[size++] = left[i++];
+        while (j < right.length) merged[size++] = right[j++];
+        return size == merged.length ? merged : Arrays.copyOf(merged, size);
+    }
+
+    /**
+     * A ticker's dates without repeats; the array itself when it has none.
+     */
+    private static long[] distinct(long[] dates, int t) {
+        int size = 0;
+        for (int i = 0; i < dates.length; i++) {
+            if (i > 0 && dates[i] < dates[i - 1]) {
+                throw new IllegalStateException("Dates of ticker " + t + " are not in ascending order");
+            }
+            if (i == 0 || dates[i] != dates[i - 1]) size++;
+        }
+        if (size == dates.length) return dates;
+
+        long[] distinct = new long[size];
+        size = 0;
+        for (int i = 0; i < dates.length; i++) {
+            if (i == 0 || dates[i] != dates[i - 1]) distinct[size++] = dates[i];
+        }
+        return distinct;
+    }
+}
@@ -9,195 +9,123 @@ import java.util.*;
 public class TradingStrategy2 {
 
     private static final String DATA_FOLDER = "data/";
-    private static final String PORTFOLIO_FILE = DATA_FOLDER + "portfolio.csv";
 
     /**
-     * Applies a moving average trading strategy and updates the portfolio.
+     * Applies a moving average trading strategy and records the positions in the shared position matrix.
      */
     public static void applyEmaStrategy(String csvFileName, int shortWindow, int longWindow) {
         String inputFilePath = DATA_FOLDER + csvFileName;
         String tempFilePath = DATA_FOLDER + "temp_" + csvFileName;
+        long start = System.nanoTime();
     
-        try (BufferedReader reader = Files.newBufferedReader(Paths.get(inputFilePath));
-            BufferedWriter writer = Files.newBufferedWriter(Paths.get(tempFilePath))) {
+        try (CsvWriter writer = new CsvWriter(Files.newBufferedWriter(Paths.get(tempFilePath)))) {
     
-            String header = reader.readLine();
-            if (header == null) throw new IOException("Empty CSV file");
+            PriceSeries series = PriceStore.load(csvFileName);
+            writer.writeLine(PriceSeries.HEADER + ",ShortEMA,Long EMA,Signal,Position");
     
-            writer.write(header + ",ShortEMA,Long EMA,Signal,Position\n");
-    
-            List<String[]> allRows = new ArrayList<>();
-            List<Double> adjClosePrices = new ArrayList<>();
-            Map<String, String> portfolio = new LinkedHashMap<>();
-    
-            String line;
-            while ((line = reader.readLine()) != null) {
-                String[] columns = line.split(",");
-                allRows.add(columns);
-                adjClosePrices.add(parseDouble(columns[5], "Invalid Adjusted Close price")); // Adjusted Close at index 5
-            }
+            int size = series.size();
     
             // Generate signals and update the portfolio
-            List<Double> shortEmaList = calculateEMA(adjClosePrices, shortWindow);
-            List<Double> longEmaList = calculateEMA(adjClosePrices, longWindow);
-
-            for (int i = 0; i < allRows.size(); i++) {
-                Double shortEMA = shortEmaList.get(i);
-                Double longEMA = longEmaList.get(i);
-    
-                Double signal = 0.0;
-                if (shortEMA != null && longEMA != null) {
-                    signal = (shortEMA > longEMA) ? 1.0 : (shortEMA < longEMA) ? -1.0 : 0.0;
-                }
+            double[] shortEmaList = IndicatorCache.ema(series, shortWindow);
+            double[] longEmaList = IndicatorCache.ema(series, longWindow);
+
+            byte[] positions = positions(shortEmaList, longEmaList);
+            for (int i = 0; i < size; i++) {
+                double shortEMA = shortEmaList[i];
+                double longEMA = longEmaList[i];
+                double signal = positions[i];
+                String position = PriceSeries.positionName(positions[i]);
     
-                String position;
-                if (signal == 1) {
-                    position = "Long";
-                } else if (signal == -1) {
-                    position = "Short";
-                } else {
-                    position = "Neutral";
-                }
-    
-                portfolio.put(allRows.get(i)[0], position);
-                String[] row = allRows.get(i);
-                writer.write(String.format("%s,%s,%s,%s,%s,%s,%s,%s,%s,%s,%s,%s%n",
-                row[0], // Date
-                row[1], // Open Price
-                row[2], // High Price
-                row[3], // Low Price
-                row[4], // Close Price
-                row[5], // Adjusted Close
-                row[6], // Volume
-                row[7], // Returns
-                formatValue(shortEMA), // Short EMA
-                formatValue(longEMA), // Long EMA
-                formatValue(signal), // Signal
-                position)); // Position
+                series.writeRow(writer, i); // Date, prices, Volume and Returns
+                writer.decimal(shortEMA) // Short EMA
+                      .decimal(longEMA) // Long EMA
+                      .decimal(signal) // Signal
+                      .field(position) // Position
+                      .endRow();
             }
     
-            savePortfolioInfo(csvFileName, portfolio);
+            Map<String, double[]> indicators = new LinkedHashMap<>();
+            indicators.put("ShortEMA", shortEmaList);
+            indicators.put("Long EMA", longEmaList);
+            PriceStore.put(csvFileName, series.withSignals(indicators, positions));
+
+            PositionMatrix.merge(series, positions);
+            writer.close();
             Files.move(Paths.get(tempFilePath), Paths.get(inputFilePath), StandardCopyOption.REPLACE_EXISTING);
     
         } catch (IOException e) {
+            Metrics.increment("strategy.errors");
             System.err.println("Error applying strategy: " + e.getMessage());
         }
+        Metrics.stopTimer("strategy.ema", start);
     }    
 
 
     /**
-     * Saves the portfolio information to a shared file.
+     * Goes long while the short average is above the long one and short while it is below.
      */
-    private static void savePortfolioInfo(String csvFileName, Map<String, String> portfolio) {
-        String ticker = csvFileName.replace("processed_", "").replace(".csv", "");
-
-        try {
-            Map<String, Map<String, String>> portfolioData = loadPortfolioData();
-            for (Map.Entry<String, String> entry : portfolio.entrySet()) {
-                portfolioData.computeIfAbsent(entry.getKey(), k -> new LinkedHashMap<>()).put(ticker, entry.getValue());
-            }
-            writePortfolioData(portfolioData);
-
-        } catch (IOException e) {
-            System.err.println("Error saving portfolio info: " + e.getMessage());
+    public static byte[] positions(double[] shortAverages, double[] longAverages) {
+        byte[] positions = new byte[shortAverages.length];
+        for (int i = 0; i < positions.length; i++) {
+            positions[i] = position(shortAverages[i], longAverages[i]);
         }
+        return positions;
     }
 
-    
     /**
-     * Loads existing portfolio data from the CSV file.
+     * Position for one bar, NEUTRAL until both averages are available.
      */
-    private static Map<String, Map<String, String>> loadPortfolioData() throws IOException {
-        Map<String, Map<String, String>> portfolioData = new LinkedHashMap<>();
-        Path filePath = Paths.get(PORTFOLIO_FILE);
-        
-        if (Files.exists(filePath)) {
-            try (BufferedReader reader = Files.newBufferedReader(filePath)) {
-                String[] headers = reader.readLine().split(",");
-                String line;
-                
-                while ((line = reader.readLine()) != null) {
-                    String[] values = line.split(",");
-                    String date = values[0];
-                    Map<String, String> row = new LinkedHashMap<>();
-                    
-                    for (int i = 1; i < headers.length; i++) {
-                        row.put(headers[i], i < values.length ? values[i] : "Neutral");
-                    }
-                    
-                    portfolioData.put(date, row);
-                }
-            }
-        }
-
-        return portfolioData;
+    static byte position(double shortAverage, double longAverage) {
+        if (Double.isNaN(shortAverage) || Double.isNaN(longAverage)) return PriceSeries.NEUTRAL;
+        return shortAverage > longAverage ? PriceSeries.LONG
+             : shortAverage < longAverage ? PriceSeries.SHORT : PriceSeries.NEUTRAL;
     }
 
     /**
-     * Writes portfolio data back to the CSV file.
+     * The strategy applied to one ticker bar by bar, with the short and long EMAs as indicators.
      */
-    private static void writePortfolioData(Map<String, Map<String, String>> portfolioData) throws IOException {
-        try (BufferedWriter writer = Files.newBufferedWriter(Paths.get(PORTFOLIO_FILE), StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING)) {
-            Set<String> tickers = new LinkedHashSet<>();
-            tickers.add("Date");
-            portfolioData.values().forEach(row -> tickers.addAll(row.keySet()));
-            writer.write(String.join(",", tickers) + "\n");
-            
-            for (String date : portfolioData.keySet()) {
-                StringBuilder row = new StringBuilder(date);
-                for (String ticker : tickers) {
-                    if (!"Date".equals(ticker)) {
-                        row.append(",").append(portfolioData.get(date).getOrDefault(ticker, "Neutral"));
-                    }
-                }
-                writer.write(row + "\n");
-            }
+    public static class Streaming implements StreamingStrategy {
+        private static final List<String> INDICATORS = Collections.unmodifiableList(Arrays.asList("ShortEMA", "Long EMA"));
+
+        private final Indicators.Ema shortAverage;
+        private final Indicators.Ema longAverage;
+        private final double[] values = {Double.NaN, Double.NaN};
+        private byte position = PriceSeries.NEUTRAL;
+
+        public Streaming(int shortWindow, int longWindow) {
+            this.shortAverage = new Indicators.Ema(shortWindow);
+            this.longAverage = new Indicators.Ema(longWindow);
         }
-    }
 
-    /**
-     * Calculates EMA for a list of prices.
-     */
-    private static List<Double> calculateEMA(List<Double> prices, int windowSize) {
-        List<Double> emaList = new ArrayList<>();
-        if (prices.isEmpty() || windowSize <= 0) return emaList;
-
-        Double multiplier = 2.0 / (windowSize + 1);
-        Double previousEma = null;
-
-        for (int i = 0; i < prices.size(); i++) {
-            Double price = prices.get(i);
-            if (i < windowSize - 1) {
-                emaList.add(null); // Not enough data for EMA
-                continue;
-            }
-            if (previousEma == null) {
-                previousEma = prices.subList(0, windowSize).stream()
-                        .mapToDouble(Double::doubleValue).average().orElse(Double.NaN);
-            } else {
-                previousEma = (price - previousEma) * multiplier + previousEma;
-            }
-            emaList.add(previousEma);
+        @Override
+        public byte update(double open, double high, double low, double close, double adjClose, double volume) {
+            values[0] = shortAverage.update(adjClose);
+            values[1] = longAverage.update(adjClose);
+            return position = TradingStrategy2.position(values[0], values[1]);
         }
-        return emaList;
-    }
-    
-    /**
-     * Parses a string to double, throwing an error message for invalid values.
-     */
-    private static double parseDouble(String value, String errorMessage) {
-        try {
-            return Double.parseDouble(value);
-        } catch (NumberFormatException e) {
-            throw new IllegalArgumentException(errorMessage);
+
+        @Override
+        public byte position() {
+            return position;
+        }
+
+        @Override
+        public List<String> indicatorNames() {
+            return INDICATORS;
+        }
+
+        @Override
+        public double indicator(int index) {
+            return values[index];
+        }
+
+        @Override
+        public void reset() {
+            shortAverage.reset();
+            longAverage.reset();
+            Arrays.fill(values, Double.NaN);
+            position = PriceSeries.NEUTRAL;
         }
-    }
-    
-    /** 
-     * Formats a Double value to 2 decimal places or returns "NULL" if the value is null.
-     */
-    private static String formatValue(Double value) {
-        return value != null ? String.format("%.2f", value) : "NULL";
     }
 
 }
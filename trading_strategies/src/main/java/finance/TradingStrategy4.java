@@ -1,26 +1,20 @@
 package finance;
 
-import java.io.BufferedReader;
-import java.io.BufferedWriter;
 import java.io.IOException;
 import java.nio.file.Files;
-import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.nio.file.StandardCopyOption;
-import java.nio.file.StandardOpenOption;
-import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.LinkedHashMap;
-import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
-import java.util.Set;
 
 // EMA, RSI, Volume based trading strategy
 
 public class TradingStrategy4 {
 
     private static final String DATA_FOLDER = "data/";
-    private static final String PORTFOLIO_FILE = DATA_FOLDER + "portfolio.csv";
 
     /**
      * Applies the strategy based on Moving Averages, RSI, and Volume.
@@ -28,208 +22,139 @@ public class TradingStrategy4 {
     public static void applyCustomStrategy(String csvFileName, int shortWindow, int longWindow, int rsiWindow, int volumeWindow) {
         String inputFilePath = DATA_FOLDER + csvFileName;
         String tempFilePath = DATA_FOLDER + "temp_" + csvFileName;
+        long start = System.nanoTime();
     
-        try (BufferedReader reader = Files.newBufferedReader(Paths.get(inputFilePath));
-            BufferedWriter writer = Files.newBufferedWriter(Paths.get(tempFilePath))) {
+        try (CsvWriter writer = new CsvWriter(Files.newBufferedWriter(Paths.get(tempFilePath)))) {
     
-            String header = reader.readLine();
-            if (header == null) throw new IOException("Empty CSV file");
+            PriceSeries series = PriceStore.load(csvFileName);
+            writer.writeLine(PriceSeries.HEADER + ",Short MA,Long MA,RSI,Avg Volume,Buy Signal,Sell Signal,Position");
     
-            writer.write(header + ",Short MA,Long MA,RSI,Avg Volume,Buy Signal,Sell Signal,Position\n");
-    
-            List<String[]> allRows = new ArrayList<>();
-            List<Double> adjClosePrices = new ArrayList<>();
-            List<Double> volumes = new ArrayList<>();
-            Map<String, String> portfolio = new LinkedHashMap<>();
-    
-            String line;
-            while ((line = reader.readLine()) != null) {
-                String[] columns = line.split(",");
-                allRows.add(columns);
-                adjClosePrices.add(parseDouble(columns[5], "Invalid Adjusted Close price")); // Adjusted Close at index 5
-                volumes.add(parseDouble(columns[6], "Invalid Volume")); // Volume at index 6
-            }
+            double[] volumes = series.volume;
+            int size = series.size();
+            double[] shortMAs = IndicatorCache.ema(series, shortWindow);
+            double[] longMAs = IndicatorCache.ema(series, longWindow);
+            double[] rsis = IndicatorCache.rsi(series, rsiWindow);
+            double[] avgVolumes = IndicatorCache.averageVolume(series, volumeWindow);
 
             // Generate indicators and signals
-            for (int i = 0; i < allRows.size(); i++) {
-                Double shortMA = calculateEMA(adjClosePrices, i, shortWindow);
-                Double longMA = calculateEMA(adjClosePrices, i, longWindow);
-                Double rsi = calculateRSI(adjClosePrices, i, rsiWindow);
-                Double avgVolume = calculateMovingAverage(volumes, i, volumeWindow);
-
-                Double buySignal = (shortMA != null && longMA != null && avgVolume != null && rsi != null &&
-                                    shortMA > longMA && rsi > 40 && volumes.get(i) > avgVolume) ? 1.0 : 0.0;
-
-                Double sellSignal = (shortMA != null && longMA != null && avgVolume != null && rsi != null &&
-                                    shortMA < longMA && rsi < 60 && volumes.get(i) > avgVolume) ? 1.0 : 0.0;
-
-                String position = "Neutral";
-                if (buySignal == 1.0) position = "Long";
-                else if (sellSignal == 1.0) position = "Short";
+            byte[] positions = positions(shortMAs, longMAs, rsis, volumes, avgVolumes);
+            for (int i = 0; i < size; i++) {
+                double shortMA = shortMAs[i];
+                double longMA = longMAs[i];
+                double rsi = rsis[i];
+                double avgVolume = avgVolumes[i];
+                double buySignal = positions[i] == PriceSeries.LONG ? 1.0 : 0.0;
+                double sellSignal = positions[i] == PriceSeries.SHORT ? 1.0 : 0.0;
+                String position = PriceSeries.positionName(positions[i]);
     
-                portfolio.put(allRows.get(i)[0], position);
-                String[] row = allRows.get(i);
-                writer.write(String.format("%s,%s,%s,%s,%s,%s,%s,%s,%s,%s,%s,%s,%s,%s,%s%n",
-                        row[0], // Date
-                        row[1], // Open Price
-                        row[2], // High Price
-                        row[3], // Low Price
-                        row[4], // Close Price
-                        row[5], // Adjusted Close
-                        row[6], // Volume
-                        row[7], // Returns
-                        formatValue(shortMA), // Short MA
-                        formatValue(longMA), // Long MA
-                        formatValue(rsi), // RSI
-                        formatValue(avgVolume), // Avg Volume
-                        formatValue(buySignal), // Buy Signal
-                        formatValue(sellSignal), // Sell Signal
-                        position)); // Position
+                series.writeRow(writer, i); // Date, prices, Volume and Returns
+                writer.decimal(shortMA) // Short MA
+                      .decimal(longMA) // Long MA
+                      .decimal(rsi) // RSI
+                      .decimal(avgVolume) // Avg Volume
+                      .decimal(buySignal) // Buy Signal
+                      .decimal(sellSignal) // Sell Signal
+                      .field(position) // Position
+                      .endRow();
             }
     
-            savePortfolioInfo(csvFileName, portfolio);
+            Map<String, double[]> indicators = new LinkedHashMap<>();
+            indicators.put("Short MA", shortMAs);
+            indicators.put("Long MA", longMAs);
+            indicators.put("RSI", rsis);
+            indicators.put("Avg Volume", avgVolumes);
+            PriceStore.put(csvFileName, series.withSignals(indicators, positions));
+
+            PositionMatrix.merge(series, positions);
+            writer.close();
             Files.move(Paths.get(tempFilePath), Paths.get(inputFilePath), StandardCopyOption.REPLACE_EXISTING);
     
         } catch (IOException e) {
+            Metrics.increment("strategy.errors");
             System.err.println("Error applying strategy: " + e.getMessage());
         }
+        Metrics.stopTimer("strategy.ema-rsi-volume", start);
     }    
 
 
     /**
-     * Saves the portfolio information to a shared file.
+     * Goes long on an uptrend confirmed by RSI above 40 and above-average volume, and short on a
+     * downtrend with RSI below 60 and above-average volume.
      */
-    private static void savePortfolioInfo(String csvFileName, Map<String, String> portfolio) {
-        String ticker = csvFileName.replace("processed_", "").replace(".csv", "");
-
-        try {
-            Map<String, Map<String, String>> portfolioData = loadPortfolioData();
-            for (Map.Entry<String, String> entry : portfolio.entrySet()) {
-                portfolioData.computeIfAbsent(entry.getKey(), k -> new LinkedHashMap<>()).put(ticker, entry.getValue());
-            }
-            writePortfolioData(portfolioData);
-
-        } catch (IOException e) {
-            System.err.println("Error saving portfolio info: " + e.getMessage());
+    public static byte[] positions(double[] shortMAs, double[] longMAs, double[] rsis, double[] volumes, double[] avgVolumes) {
+        byte[] positions = new byte[shortMAs.length];
+        for (int i = 0; i < positions.length; i++) {
+            positions[i] = position(shortMAs[i], longMAs[i], rsis[i], volumes[i], avgVolumes[i]);
         }
+        return positions;
     }
 
-    
     /**
-     * Loads existing portfolio data from the CSV file.
+     * Position for one bar, NEUTRAL until all the indicators are available.
      */
-    private static Map<String, Map<String, String>> loadPortfolioData() throws IOException {
-        Map<String, Map<String, String>> portfolioData = new LinkedHashMap<>();
-        Path filePath = Paths.get(PORTFOLIO_FILE);
-        
-        if (Files.exists(filePath)) {
-            try (BufferedReader reader = Files.newBufferedReader(filePath)) {
-                String[] headers = reader.readLine().split(",");
-                String line;
-                
-                while ((line = reader.readLine()) != null) {
-                    String[] values = line.split(",");
-                    String date = values[0];
-                    Map<String, String> row = new LinkedHashMap<>();
-                    
-                    for (int i = 1; i < headers.length; i++) {
-                        row.put(headers[i], i < values.length ? values[i] : "Neutral");
-                    }
-                    
-                    portfolioData.put(date, row);
-                }
-            }
-        }
+    static byte position(double shortMA, double longMA, double rsi, double volume, double avgVolume) {
+        boolean ready = !Double.isNaN(shortMA) && !Double.isNaN(longMA) &&
+                        !Double.isNaN(avgVolume) && !Double.isNaN(rsi);
 
-        return portfolioData;
+        if (ready && shortMA > longMA && rsi > 40 && volume > avgVolume) return PriceSeries.LONG;
+        if (ready && shortMA < longMA && rsi < 60 && volume > avgVolume) return PriceSeries.SHORT;
+        return PriceSeries.NEUTRAL;
     }
 
     /**
-     * Writes portfolio data back to the CSV file.
+     * The strategy applied to one ticker bar by bar, with the averages, RSI and average volume as indicators.
      */
-    private static void writePortfolioData(Map<String, Map<String, String>> portfolioData) throws IOException {
-        try (BufferedWriter writer = Files.newBufferedWriter(Paths.get(PORTFOLIO_FILE), StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING)) {
-            Set<String> tickers = new LinkedHashSet<>();
-            tickers.add("Date");
-            portfolioData.values().forEach(row -> tickers.addAll(row.keySet()));
-            writer.write(String.join(",", tickers) + "\n");
-            
-            for (String date : portfolioData.keySet()) {
-                StringBuilder row = new StringBuilder(date);
-                for (String ticker : tickers) {
-                    if (!"Date".equals(ticker)) {
-                        row.append(",").append(portfolioData.get(date).getOrDefault(ticker, "Neutral"));
-                    }
-                }
-                writer.write(row + "\n");
-            }
+    public static class Streaming implements StreamingStrategy {
+        private static final List<String> INDICATORS =
+                Collections.unmodifiableList(Arrays.asList("Short MA", "Long MA", "RSI", "Avg Volume"));
+
+        private final Indicators.Ema shortMA;
+        private final Indicators.Ema longMA;
+        private final Indicators.Rsi rsi;
+        private final Indicators.Sma avgVolume;
+        private final double[] values = {Double.NaN, Double.NaN, Double.NaN, Double.NaN};
+        private byte position = PriceSeries.NEUTRAL;
+
+        public Streaming(int shortWindow, int longWindow, int rsiWindow, int volumeWindow) {
+            this.shortMA = new Indicators.Ema(shortWindow);
+            this.longMA = new Indicators.Ema(longWindow);
+            this.rsi = new Indicators.Rsi(rsiWindow);
+            this.avgVolume = new Indicators.Sma(volumeWindow);
         }
-    }
 
-    /** 
-     * Calculates the Exponential Moving Average (EMA) for a given list of prices and window size.
-     * Returns null if there are insufficient data points for the specified window size.
-     */
-    private static Double calculateEMA(List<Double> prices, int endIndex, int windowSize) {
-        if (endIndex + 1 < windowSize) return null;
-        double multiplier = 2.0 / (windowSize + 1);
-        double ema = prices.get(endIndex);
-        for (int i = endIndex - 1; i >= endIndex - windowSize + 1; i--) {
-            ema = ((prices.get(i) - ema) * multiplier) + ema;
+        @Override
+        public byte update(double open, double high, double low, double close, double adjClose, double volume) {
+            values[0] = shortMA.update(adjClose);
+            values[1] = longMA.update(adjClose);
+            values[2] = rsi.update(adjClose);
+            values[3] = avgVolume.update(volume);
+            return position = TradingStrategy4.position(values[0], values[1], values[2], volume, values[3]);
         }
-        return ema;
-    }
 
-    /** 
-     * Calculates the Simple Moving Average (SMA) for a given list of prices and window size.
-     * Returns null if there are insufficient data points for the specified window size.
-     */
-    private static Double calculateMovingAverage(List<Double> prices, int endIndex, int windowSize) {
-        if (endIndex + 1 < windowSize) return null;
-        return prices.subList(endIndex + 1 - windowSize, endIndex + 1).stream()
-                .mapToDouble(Double::doubleValue).average().orElse(Double.NaN);
-    }
+        @Override
+        public byte position() {
+            return position;
+        }
 
-    /** 
-     * Calculates the Relative Strength Index (RSI) for a given list of prices and window size.
-     * Returns null if there are insufficient data points for the specified window size.
-     */
-    private static Double calculateRSI(List<Double> prices, int endIndex, int window) {
-        if (endIndex + 1 < window) return null;
-    
-        List<Double> deltas = new ArrayList<>();
-        for (int i = endIndex + 1 - window; i <= endIndex; i++) {
-            if (i - 1 >= 0) { // Ensure the index is valid
-                deltas.add(prices.get(i) - prices.get(i - 1));
-            }
+        @Override
+        public List<String> indicatorNames() {
+            return INDICATORS;
         }
-    
-        double gain = deltas.stream().filter(d -> d > 0).mapToDouble(d -> d).average().orElse(0.0);
-        double loss = deltas.stream().filter(d -> d < 0).mapToDouble(Math::abs).average().orElse(0.0);
-    
-        if (loss == 0) return 100.0; // No losses in the window
-        double rs = gain / loss;
-        return 100 - (100 / (1 + rs));
-    }    
-    
-    /**
-     * Parses a string to double, throwing an error message for invalid values.
-     */
-    private static double parseDouble(String value, String errorMessage) {
-        try {
-            return Double.parseDouble(value);
-        } catch (NumberFormatException e) {
-            System.err.println("Invalid value encountered: " + value); // debugging
-            System.err.flush();  // Force flush of error stream
-            throw new IllegalArgumentException(errorMessage, e);
+
+        @Override
+        public double indicator(int index) {
+            return values[index];
+        }
+
+        @Override
+        public void reset() {
+            shortMA.reset();
+            longMA.reset();
+            rsi.reset();
+            avgVolume.reset();
+            Arrays.fill(values, Double.NaN);
+            position = PriceSeries.NEUTRAL;
         }
-    }
-    
-    /** 
-     * Formats a Double value to 2 decimal places or returns "NULL" if the value is null.
-     */
-    private static String formatValue(Double value) {
-        return value != null ? String.format("%.2f", value) : "NULL";
     }
 
 }
@@ -0,0 +1,289 @@
+package finance;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+// Walk-forward optimization: the history is cut into rolling folds of a training window followed by a
+// test window, and on each fold the grid's best combination over the training window is backtested over
+// the following test window, out of sample. The test windows follow each other, so their results chain
+// into one out-of-sample backtest. Indicators are computed once over the whole history and shared by all
+// folds; they only look back, so a training window never sees its test window's prices.
+
+public class WalkForward {
+
+    /**
+     * One training window, the combination chosen on it and its result on the test window.
+     */
+    public static final class Fold {
+        public final LocalDate trainStart;
+        public final LocalDate testStart;
+        public final LocalDate testEnd; // exclusive
+        public final Map<String, Double> parameters;
+        public final PerformanceStats inSample;
+        public final PerformanceStats outOfSample;
+        private final Backtest backtest;
+
+        private Fold(Window window, Map<String, Double> parameters, PerformanceStats inSample,
+                     PerformanceStats outOfSample, Backtest backtest) {
+            this.trainStart = LocalDate.ofEpochDay(window.trainStart);
+            this.testStart = LocalDate.ofEpochDay(window.testStart);
+            this.testEnd = LocalDate.ofEpochDay(window.testEnd);
+            this.parameters = Collections.unmodifiableMap(parameters);
+            this.inSample = inSample;
+            this.outOfSample = outOfSample;
+            this.backtest = backtest;
+        }
+    }
+
+    /**
+     * The folds in date order and the test windows chained into one backtest.
+     */
+    public static final class Report {
+        public final String strategy;
+        public final int trainDays;
+        public final int testDays;
+        public final List<Fold> folds;
+        public final PerformanceStats outOfSample;
+
+        private Report(String strategy, int trainDays, int testDays, List<Fold> folds, PerformanceStats outOfSample) {
+            this.strategy = strategy;
+            this.trainDays = trainDays;
+            this.testDays = testDays;
+            this.folds = Collections.unmodifiableList(folds);
+            this.outOfSample = outOfSample;
+        }
+
+        public void print() {
+            List<String> names = parameterNames();
+            int[] widths = new int[names.size()];
+            StringBuilder header = new StringBuilder(String.format("%-6s%-13s%-13s%-13s", "Fold", "Train Start", "Test Start", "Test End"));
+            for (int p = 0; p < names.size(); p++) {
+                widths[p] = Math.max(10, names.get(p).length() + 2);
+                header.append(String.format("%" + widths[p] + "s", names.get(p)));
+            }
+            header.append(String.format("%11s%12s%12s", "IS Sharpe", "OOS Sharpe", "OOS Return"));
+
+            System.out.printf("%nWalk-Forward Optimization (%s, %d folds of %d training and %d test days):%n",
+                    strategy, folds.size(), trainDays, testDays);
+            System.out.println(header);
+            for (int f = 0; f < folds.size(); f++) {
+                Fold fold = folds.get(f);
+                StringBuilder row = new StringBuilder(String.format("%-6d%-13s%-13s%-13s", f + 1,
+                        fold.trainStart, fold.testStart, fold.testEnd));
+                for (int p = 0; p < names.size(); p++) {
+                    row.append(String.format("%" + widths[p] + "s", ParameterSweep.formatParameter(fold.parameters.get(names.get(p)))));
+                }
+                row.append(String.format("%11.2f%12.2f%11.2f%%", fold.inSample.getSharpeRatio(),
+                        fold.outOfSample.getSharpeRatio(), fold.outOfSample.getTotalReturn() * 100));
+                System.out.println(row);
+            }
+
+            System.out.println("\nOut-of-sample performance over all test windows:");
+            outOfSample.print();
+        }
+
+        /**
+         * Writes the folds as a CSV file.
+         */
+        public void write(Path filePath) {
+            try (BufferedWriter writer = Files.newBufferedWriter(filePath)) {
+                List<String> names = parameterNames();
+                writer.write("Fold,Train Start,Test Start,Test End," + (names.isEmpty() ? "" : String.join(",", names) + ",")
+                        + "In-Sample Sharpe,In-Sample Return,Out-of-Sample Sharpe,Out-of-Sample Return,Out-of-Sample Max Drawdown\n");
+                for (int f = 0; f < folds.size(); f++) {
+                    Fold fold = folds.get(f);
+                    StringBuilder row = new StringBuilder().append(f + 1).append(',').append(fold.trainStart)
+                            .append(',').append(fold.testStart).append(',').append(fold.testEnd);
+                    for (String name : names) row.append(',').append(ParameterSweep.formatParameter(fold.parameters.get(name)));
+                    row.append(String.format(",%.4f,%.6f,%.4f,%.6f,%.6f%n", fold.inSample.getSharpeRatio(),
+                            fold.inSample.getTotalReturn(), fold.outOfSample.getSharpeRatio(),
+                            fold.outOfSample.getTotalReturn(), fold.outOfSample.getMaxDrawdown()));
+                    writer.write(row.toString());
+                }
+                System.out.println("Walk-forward results saved as " + filePath);
+            } catch (IOException e) {
+                System.err.println("Error saving walk-forward results: " + e.getMessage());
+            }
+        }
+
+        private List<String> parameterNames() {
+            return folds.isEmpty() ? Collections.emptyList() : new ArrayList<>(folds.get(0).parameters.keySet());
+        }
+    }
+
+    /**
+     * Runs the walk-forward optimization over the processed files' price data, loaded once through PriceStore.
+     */
+    public static Report run(String strategy, ParameterGrid grid, File[] processedFiles,
+                             int trainDays, int testDays, int parallelism) {
+        return run(strategy, grid, ParameterSweep.load(processedFiles), trainDays, testDays, parallelism);
+    }
+
+    /**
+     * Runs the walk-forward optimization over the given series. Folds are calendar windows: the first
+     * trains on the first trainDays days of the history, and each further fold moves on by testDays, so
+     * the test windows cover the history after the first training window without overlapping. Every
+     * combination is backtested on all training windows in parallel, then the folds' test windows are
+     * backtested in parallel.
+     */
+    public static Report run(String strategy, ParameterGrid grid, List<PriceSeries> data,
+                             int trainDays, int testDays, int parallelism) {
+        ParameterSweep.validate(strategy, grid);
+        if (trainDays <= 0 || testDays <= 0) {
+            throw new IllegalArgumentException("Training and test windows must be positive: " + trainDays + ", " + testDays);
+        }
+        List<Window> windows = windows(data, trainDays, testDays);
+        if (windows.isEmpty()) {
+            throw new IllegalArgumentException("History too short for a training window of " + trainDays + " days");
+        }
+
+        long start = System.nanoTime();
+        ParameterSweep.SharedIndicators indicators = new ParameterSweep.SharedIndicators(data);
+        ForkJoinPool pool = new ForkJoinPool(Math.max(1, parallelism));
+        try {
+            // In-sample results of every combination on every fold, backtesting each combination once
+            PerformanceStats[][] inSample = pool.submit(() -> IntStream.range(0, grid.size()).parallel()
+                    .mapToObj(c -> {
+                        Backtest backtest = backtest(strategy, grid.combination(c), indicators);
+                        PerformanceStats[] stats = new PerformanceStats[windows.size()];
+                        for (int f = 0; f < windows.size(); f++) {
+                            stats[f] = backtest.run(windows.get(f).trainStart, windows.get(f).testStart);
+                        }
+                        return stats;
+                    })
+                    .toArray(PerformanceStats[][]::new)).join();
+
+            List<Fold> folds = pool.submit(() -> IntStream.range(0, windows.size()).parallel()
+                    .mapToObj(f -> {
+                        Window window = windows.get(f);
+                        List<ParameterSweep.Result> candidates = new ArrayList<>(grid.size());
+                        for (int c = 0; c < grid.size(); c++) {
+                            candidates.add(new ParameterSweep.Result(strategy, grid.combination(c), inSample[c][f]));
+                        }
+                        ParameterSweep.Result best = Collections.min(candidates, ParameterSweep.RANKING);
+                        Backtest backtest = backtest(strategy, best.parameters, indicators);
+                        return new Fold(window, best.parameters, best.stats,
+                                backtest.run(window.testStart, window.testEnd), backtest);
+                    })
+                    .collect(Collectors.toList())).join();
+
+            // Each test window starts in cash at the balance the previous one ended with
+            PerformanceStats outOfSample = new PerformanceStats(folds.get(0).backtest.initialBalance);
+            for (int f = 0; f < folds.size(); f++) {
+                folds.get(f).backtest.run(windows.get(f).testStart, windows.get(f).testEnd, outOfSample);
+            }
+            return new Report(strategy, trainDays, testDays, folds, outOfSample);
+        } finally {
+            pool.shutdown();
+            Metrics.stopTimer("walkforward", start);
+        }
+    }
+
+    /**
+     * Calendar windows from the first to the last date of the series, in epoch days.
+     */
+    private static List<Window> windows(List<PriceSeries> data, int trainDays, int testDays) {
+        long first = Long.MAX_VALUE;
+        long last = Long.MIN_VALUE;
+        for (PriceSeries series : data) {
+            if (series.size() == 0) continue;
+            first = Math.min(first, series.dates[0]);
+            last = Math.max(last, series.dates[series.size() - 1]);
+        }
+        List<Window> windows = new ArrayList<>();
+        for (long trainStart = first; first <= last && trainStart + trainDays <= last; trainStart += testDays) {
+            long testStart = trainStart + trainDays;
+            windows.add(new Window(trainStart, testStart, Math.min(testStart + testDays, last + 1)));
+        }
+        return windows;
+    }
+
+    private static Backtest backtest(String strategy, Map<String, Double> combination, ParameterSweep.SharedIndicators indicators) {
+        Map<String, Double> parameters = ParameterSweep.withDefaults(combination);
+        if (ParameterSweep.FIBONACCI.equals(strategy)) {
+            FibBacktester.FibMatrix matrix = indicators.fibonacci(ParameterSweep.intParameter(parameters, "period"),
+                    ParameterSweep.intParameter(parameters, "atrPeriod"));
+            return new Backtest(matrix.dates, parameters.get("initialBalance")) {
+                @Override
+                void run(int from, int to, PerformanceStats stats) {
+                    FibBacktester.evaluate(matrix, from, to, stats, parameters.get("buyFullBelow"),
+                            parameters.get("buyHalfAbove"), parameters.get("sellFullAbove"),
+                            parameters.get("sellHalfAbove"), parameters.get("atrVolatilityThreshold"),
+                            parameters.get("stopLossPercent"), parameters.get("maxPositionSize"));
+                }
+            };
+        }
+
+        Backtester.DailyReturns daily = new Backtester.DailyReturns(ParameterSweep.positions(strategy, parameters, indicators));
+        return new Backtest(daily.dates, Backtester.INITIAL_BALANCE) {
+            @Override
+            void run(int from, int to, PerformanceStats stats) {
+                Backtester.replay(daily, from, to, stats, null);
+            }
+        };
+    }
+
+    /**
+     * A combination's backtest over any range of its dates.
+     */
+    private abstract static class Backtest {
+        final long[] dates; // epoch days
+        final double initialBalance;
+
+        Backtest(long[] dates, double initialBalance) {
+            this.dates = dates;
+            this.initialBalance = initialBalance;
+        }
+
+        /**
+         * Backtests the rows [from, to) into the stats, continuing from their final balance.
+         */
+        abstract void run(int from, int to, PerformanceStats stats);
+
+        /**
+         * Backtests the days [fromDay, toDay) on their own.
+         */
+        PerformanceStats run(long fromDay, long toDay) {
+            PerformanceStats stats = new PerformanceStats(initialBalance);
+            run(fromDay, toDay, stats);
+            return stats;
+        }
+
+        void run(long fromDay, long toDay, PerformanceStats stats) {
+            run(rowOf(fromDay), rowOf(toDay), stats);
+        }
+
+        // First row on or after the day
+        private int rowOf(long day) {
+            int row = Arrays.binarySearch(dates, day);
+            return row >= 0 ? row : -row - 1;
+        }
+    }
+
+    /**
+     * A fold's dates in epoch days: training on [trainStart, testStart), testing on [testStart, testEnd).
+     */
+    private static final class Window {
+        final long trainStart;
+        final long testStart;
+        final long testEnd;
+
+        Window(long trainStart, long testStart, long testEnd) {
+            this.trainStart = trainStart;
+            this.testStart = testStart;
+            this.testEnd = testEnd;
+        }
+    }
+}
@@ -1,23 +1,34 @@
 package finance;
 
 import okhttp3.*;
-import com.google.gson.*;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
 
-import java.io.BufferedReader;
 import java.io.BufferedWriter;
-import java.io.FileWriter;
 import java.io.IOException;
+import java.io.Reader;
 import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
 import java.util.List;
-import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
 
 public class YHFinanceDataFetcher {
     private static final String API_KEY = "your_api_key";
     private static final String API_HOST = "yahoo-finance15.p.rapidapi.com";
     private static final String BASE_URL = "https://yahoo-finance15.p.rapidapi.com/api/v1/markets/stock/history";
     private static final String DATA_FOLDER = "data/";
+    private static final List<String> BAR_FIELDS = Arrays.asList("date", "open", "high", "low", "close", "adjclose", "volume");
 
     /**
      * Adds a returns column to the input CSV file and saves it as a processed file.
@@ -25,35 +36,71 @@ public class YHFinanceDataFetcher {
     public static void addReturnsColumn(String csvFileName) {
         String inputFilePath = DATA_FOLDER + csvFileName;
         String outputFilePath = DATA_FOLDER + "processed_" + csvFileName;
+        long start = System.nanoTime();
     
-        try (BufferedReader reader = Files.newBufferedReader(Paths.get(inputFilePath))) {
-            String header = reader.readLine();
-            if (header == null) throw new IOException("Empty CSV file");
-    
-            List<String[]> rows = new ArrayList<>();
-            String line;
-            while ((line = reader.readLine()) != null) {
-                String[] columns = line.split(",");
-                rows.add(columns);
-            }
-    
-            try (BufferedWriter writer = Files.newBufferedWriter(Paths.get(outputFilePath))) {
-                writer.write(header + ",Returns\n");
-    
-                Double previousAdjClose = null;
-                for (String[] columns : rows) {
-                    double adjClosePrice = parseDouble(columns[5], "Invalid Adjusted Close price");
-                    Double returnVal = (previousAdjClose != null) ? (adjClosePrice - previousAdjClose) / previousAdjClose 
-                                                                  : null;
-                    writer.write(String.format("%s,%s%n", String.join(",", columns), 
-                    returnVal != null ? String.format("%.2f", returnVal) : "NULL"));
-                    previousAdjClose = adjClosePrice;
-                }
+        try (CsvReader reader = new CsvReader(Files.newBufferedReader(Paths.get(inputFilePath)));
+             CsvWriter writer = new CsvWriter(Files.newBufferedWriter(Paths.get(outputFilePath)))) {
+            String[] header = reader.readHeader();
+            writer.writeLine(String.join(",", header) + ",Returns");
+
+            // rows are copied as read, only the returns value is formatted
+            double previousAdjClose = Double.NaN;
+            boolean first = true;
+            int rows = 0;
+            while (reader.next()) {
+                double adjClosePrice = reader.getDouble(5);
+                reader.copyRow(writer);
+                writer.decimal(first ? Double.NaN : (adjClosePrice - previousAdjClose) / previousAdjClose)
+                      .endRow();
+                previousAdjClose = adjClosePrice;
+                first = false;
+                rows++;
             }
+            PriceStore.invalidate("processed_" + csvFileName);
+            Metrics.observe("process.bars", rows);
             // System.out.println("Processed file saved as: " + outputFilePath);
         } catch (IOException e) {
+            Metrics.increment("process.errors");
             System.err.println("Error processing file: " + e.getMessage());
         }
+        Metrics.stopTimer("process.returns", start);
+    }
+
+    /**
+     * Brings the processed series of a ticker up to date with its CSV file. If the store already holds the
+     * series (e.g. restored from the binary cache), only the rows after its last date are read and appended;
+     * otherwise the whole file is processed as in addReturnsColumn.
+     */
+    public static void refreshReturns(String csvFileName) {
+        String processedFileName = "processed_" + csvFileName;
+        PriceSeries cached = PriceStore.cached(processedFileName);
+        if (cached == null || cached.size() == 0) {
+            addReturnsColumn(csvFileName);
+            return;
+        }
+
+        long start = System.nanoTime();
+        try {
+            int last = cached.size() - 1;
+            PriceSeries tail = PriceSeries.loadTail(cached.ticker, Paths.get(DATA_FOLDER + csvFileName), cached.dates[last]);
+            if (tail.size() == 0) return;
+
+            double[] returns = new double[tail.size()];
+            double previousAdjClose = cached.adjClose[last];
+            for (int i = 0; i < returns.length; i++) {
+                double adjClosePrice = tail.adjClose[i];
+                // rounded like the processed CSV, so refreshed and fully processed series agree
+                returns[i] = CsvWriter.round((adjClosePrice - previousAdjClose) / previousAdjClose, 2);
+                previousAdjClose = adjClosePrice;
+            }
+            tail = new PriceSeries(tail.ticker, tail.dates, tail.open, tail.high, tail.low, tail.close,
+                                   tail.adjClose, tail.volume, returns, tail.isDayFirst());
+            PriceStore.put(processedFileName, cached.append(tail));
+        } catch (IOException | IllegalArgumentException e) {
+            Metrics.increment("process.errors");
+            System.err.println("Error refreshing file: " + e.getMessage());
+        }
+        Metrics.stopTimer("process.refresh", start);
     }
 
     /** 
@@ -76,79 +123,332 @@ public class YHFinanceDataFetcher {
      * Fetches stock data for a single ticker and saves it as a CSV file.
      */
     private static void fetchAndSaveStockData(OkHttpClient client, String ticker) {
-        HttpUrl url = HttpUrl.parse(BASE_URL).newBuilder()
-        .addQueryParameter("symbol", ticker)
-        .addQueryParameter("interval", "1d") // Daily data
-        .addQueryParameter("diffandsplits", "false")
-        .build();
-
-        Request request = new Request.Builder()
-                .url(url)
-                .addHeader("X-RapidAPI-Key", API_KEY)
-                .addHeader("X-RapidAPI-Host", API_HOST)
-                .build();
+        Request request = buildRequest(HttpUrl.parse(BASE_URL), ticker);
+        long start = System.nanoTime();
 
         try (Response response = client.newCall(request).execute()) {
             if (response.isSuccessful() && response.body() != null) {
-                String responseBody = response.body().string();
                 // System.out.println("Fetched data for " + ticker);
-                // System.out.println("Debugging" + responseBody);
-                saveDataToCSV(ticker, responseBody);
+                saveDataToCSV(ticker, response.body().charStream());
                 // System.out.println("Data for " + ticker + " saved successfully.");
             } else {
+                Metrics.increment("fetch.errors");
                 System.err.println("Failed to fetch data for " + ticker + ": " + response.message());
             }
         } catch (IOException e) {
+            Metrics.increment("fetch.errors");
             System.err.println("Error fetching data for " + ticker + ": " + e.getMessage());
         }
+        Metrics.stopTimer("fetch", start);
     }
 
-    /** 
-     * Saves the fetched stock data to a CSV file.
+    /**
+     * Fetches historical stock data for the provided tickers concurrently and saves it as CSV files.
+     * At most maxConcurrent requests are in flight and at most requestsPerSecond are started per second;
+     * requests answered with 429 or a 5xx status (or failing with an I/O error) are retried with
+     * exponential backoff up to maxRetries times.
      */
-    private static void saveDataToCSV(String ticker, String jsonData) {
-        Gson gson = new Gson();
-        JsonObject jsonObject = gson.fromJson(jsonData, JsonObject.class);
-    
-        if (!jsonObject.has("body")) {
-            System.err.println("Error: Time series data not found for " + ticker);
+    public static void fetchStockDataAsync(OkHttpClient client, String[] tickers, int maxConcurrent,
+                                           double requestsPerSecond, int maxRetries) {
+        fetchStockDataAsync(client, BASE_URL, tickers, maxConcurrent, requestsPerSecond, maxRetries);
+    }
+
+    /**
+     * Same as above against the given history endpoint, e.g. a local stand-in server.
+     */
+    public static void fetchStockDataAsync(OkHttpClient client, String baseUrl, String[] tickers, int maxConcurrent,
+                                           double requestsPerSecond, int maxRetries) {
+        fetchAsync(client, baseUrl, tickers, maxConcurrent, requestsPerSecond, maxRetries, false);
+    }
+
+    /**
+     * Like fetchStockDataAsync, but only appends bars newer than the last row of each existing CSV file,
+     * leaving the stored history untouched. Tickers without a CSV file are saved in full.
+     */
+    public static void refreshStockDataAsync(OkHttpClient client, String[] tickers, int maxConcurrent,
+                                             double requestsPerSecond, int maxRetries) {
+        refreshStockDataAsync(client, BASE_URL, tickers, maxConcurrent, requestsPerSecond, maxRetries);
+    }
+
+    /**
+     * Same as above against the given history endpoint, e.g. a local stand-in server.
+     */
+    public static void refreshStockDataAsync(OkHttpClient client, String baseUrl, String[] tickers, int maxConcurrent,
+                                             double requestsPerSecond, int maxRetries) {
+        fetchAsync(client, baseUrl, tickers, maxConcurrent, requestsPerSecond, maxRetries, true);
+    }
+
+    private static void fetchAsync(OkHttpClient client, String baseUrl, String[] tickers, int maxConcurrent,
+                                   double requestsPerSecond, int maxRetries, boolean append) {
+        try {
+            Files.createDirectories(Paths.get(DATA_FOLDER));
+        } catch (IOException e) {
+            System.err.println("Error creating data folder: " + e.getMessage());
             return;
         }
-    
-        JsonObject body = jsonObject.getAsJsonObject("body");
-        String filePath = DATA_FOLDER + ticker + ".csv";
-    
-        try (BufferedWriter writer = new BufferedWriter(new FileWriter(filePath))) {
+
+        client.dispatcher().setMaxRequestsPerHost(Math.max(client.dispatcher().getMaxRequestsPerHost(), maxConcurrent));
+        client.dispatcher().setMaxRequests(Math.max(client.dispatcher().getMaxRequests(), maxConcurrent));
+        AsyncFetch fetch = new AsyncFetch(client, HttpUrl.parse(baseUrl), tickers.length, maxConcurrent,
+                                          new RateLimiter(requestsPerSecond, 1), maxRetries, append);
+        try {
+            for (String ticker : tickers) {
+                fetch.inFlight.acquire();
+                fetch.send(ticker, 0);
+            }
+            fetch.done.await();
+            System.out.println("Historical data fetched and saved successfully.");
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            System.err.println("Fetching interrupted: " + e.getMessage());
+        } finally {
+            fetch.retries.shutdownNow();
+        }
+    }
+
+    /**
+     * Shared state of one asynchronous fetch run.
+     */
+    private static class AsyncFetch {
+        private static final long INITIAL_BACKOFF_MILLIS = 1000;
+        private static final long MAX_BACKOFF_MILLIS = 30000;
+
+        final OkHttpClient client;
+        final HttpUrl baseUrl;
+        final CountDownLatch done;
+        final Semaphore inFlight;
+        final RateLimiter rateLimiter;
+        final int maxRetries;
+        final boolean append;
+        final ScheduledExecutorService retries = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "fetch-retries");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        AsyncFetch(OkHttpClient client, HttpUrl baseUrl, int tickerCount, int maxConcurrent,
+                   RateLimiter rateLimiter, int maxRetries, boolean append) {
+            this.client = client;
+            this.baseUrl = baseUrl;
+            this.done = new CountDownLatch(tickerCount);
+            this.inFlight = new Semaphore(Math.max(1, maxConcurrent));
+            this.rateLimiter = rateLimiter;
+            this.maxRetries = maxRetries;
+            this.append = append;
+        }
+
+        /**
+         * Starts a request once the rate limiter allows it. The caller holds an in-flight permit,
+         * which is released when the ticker is finished, successfully or not.
+         */
+        void send(String ticker, int attempt) throws InterruptedException {
+            rateLimiter.acquire();
+            long start = System.nanoTime();
+            client.newCall(buildRequest(baseUrl, ticker)).enqueue(new Callback() {
+                @Override
+                public void onResponse(Call call, Response response) {
+                    try (Response r = response) {
+                        if (r.isSuccessful() && r.body() != null) {
+                            if (append) {
+                                appendDataToCSV(ticker, r.body().charStream());
+                            } else {
+                                saveDataToCSV(ticker, r.body().charStream());
+                            }
+                            finish();
+                        } else if ((r.code() == 429 || r.code() >= 500) && attempt < maxRetries) {
+                            retry(ticker, attempt, r.header("Retry-After"));
+                        } else {
+                            Metrics.increment("fetch.errors");
+                            System.err.println("Failed to fetch data for " + ticker + ": " + r.code() + " " + r.message());
+                            finish();
+                        }
+                    } catch (IOException e) {
+                        fail(e);
+                    } catch (RuntimeException e) {
+                        Metrics.increment("fetch.errors");
+                        System.err.println("Error saving data for " + ticker + ": " + e.getMessage());
+                        finish();
+                    } finally {
+                        Metrics.stopTimer("fetch", start); // one attempt, including reading and saving the data
+                    }
+                }
+
+                @Override
+                public void onFailure(Call call, IOException e) {
+                    Metrics.stopTimer("fetch", start);
+                    fail(e);
+                }
+
+                private void fail(IOException e) {
+                    if (attempt < maxRetries) {
+                        retry(ticker, attempt, null);
+                    } else {
+                        Metrics.increment("fetch.errors");
+                        System.err.println("Error fetching data for " + ticker + ": " + e.getMessage());
+                        finish();
+                    }
+                }
+            });
+        }
+
+        /**
+         * Schedules the next attempt, honouring a Retry-After header given in seconds.
+         */
+        private void retry(String ticker, int attempt, String retryAfter) {
+            Metrics.increment("fetch.retries");
+            long delayMillis = Math.min(MAX_BACKOFF_MILLIS, INITIAL_BACKOFF_MILLIS << attempt);
+            delayMillis += ThreadLocalRandom.current().nextLong(delayMillis / 2 + 1); // jitter
+            if (retryAfter != null) {
+                try {
+                    delayMillis = Math.max(delayMillis, Long.parseLong(retryAfter.trim()) * 1000);
+                } catch (NumberFormatException e) {
+                    // HTTP-date values are rare for this API; fall back to the computed backoff
+                }
+            }
+            retries.schedule(() -> {
+                try {
+                    send(ticker, attempt + 1);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    finish();
+                }
+            }, delayMillis, TimeUnit.MILLISECONDS);
+        }
+
+        private void finish() {
+            inFlight.release();
+            done.countDown();
+        }
+    }
+
+    /**
+     * Builds the history request for a ticker against the given endpoint.
+     */
+    private static Request buildRequest(HttpUrl baseUrl, String ticker) {
+        HttpUrl url = baseUrl.newBuilder()
+        .addQueryParameter("symbol", ticker)
+        .addQueryParameter("interval", "1d") // Daily data
+        .addQueryParameter("diffandsplits", "false")
+        .build();
+
+        return new Request.Builder()
+                .url(url)
+                .addHeader("X-RapidAPI-Key", API_KEY)
+                .addHeader("X-RapidAPI-Host", API_HOST)
+                .build();
+    }
+
+    /** 
+     * Saves the fetched stock data to a CSV file. The response is decoded as a stream and each bar is
+     * written as soon as it is read, so the body is never held in memory as a string or a JSON tree.
+     */
+    private static void saveDataToCSV(String ticker, Reader jsonData) throws IOException {
+        Path filePath = Paths.get(DATA_FOLDER + ticker + ".csv");
+        Path tempFilePath = Paths.get(DATA_FOLDER + "temp_" + ticker + ".csv");
+        boolean found;
+
+        try (BufferedWriter writer = Files.newBufferedWriter(tempFilePath)) {
             //header
             writer.write("Date,Open Price,High Price,Low Price,Close Price,Adjusted Close,Volume\n");
+            found = readBars(jsonData, bar -> writer.write(String.join(",", bar) + "\n"));
+        } catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(tempFilePath);
+            throw e;
+        }
+
+        // an existing file is only replaced once a complete time series has been received
+        if (found) {
+            Files.move(tempFilePath, filePath, StandardCopyOption.REPLACE_EXISTING);
+        } else {
+            Files.delete(tempFilePath);
+            System.err.println("Error: Time series data not found for " + ticker);
+        }
+    }
+
+    /**
+     * Appends the fetched bars dated after the last row of the ticker's CSV file, in date order.
+     * The history endpoint has no start date parameter, so older bars are dropped here instead.
+     */
+    private static void appendDataToCSV(String ticker, Reader jsonData) throws IOException {
+        Path filePath = Paths.get(DATA_FOLDER + ticker + ".csv");
+        if (!Files.exists(filePath)) {
+            saveDataToCSV(ticker, jsonData);
+            return;
+        }
+
+        Long lastDate = PriceSeries.readLastDate(filePath);
+        List<String[]> newBars = new ArrayList<>();
+        boolean found = readBars(jsonData, bar -> {
+            if (bar[0].isEmpty()) return;
+            if (lastDate == null || PriceSeries.parseDate(bar[0]) > lastDate) newBars.add(bar);
+        });
+        if (!found) {
+            System.err.println("Error: Time series data not found for " + ticker);
+            return;
+        }
+        if (newBars.isEmpty()) return;
+        newBars.sort(Comparator.comparingLong(bar -> PriceSeries.parseDate(bar[0])));
+
+        try (BufferedWriter writer = Files.newBufferedWriter(filePath, StandardOpenOption.APPEND)) {
+            for (String[] bar : newBars) {
+                writer.write(String.join(",", bar) + "\n");
+            }
+        }
+    }
+
+    /**
+     * Streams the bars of a history response to the sink as CSV fields, in response order.
+     * Returns false if the response holds no time series.
+     */
+    private static boolean readBars(Reader jsonData, BarSink sink) throws IOException {
+        JsonReader reader = new JsonReader(jsonData);
+        boolean found = false;
+
+        reader.beginObject();
+        while (reader.hasNext()) {
+            if (!"body".equals(reader.nextName()) || reader.peek() != JsonToken.BEGIN_OBJECT) {
+                reader.skipValue();
+                continue;
+            }
+            found = true;
 
             // iterating over "body"
-            for (Map.Entry<String, JsonElement> entry : body.entrySet()) {
-                JsonObject priceData = entry.getValue().getAsJsonObject();
-
-                //retrieving all data and writing to file 
-                String date = priceData.has("date") ? priceData.get("date").getAsString() : "";
-                String open = priceData.has("open") ? priceData.get("open").getAsString() : "";
-                String high = priceData.has("high") ? priceData.get("high").getAsString() : "";
-                String low = priceData.has("low") ? priceData.get("low").getAsString() : "";
-                String close = priceData.has("close") ? priceData.get("close").getAsString() : "";
-                String adjustedClose = priceData.has("adjclose") ? priceData.get("adjclose").getAsString() : "";
-                String volume = priceData.has("volume") ? priceData.get("volume").getAsString() : "";
-                writer.write(String.join(",", date, open, high, low, close, adjustedClose, volume) + "\n");
+            reader.beginObject();
+            while (reader.hasNext()) {
+                reader.nextName();
+                sink.accept(readBar(reader));
             }
-        } catch (IOException e) {
-            System.err.println("Error saving data for " + ticker + ": " + e.getMessage());
+            reader.endObject();
         }
-    }    
- 
+        reader.endObject();
+        return found;
+    }
+
     /**
-     * Parses a string to double, throwing an error message for invalid values.
+     * Reads one bar object, leaving fields missing from the response empty.
      */
-    private static double parseDouble(String value, String errorMessage) {
-        try {
-            return Double.parseDouble(value);
-        } catch (NumberFormatException e) {
-            throw new IllegalArgumentException(errorMessage);
+    private static String[] readBar(JsonReader reader) throws IOException {
+        String[] bar = {"", "", "", "", "", "", ""};
+        reader.beginObject();
+        while (reader.hasNext()) {
+            int field = BAR_FIELDS.indexOf(reader.nextName());
+            JsonToken token = reader.peek();
+            if (field < 0 || token == JsonToken.BEGIN_OBJECT || token == JsonToken.BEGIN_ARRAY) {
+                reader.skipValue();
+            } else if (token == JsonToken.NULL) {
+                reader.nextNull();
+            } else {
+                bar[field] = reader.nextString(); // numbers keep their literal form
+            }
         }
+        reader.endObject();
+        return bar;
+    }
+
+    /**
+     * Receives decoded bars as date, open, high, low, close, adjusted close and volume.
+     */
+    private interface BarSink {
+        void accept(String[] bar) throws IOException;
     }
 }
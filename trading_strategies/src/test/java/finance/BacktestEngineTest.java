@@ -0,0 +1,186 @@
+package finance;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.OperatingSystemMXBean;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import com.sun.management.UnixOperatingSystemMXBean;
+
+// The engine's merge of several tickers' bars by date, and which tickers and bars it delivers
+
+class BacktestEngineTest {
+
+    private final PriceSeries aaa = series("AAA", 1, 2, 4, 5);
+    private final PriceSeries bbb = series("BBB", 2, 3, 5);
+    private final PriceSeries ccc = series("CCC", 1, 5, 8);
+
+    @BeforeEach
+    @AfterEach
+    void clear() {
+        PriceStore.clear();
+    }
+
+    @Test
+    void deliversTheBarsInDateThenTickerOrder() {
+        Recorder recorder = new Recorder();
+        BacktestEngine.run(Arrays.asList(aaa, bbb, ccc), recorder);
+        assertEquals(Arrays.asList("AAA", "BBB", "CCC"), recorder.tickers);
+        assertEquals(Arrays.asList(
+                "1: AAA#0 CCC#2",
+                "2: AAA#0 BBB#1",
+                "3: BBB#1",
+                "4: AAA#0",
+                "5: AAA#0 BBB#1 CCC#2",
+                "8: CCC#2",
+                "end"), recorder.events);
+    }
+
+    @Test
+    void deliversTheBarsValuesAndPositions() {
+        byte[] positions = {PriceSeries.LONG, PriceSeries.SHORT, PriceSeries.NEUTRAL, PriceSeries.LONG};
+        PriceSeries signals = aaa.withSignals(Collections.singletonMap("SMA", new double[] {10, 20, 30, 40}), positions);
+        List<String> values = new ArrayList<>();
+        BacktestEngine.run(Collections.singletonList(signals), (date, bars) -> {
+            BacktestEngine.Bar bar = bars.get(0);
+            values.add(bar.date + " " + bar.close + " " + bar.returns + " " + bar.column("SMA") + " "
+                    + bar.column("Missing") + " " + PriceSeries.positionName(bar.position));
+        });
+        assertEquals(Arrays.asList(
+                "1 101.0 NaN 10.0 NaN Long",
+                "2 102.0 0.02 20.0 NaN Short",
+                "4 104.0 0.04 30.0 NaN Neutral",
+                "5 105.0 0.05 40.0 NaN Long"), values);
+    }
+
+    @Test
+    void skipsTheBarsThatAreNotIncluded() {
+        Recorder recorder = new Recorder() {
+            @Override
+            public boolean include(BacktestEngine.Bar bar) {
+                return !Double.isNaN(bar.returns) && bar.date != 4; // the first rows and date 4
+            }
+        };
+        BacktestEngine.run(Arrays.asList(aaa, bbb, ccc), recorder);
+        assertEquals(Arrays.asList(
+                "2: AAA#0",
+                "3: BBB#1",
+                "5: AAA#0 BBB#1 CCC#2",
+                "8: CCC#2",
+                "end"), recorder.events);
+    }
+
+    @Test
+    void leavesOutTheTickersNotAccepted() {
+        Recorder recorder = new Recorder() {
+            @Override
+            public boolean accept(String csvFileName, List<String> columns) {
+                return !csvFileName.equals(PriceStore.fileNameOf("BBB"));
+            }
+        };
+        BacktestEngine.run(Arrays.asList(aaa, bbb, ccc), recorder);
+        assertEquals(Arrays.asList("AAA", "CCC"), recorder.tickers);
+        assertEquals(Arrays.asList(
+                "1: AAA#0 CCC#1",
+                "2: AAA#0",
+                "4: AAA#0",
+                "5: AAA#0 CCC#1",
+                "8: CCC#1",
+                "end"), recorder.events);
+    }
+
+    @Test
+    void closesTheFilesNotAcceptedBeforeTheRun(@TempDir Path folder) throws IOException {
+        OperatingSystemMXBean os = ManagementFactory.getOperatingSystemMXBean();
+        assumeTrue(os instanceof UnixOperatingSystemMXBean, "counting open files needs a Unix JVM");
+        UnixOperatingSystemMXBean unix = (UnixOperatingSystemMXBean) os;
+
+        File[] files = new File[40];
+        for (int i = 0; i < files.length; i++) {
+            files[i] = folder.resolve(PriceStore.fileNameOf(String.format("T%02d", i))).toFile();
+            Files.write(files[i].toPath(), Arrays.asList(PriceSeries.HEADER, "2020-01-02,1,1,1,1,1,100,NULL"));
+        }
+        long openBefore = unix.getOpenFileDescriptorCount();
+        long[] openAtStart = new long[1];
+        Recorder recorder = new Recorder() {
+            @Override
+            public boolean accept(String csvFileName, List<String> columns) {
+                return csvFileName.equals(files[0].getName());
+            }
+
+            @Override
+            public void onStart(List<String> tickers) {
+                super.onStart(tickers);
+                openAtStart[0] = unix.getOpenFileDescriptorCount();
+            }
+        };
+        BacktestEngine.run(files, recorder);
+        assertEquals(Collections.singletonList("T00"), recorder.tickers);
+        assertTrue(openAtStart[0] < openBefore + 10, "open files " + openAtStart[0] + ", before " + openBefore);
+        assertTrue(unix.getOpenFileDescriptorCount() < openBefore + 10);
+    }
+
+    @Test
+    void rejectsRowsOutOfDateOrder() {
+        Recorder recorder = new Recorder();
+        IllegalStateException e = assertThrows(IllegalStateException.class,
+                () -> BacktestEngine.run(Arrays.asList(aaa, series("BBB", 2, 3, 3)), recorder));
+        assertEquals("Rows of BBB are not in date order", e.getMessage());
+        assertThrows(IllegalStateException.class,
+                () -> BacktestEngine.run(Collections.singletonList(series("CCC", 5, 4)), new Recorder()));
+    }
+
+    // Prices of 100 plus the date, returns of a hundredth of the date except a NULL first one
+    private static PriceSeries series(String ticker, long... dates) {
+        int rows = dates.length;
+        double[] prices = new double[rows];
+        double[] returns = new double[rows];
+        for (int row = 0; row < rows; row++) {
+            prices[row] = 100 + dates[row];
+            returns[row] = row == 0 ? Double.NaN : dates[row] / 100.0;
+        }
+        return new PriceSeries(ticker, dates, prices, prices, prices, prices, prices, prices, returns, false);
+    }
+
+    // Records the tickers and each delivered date as "date: ticker#tickerIndex ..."
+    private static class Recorder implements BacktestEngine.BarHandler {
+        final List<String> events = new ArrayList<>();
+        List<String> tickers;
+
+        @Override
+        public void onStart(List<String> tickers) {
+            this.tickers = new ArrayList<>(tickers);
+        }
+
+        @Override
+        public void onBars(long date, List<BacktestEngine.Bar> bars) {
+            StringBuilder event = new StringBuilder().append(date).append(':');
+            for (BacktestEngine.Bar bar : bars) {
+                assertEquals(date, bar.date);
+                event.append(' ').append(bar.ticker).append('#').append(bar.tickerIndex);
+            }
+            events.add(event.toString());
+        }
+
+        @Override
+        public void onEnd() {
+            events.add("end");
+        }
+    }
+}
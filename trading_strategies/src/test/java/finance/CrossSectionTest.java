@@ -0,0 +1,93 @@
+package finance;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+// The scalar cross-sectional aggregation over long, short and neutral positions
+
+class CrossSectionTest {
+
+    @Test
+    void aggregatesLongAndShortPositionsAndIgnoresNeutralOnes() {
+        double[] returns = {0.02, -0.01, 0.03, -0.04, 0.0, 0.05, -0.02};
+        byte[] positions = {PriceSeries.LONG, PriceSeries.LONG, PriceSeries.SHORT, PriceSeries.SHORT,
+                            PriceSeries.LONG, PriceSeries.NEUTRAL, PriceSeries.NEUTRAL};
+        CrossSection result = aggregate(new CrossSection.ScalarKernel(), returns, positions);
+        assertEquals(5, result.getSignals());
+        assertEquals(2, result.getHits()); // long and up, short and down; a zero return is no hit
+        assertEquals(0.02 - 0.01 - 0.03 + 0.04 + 0.0, result.getSignedReturns(), 1e-15);
+    }
+
+    @Test
+    void aggregatesNothingWithoutPositions() {
+        CrossSection result = aggregate(new CrossSection.ScalarKernel(), new double[] {0.01, -0.02},
+                new byte[] {PriceSeries.NEUTRAL, PriceSeries.NEUTRAL});
+        assertEquals(0, result.getSignals());
+        assertEquals(0, result.getHits());
+        assertEquals(0.0, result.getSignedReturns());
+
+        result = aggregate(new CrossSection.ScalarKernel(), new double[0], new byte[0]);
+        assertEquals(0, result.getSignals());
+    }
+
+    @Test
+    void aggregatesTickerCountsOfAnyLength() {
+        Random random = new Random(5);
+        for (int tickers : new int[] {1, 3, 7, 9, 17, 37, 67, 131}) { // none a multiple of a vector step
+            double[] returns = randomReturns(random, tickers);
+            byte[] positions = randomPositions(random, tickers);
+            CrossSection result = aggregate(new CrossSection.ScalarKernel(), returns, positions);
+            assertAggregates(returns, positions, result, "tickers " + tickers);
+        }
+    }
+
+    @Test
+    void resetsTheResultsOfThePreviousDate() {
+        CrossSection crossSection = CrossSection.create();
+        assertFalse(crossSection.isVectorized()); // -Dvector=true is not set for the tests
+        crossSection.aggregate(new double[] {0.01, 0.02}, new byte[] {PriceSeries.LONG, PriceSeries.LONG});
+        crossSection.aggregate(new double[] {0.01, 0.02}, new byte[] {PriceSeries.NEUTRAL, PriceSeries.SHORT});
+        assertEquals(1, crossSection.getSignals());
+        assertEquals(0, crossSection.getHits());
+        assertEquals(-0.02, crossSection.getSignedReturns());
+    }
+
+    static CrossSection aggregate(CrossSection.Kernel kernel, double[] returns, byte[] positions) {
+        CrossSection result = CrossSection.create();
+        kernel.aggregate(returns, positions, result);
+        return result;
+    }
+
+    // Returns in multiples of 1/1024, so their sums are exact in any order
+    static double[] randomReturns(Random random, int tickers) {
+        double[] returns = new double[tickers];
+        for (int t = 0; t < tickers; t++) returns[t] = (random.nextInt(81) - 40) / 1024.0;
+        return returns;
+    }
+
+    static byte[] randomPositions(Random random, int tickers) {
+        byte[] positions = new byte[tickers];
+        for (int t = 0; t < tickers; t++) positions[t] = (byte) (random.nextInt(3) - 1);
+        return positions;
+    }
+
+    // Checks the result against a count of each ticker's position and return
+    static void assertAggregates(double[] returns, byte[] positions, CrossSection result, String message) {
+        double signedReturns = 0.0;
+        int signals = 0;
+        int hits = 0;
+        for (int t = 0; t < positions.length; t++) {
+            if (positions[t] == PriceSeries.NEUTRAL) continue;
+            signals++;
+            signedReturns += positions[t] * returns[t];
+            if (positions[t] * returns[t] > 0) hits++;
+        }
+        assertEquals(signals, result.getSignals(), message);
+        assertEquals(hits, result.getHits(), message);
+        assertEquals(signedReturns, result.getSignedReturns(), message);
+    }
+}
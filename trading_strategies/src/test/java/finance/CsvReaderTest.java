@@ -0,0 +1,66 @@
+package finance;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.SplittableRandom;
+
+import org.junit.jupiter.api.Test;
+
+class CsvReaderTest {
+
+    @Test
+    void getDoubleParsesAsDoubleParseDouble() throws IOException {
+        List<String> fields = new ArrayList<>(Arrays.asList(
+                "0", "-0", "+1.5", "-0.0", ".5", "5.", "0001.2300", "1e3", "-2.5E-4", "123456789012345",
+                "1234567890123456", "12345678901234567890", "0.123456789012345678", "0.000000000000000000001",
+                "0.00000000000000000000001", "9007199254740993", "179769313486231570000000000000000000000",
+                "4.9e-324", "Infinity", "-Infinity"));
+        SplittableRandom random = new SplittableRandom(11);
+        for (int i = 0; i < 20_000; i++) {
+            double value = (random.nextDouble() - 0.5) * Math.pow(10, random.nextInt(-8, 12));
+            fields.add(Double.toString(value));
+            fields.add(String.format(Locale.ROOT, "%." + random.nextInt(0, 10) + "f", value));
+        }
+
+        StringBuilder csv = new StringBuilder("Value\n");
+        for (String field : fields) csv.append(field).append('\n');
+        try (CsvReader reader = new CsvReader(new StringReader(csv.toString()))) {
+            reader.readHeader();
+            for (String field : fields) {
+                assertTrue(reader.next());
+                assertEquals(Double.parseDouble(field), reader.getDouble(0), field);
+            }
+            assertFalse(reader.next());
+        }
+    }
+
+    @Test
+    void getDoubleReadsMissingValuesAsNaN() throws IOException {
+        try (CsvReader reader = new CsvReader(new StringReader("A,B,C\n,NULL\n"))) {
+            reader.readHeader();
+            assertTrue(reader.next());
+            assertTrue(Double.isNaN(reader.getDouble(0)), "empty field");
+            assertTrue(Double.isNaN(reader.getDouble(1)), "NULL");
+            assertTrue(Double.isNaN(reader.getDouble(2)), "missing field");
+        }
+    }
+
+    @Test
+    void getDoubleNamesTheColumnOfAnInvalidValue() throws IOException {
+        try (CsvReader reader = new CsvReader(new StringReader("Date,Close Price\n2024-01-02,1.2.3\n"))) {
+            reader.readHeader();
+            assertTrue(reader.next());
+            IllegalArgumentException e = assertThrows(IllegalArgumentException.class, () -> reader.getDouble(1));
+            assertEquals("Invalid Close Price: 1.2.3", e.getMessage());
+        }
+    }
+}
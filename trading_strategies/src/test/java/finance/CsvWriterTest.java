@@ -0,0 +1,62 @@
+package finance;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.Locale;
+import java.util.SplittableRandom;
+
+import org.junit.jupiter.api.Test;
+
+class CsvWriterTest {
+
+    @Test
+    void decimalWritesWhatFormatterWrites() throws IOException {
+        SplittableRandom random = new SplittableRandom(3);
+        for (int i = 0; i < 20_000; i++) {
+            double value = (random.nextDouble() - 0.5) * Math.pow(10, random.nextInt(-6, 17));
+            int decimals = random.nextInt(0, 10);
+            assertEquals(String.format(Locale.ROOT, "%." + decimals + "f", value), decimal(value, decimals),
+                    value + " to " + decimals + " decimals");
+        }
+        double[] edges = {0.125, 2.675, 1.005, 0.5, 1.5, 2.5, -0.5, -0.001, -0.0, 0.0, 1e15, 123456789.995,
+                          9.999999999, Double.MAX_VALUE, Double.MIN_VALUE, Double.POSITIVE_INFINITY};
+        for (double value : edges) {
+            for (int decimals = 0; decimals <= 9; decimals++) {
+                assertEquals(String.format(Locale.ROOT, "%." + decimals + "f", value), decimal(value, decimals),
+                        value + " to " + decimals + " decimals");
+            }
+        }
+        assertEquals("NULL", decimal(Double.NaN, 2));
+    }
+
+    @Test
+    void roundReadsBackAsTheWrittenDecimal() throws IOException {
+        Locale defaultLocale = Locale.getDefault();
+        Locale.setDefault(Locale.GERMANY); // a comma decimal separator must not matter
+        try {
+            SplittableRandom random = new SplittableRandom(7);
+            for (int i = 0; i < 20_000; i++) {
+                double value = (random.nextDouble() - 0.5) * Math.pow(10, random.nextInt(-4, 6));
+                for (int decimals : new int[] {0, 2, 4}) {
+                    assertEquals(Double.parseDouble(decimal(value, decimals)), CsvWriter.round(value, decimals),
+                            value + " to " + decimals + " decimals");
+                }
+            }
+            assertEquals(0.13, CsvWriter.round(0.125, 2));    // a tie, through Formatter
+            assertEquals(-0.0, CsvWriter.round(-0.001, 2));   // keeps the sign, as "-0.00" does
+            assertEquals(Double.NaN, CsvWriter.round(Double.NaN, 2));
+        } finally {
+            Locale.setDefault(defaultLocale);
+        }
+    }
+
+    private static String decimal(double value, int decimals) throws IOException {
+        StringWriter out = new StringWriter();
+        try (CsvWriter writer = new CsvWriter(out)) {
+            writer.decimal(value, decimals);
+        }
+        return out.toString();
+    }
+}
@@ -0,0 +1,132 @@
+package finance;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+// Columns of an appended series continued over the new rows, against a full recompute
+
+class IndicatorCacheTest {
+
+    private static final int ROWS = 1500;
+    private static final int STORED = 1260; // five years of bars, the rest arrives in refreshes
+
+    private final PriceSeries full;
+
+    IndicatorCacheTest() {
+        Random random = new Random(17);
+        long[] dates = new long[ROWS];
+        double[][] prices = new double[4][ROWS]; // high, low, close, volume
+        double price = 50;
+        for (int i = 0; i < ROWS; i++) {
+            price = Math.max(1, price + random.nextGaussian());
+            dates[i] = 16_000 + i;
+            prices[0][i] = price + random.nextDouble();
+            prices[1][i] = price - random.nextDouble();
+            prices[2][i] = price;
+            prices[3][i] = 1_000 + random.nextInt(1_000);
+        }
+        full = new PriceSeries("AAA", dates, prices[2], prices[0], prices[1], prices[2], prices[2], prices[3],
+                new double[ROWS], false);
+    }
+
+    @BeforeEach
+    @AfterEach
+    void clear() {
+        IndicatorCache.clear();
+        Metrics.reset();
+    }
+
+    @Test
+    void appendedRowsContinueTheCachedColumns() {
+        PriceSeries refreshed = rows(0, STORED);
+        computeAll(refreshed);
+        Metrics.reset();
+        for (int from = STORED; from < ROWS; from += 80) { // refreshes of up to 80 bars, each followed by the strategies
+            refreshed = refreshed.append(rows(from, Math.min(ROWS, from + 80)));
+            computeAll(refreshed);
+        }
+
+        assertEquals(0, Metrics.getCount("indicators.cache.misses"), "a column was computed from the first row");
+        assertEquals(full.checksum(), refreshed.checksum());
+        assertMatchesFullRecompute(refreshed);
+    }
+
+    @Test
+    void savedColumnsAreContinuedAfterARestart(@TempDir Path folder) throws IOException {
+        PriceSeries stored = rows(0, STORED);
+        computeAll(stored);
+        computeAll(stored.append(rows(STORED, STORED + 10))); // a newer version of the same columns
+        Path file = folder.resolve(IndicatorCache.FILE_NAME);
+        IndicatorCache.save(file);
+        IndicatorCache.save(file); // replaces the file
+        IndicatorCache.clear();
+
+        IndicatorCache.load(file);
+        Metrics.reset();
+        PriceSeries restarted = rows(0, STORED + 10); // as read back from the price cache, not built by append
+        double[] sma = IndicatorCache.sma(restarted, 20);
+        assertSame(sma, IndicatorCache.sma(restarted, 20));
+        assertEquals(0, Metrics.getCount("indicators.cache.misses"), "the saved column was not found");
+
+        PriceSeries refreshed = restarted.append(rows(STORED + 10, ROWS));
+        assertMatchesFullRecompute(refreshed);
+        assertEquals(0, Metrics.getCount("indicators.cache.misses"), "a saved column was not continued");
+        assertEquals(7, Metrics.getCount("indicators.cache.extensions"));
+        assertEquals(7, count(file), "only the longest version of each column is saved");
+    }
+
+    @Test
+    void computesColumnsWithoutAStoredPrefix() {
+        PriceSeries refreshed = rows(0, STORED).append(rows(STORED, ROWS)); // nothing cached for the first rows
+        assertMatchesFullRecompute(refreshed);
+        assertEquals(7, Metrics.getCount("indicators.cache.misses"));
+        assertEquals(0, Metrics.getCount("indicators.cache.extensions"));
+    }
+
+    private void assertMatchesFullRecompute(PriceSeries series) {
+        assertArrayEquals(Indicators.sma(full.adjClose, 20), IndicatorCache.sma(series, 20), "SMA");
+        assertArrayEquals(Indicators.ema(full.adjClose, 12), IndicatorCache.ema(series, 12), "EMA");
+        assertArrayEquals(Indicators.rsi(full.adjClose, 14), IndicatorCache.rsi(series, 14), "RSI");
+        assertArrayEquals(Indicators.sma(full.volume, 20), IndicatorCache.averageVolume(series, 20), "volume");
+        assertArrayEquals(Indicators.atr(full.high, full.low, full.close, 7), IndicatorCache.atr(series, 7), "ATR");
+        assertArrayEquals(Indicators.rollingMax(full.high, 10), IndicatorCache.swingHigh(series, 10), "swing high");
+        assertArrayEquals(Indicators.rollingMin(full.low, 10), IndicatorCache.swingLow(series, 10), "swing low");
+    }
+
+    private static void computeAll(PriceSeries series) {
+        IndicatorCache.sma(series, 20);
+        IndicatorCache.ema(series, 12);
+        IndicatorCache.rsi(series, 14);
+        IndicatorCache.averageVolume(series, 20);
+        IndicatorCache.atr(series, 7);
+        IndicatorCache.swingHigh(series, 10);
+        IndicatorCache.swingLow(series, 10);
+    }
+
+    private PriceSeries rows(int from, int to) {
+        return new PriceSeries(full.ticker, Arrays.copyOfRange(full.dates, from, to),
+                Arrays.copyOfRange(full.open, from, to), Arrays.copyOfRange(full.high, from, to),
+                Arrays.copyOfRange(full.low, from, to), Arrays.copyOfRange(full.close, from, to),
+                Arrays.copyOfRange(full.adjClose, from, to), Arrays.copyOfRange(full.volume, from, to),
+                Arrays.copyOfRange(full.returns, from, to), false);
+    }
+
+    // The number of columns in a saved file, read from its header
+    private static int count(Path file) throws IOException {
+        byte[] header = Arrays.copyOf(Files.readAllBytes(file), 12);
+        return ByteBuffer.wrap(header).getInt(8);
+    }
+}
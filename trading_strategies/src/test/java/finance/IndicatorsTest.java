@@ -0,0 +1,212 @@
+package finance;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+// The incremental kernels against the windowed formulas the strategies computed bar by bar before
+
+class IndicatorsTest {
+
+    private static final int BARS = 2000;
+    private static final double TOLERANCE = 1e-9;
+
+    private final double[] closes = new double[BARS];
+    private final double[] highs = new double[BARS];
+    private final double[] lows = new double[BARS];
+
+    IndicatorsTest() {
+        Random random = new Random(42);
+        double price = 100;
+        for (int i = 0; i < BARS; i++) {
+            // flat stretches of five bars, so some windows have no gains or no losses
+            if (i % 50 < 45) price = Math.max(1, price + random.nextGaussian());
+            closes[i] = Math.round(price * 100) / 100.0;
+            highs[i] = closes[i] + random.nextDouble();
+            lows[i] = closes[i] - random.nextDouble();
+        }
+    }
+
+    @Test
+    void smaIsTheWindowAverage() {
+        for (int window : new int[] {1, 5, 20, 200}) {
+            double[] sma = Indicators.sma(closes, window);
+            for (int end = 0; end < BARS; end++) {
+                double expected = Double.NaN;
+                if (end + 1 >= window) {
+                    double sum = 0;
+                    for (int i = end + 1 - window; i <= end; i++) sum += closes[i];
+                    expected = sum / window;
+                }
+                assertClose(expected, sma[end], "SMA(" + window + ") at " + end);
+            }
+        }
+    }
+
+    @Test
+    void emaIsSeededWithTheFirstWindowAverage() {
+        for (int window : new int[] {1, 12, 26}) {
+            double[] ema = Indicators.ema(closes, window);
+            double multiplier = 2.0 / (window + 1);
+            Double previous = null;
+            for (int i = 0; i < BARS; i++) {
+                double expected = Double.NaN;
+                if (i >= window - 1) {
+                    if (previous == null) {
+                        double sum = 0;
+                        for (int j = 0; j < window; j++) sum += closes[j];
+                        previous = sum / window;
+                    } else {
+                        previous = (closes[i] - previous) * multiplier + previous;
+                    }
+                    expected = previous;
+                }
+                assertClose(expected, ema[i], "EMA(" + window + ") at " + i);
+            }
+        }
+    }
+
+    @Test
+    void rsiAveragesGainsAndLossesOverTheWindow() {
+        for (int window : new int[] {2, 14, 30}) {
+            double[] rsi = Indicators.rsi(closes, window);
+            for (int end = 0; end < BARS; end++) {
+                double expected = Double.NaN;
+                if (end + 1 >= window) {
+                    double gainSum = 0;
+                    double lossSum = 0;
+                    int gains = 0;
+                    int losses = 0;
+                    for (int i = Math.max(1, end + 1 - window); i <= end; i++) {
+                        double delta = closes[i] - closes[i - 1];
+                        if (delta > 0) {
+                            gainSum += delta;
+                            gains++;
+                        } else if (delta < 0) {
+                            lossSum -= delta;
+                            losses++;
+                        }
+                    }
+                    double gain = gains > 0 ? gainSum / gains : 0.0;
+                    double loss = losses > 0 ? lossSum / losses : 0.0;
+                    expected = loss == 0 ? 100.0 : 100 - 100 / (1 + gain / loss);
+                }
+                assertClose(expected, rsi[end], "RSI(" + window + ") at " + end);
+            }
+        }
+    }
+
+    @Test
+    void atrIsTheMeanTrueRange() {
+        for (int period : new int[] {1, 14}) {
+            double[] atr = Indicators.atr(highs, lows, closes, period);
+            for (int end = 0; end < BARS; end++) {
+                double expected = Double.NaN;
+                if (end >= period) {
+                    double sum = 0;
+                    for (int i = end + 1 - period; i <= end; i++) {
+                        double highLow = highs[i] - lows[i];
+                        double highClose = Math.abs(highs[i] - closes[i - 1]);
+                        double lowClose = Math.abs(lows[i] - closes[i - 1]);
+                        sum += Math.max(highLow, Math.max(highClose, lowClose));
+                    }
+                    expected = sum / period;
+                }
+                assertClose(expected, atr[end], "ATR(" + period + ") at " + end);
+            }
+        }
+    }
+
+    @Test
+    void rollingExtremesAreTheWindowMaxAndMin() {
+        for (int period : new int[] {1, 3, 50}) {
+            double[] max = Indicators.rollingMax(highs, period);
+            double[] min = Indicators.rollingMin(lows, period);
+            for (int end = 0; end < BARS; end++) {
+                double expectedMax = Double.NaN;
+                double expectedMin = Double.NaN;
+                if (end + 1 >= period) {
+                    expectedMax = Double.NEGATIVE_INFINITY;
+                    expectedMin = Double.POSITIVE_INFINITY;
+                    for (int i = end + 1 - period; i <= end; i++) {
+                        expectedMax = Math.max(expectedMax, highs[i]);
+                        expectedMin = Math.min(expectedMin, lows[i]);
+                    }
+                }
+                assertEquals(expectedMax, max[end], "max(" + period + ") at " + end);
+                assertEquals(expectedMin, min[end], "min(" + period + ") at " + end);
+            }
+        }
+    }
+
+    @Test
+    void resetStartsOver() {
+        Indicators.Rsi rsi = new Indicators.Rsi(14);
+        for (double close : closes) rsi.update(close);
+        rsi.reset();
+        double[] expected = Indicators.rsi(closes, 14);
+        for (int i = 0; i < 100; i++) assertEquals(expected[i], rsi.update(closes[i]), "RSI at " + i);
+    }
+
+    @Test
+    void resumesFromAWrittenState() throws IOException {
+        int split = 1234;
+        Indicators.Resumable[] kernels = {new Indicators.Sma(20), new Indicators.Ema(12), new Indicators.Wilder(14),
+                                          new Indicators.Rsi(14), new Indicators.Atr(7), Indicators.RollingExtreme.max(10)};
+        Indicators.Resumable[] resumed = {new Indicators.Sma(20), new Indicators.Ema(12), new Indicators.Wilder(14),
+                                          new Indicators.Rsi(14), new Indicators.Atr(7), Indicators.RollingExtreme.max(10)};
+        for (int i = 0; i < split; i++) {
+            for (Indicators.Resumable kernel : kernels) update(kernel, i);
+        }
+        for (int k = 0; k < kernels.length; k++) {
+            ByteArrayOutputStream state = new ByteArrayOutputStream();
+            kernels[k].writeState(new DataOutputStream(state));
+            resumed[k].readState(new DataInputStream(new ByteArrayInputStream(state.toByteArray())));
+        }
+        for (int i = split; i < BARS; i++) {
+            for (int k = 0; k < kernels.length; k++) {
+                assertEquals(update(kernels[k], i), update(resumed[k], i), kernels[k].getClass().getSimpleName() + " at " + i);
+            }
+        }
+    }
+
+    @Test
+    void readsStatesOnlyIntoTheSameWindow() throws IOException {
+        ByteArrayOutputStream state = new ByteArrayOutputStream();
+        new Indicators.Sma(20).writeState(new DataOutputStream(state));
+        assertThrows(IOException.class, () -> new Indicators.Sma(10).readState(
+                new DataInputStream(new ByteArrayInputStream(state.toByteArray()))));
+    }
+
+    @Test
+    void rejectsEmptyWindows() {
+        assertThrows(IllegalArgumentException.class, () -> new Indicators.Sma(0));
+        assertThrows(IllegalArgumentException.class, () -> Indicators.rollingMax(closes, -1));
+    }
+
+    private double update(Indicators.Resumable kernel, int i) {
+        if (kernel instanceof Indicators.Sma) return ((Indicators.Sma) kernel).update(closes[i]);
+        if (kernel instanceof Indicators.Ema) return ((Indicators.Ema) kernel).update(closes[i]);
+        if (kernel instanceof Indicators.Wilder) return ((Indicators.Wilder) kernel).update(closes[i]);
+        if (kernel instanceof Indicators.Rsi) return ((Indicators.Rsi) kernel).update(closes[i]);
+        if (kernel instanceof Indicators.Atr) return ((Indicators.Atr) kernel).update(highs[i], lows[i], closes[i]);
+        return ((Indicators.RollingExtreme) kernel).update(highs[i]);
+    }
+
+    private static void assertClose(double expected, double actual, String message) {
+        if (Double.isNaN(expected)) {
+            assertTrue(Double.isNaN(actual), message + ": expected NaN but was " + actual);
+        } else {
+            assertEquals(expected, actual, TOLERANCE * Math.max(1, Math.abs(expected)), message);
+        }
+    }
+}
@@ -0,0 +1,77 @@
+package finance;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.SplittableRandom;
+
+import org.junit.jupiter.api.Test;
+
+class LatencyHistogramTest {
+
+    @Test
+    void countsSmallValuesExactly() {
+        for (long value = 0; value < 128; value++) assertEquals(value, bucketTop(value));
+    }
+
+    @Test
+    void bucketsAreWithinOneSixtyFourthOfTheirValues() {
+        SplittableRandom random = new SplittableRandom(1);
+        long[] values = new long[10_000];
+        for (int i = 0; i < values.length; i++) values[i] = random.nextLong(128, Long.MAX_VALUE >> random.nextInt(0, 56));
+        long[] edges = {127, 128, 129, 255, 256, 257, 1L << 32, (1L << 32) - 1, Long.MAX_VALUE / 2, Long.MAX_VALUE - 1};
+
+        for (long[] set : new long[][] {values, edges}) {
+            for (long value : set) {
+                long top = bucketTop(value);
+                assertTrue(top >= value && top - value <= value / 64, value + " in a bucket up to " + top);
+                assertEquals(top, bucketTop(top), "the top of " + value + "'s bucket is in it");
+                if (top < Long.MAX_VALUE - 1) assertTrue(bucketTop(top + 1) > top, "the bucket after " + top);
+            }
+        }
+    }
+
+    @Test
+    void percentilesRankTheRecordedValues() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (long value = 1; value <= 100; value++) histogram.record(value);
+        assertEquals(1, histogram.getValueAtPercentile(0));
+        assertEquals(50, histogram.getValueAtPercentile(50));
+        assertEquals(99, histogram.getValueAtPercentile(99));
+        assertEquals(100, histogram.getValueAtPercentile(100));
+        assertEquals(50.5, histogram.getMean());
+
+        histogram.record(1_000_000);
+        assertEquals(1_000_000, histogram.getValueAtPercentile(100), "never above the maximum");
+        histogram.record(-5);
+        assertEquals(0, histogram.getMin(), "negative values count as 0");
+    }
+
+    @Test
+    void addCombinesHistograms() {
+        LatencyHistogram left = new LatencyHistogram();
+        LatencyHistogram right = new LatencyHistogram();
+        for (long value = 1; value <= 50; value++) left.record(value);
+        for (long value = 51; value <= 100; value++) right.record(value);
+        left.add(right);
+        assertEquals(100, left.getCount());
+        assertEquals(1, left.getMin());
+        assertEquals(100, left.getMax());
+        assertEquals(90, left.getValueAtPercentile(90));
+
+        left.reset();
+        assertEquals(0, left.getCount());
+        assertEquals(0, left.getMin());
+        assertEquals(0, left.getValueAtPercentile(50));
+    }
+
+    /**
+     * The highest value of the bucket a value falls in, as the percentiles report it.
+     */
+    private static long bucketTop(long value) {
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(value);
+        histogram.record(Long.MAX_VALUE); // a maximum that does not cap the bucket's value
+        return histogram.getValueAtPercentile(50);
+    }
+}
@@ -0,0 +1,66 @@
+package finance;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+class MonteCarloTest {
+
+    private final double[] returns = new double[750];
+
+    MonteCarloTest() {
+        Random random = new Random(5);
+        for (int i = 0; i < returns.length; i++) returns[i] = 0.0003 + 0.01 * random.nextGaussian();
+    }
+
+    @Test
+    void theSeedAloneDecidesThePaths() {
+        // more paths than one chunk, so several generators run on several threads
+        MonteCarlo.Report serial = MonteCarlo.run(returns, 3000, 10, 42, 1);
+        MonteCarlo.Report parallel = MonteCarlo.run(returns, 3000, 10, 42, 4);
+        assertArrayEquals(serial.sharpeRatios, parallel.sharpeRatios);
+        assertArrayEquals(serial.totalReturns, parallel.totalReturns);
+        assertArrayEquals(serial.maxDrawdowns, parallel.maxDrawdowns);
+
+        MonteCarlo.Report reseeded = MonteCarlo.run(returns, 3000, 10, 43, 4);
+        assertFalse(Arrays.equals(serial.totalReturns, reseeded.totalReturns));
+    }
+
+    @Test
+    void endlessBlocksRotateTheHistory() {
+        // one block per path, starting anywhere and wrapping around: the same returns in rotated order
+        PerformanceStats stats = new PerformanceStats(1.0);
+        double balance = 1.0;
+        for (double dailyReturn : returns) {
+            stats.addReturn(dailyReturn);
+            balance += balance * dailyReturn;
+        }
+
+        MonteCarlo.Report report = MonteCarlo.run(returns, 200, Double.POSITIVE_INFINITY, 7, 2);
+        for (int path = 0; path < report.paths; path++) {
+            assertEquals(balance - 1.0, report.totalReturns[path], 1e-9);
+            assertEquals(stats.getSharpeRatio(), report.sharpeRatios[path], 1e-9);
+        }
+    }
+
+    @Test
+    void percentilesAreReadFromTheSortedPaths() {
+        MonteCarlo.Report report = MonteCarlo.run(returns, 1000, 5, 1, 2);
+        for (int i = 1; i < report.paths; i++) assertFalse(report.totalReturns[i] < report.totalReturns[i - 1]);
+        assertEquals(report.totalReturns[0], MonteCarlo.Report.percentile(report.totalReturns, 0));
+        assertEquals(report.totalReturns[report.paths - 1], MonteCarlo.Report.percentile(report.totalReturns, 100));
+    }
+
+    @Test
+    void rejectsInvalidRuns() {
+        assertThrows(IllegalArgumentException.class, () -> MonteCarlo.run(new double[0], 10, 5, 1, 1));
+        assertThrows(IllegalArgumentException.class, () -> MonteCarlo.run(returns, 0, 5, 1, 1));
+        assertThrows(IllegalArgumentException.class, () -> MonteCarlo.run(returns, 10, 0.5, 1, 1));
+    }
+}
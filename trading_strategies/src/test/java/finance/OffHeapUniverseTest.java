@@ -0,0 +1,83 @@
+package finance;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+// A universe mapped from the price cache and one copied from loaded series, against the heap series
+
+class OffHeapUniverseTest {
+
+    private final List<PriceSeries> seriesList = Arrays.asList(
+            PriceCacheTest.series("GAPS", new long[] {18_000, 18_001, 18_004, 18_005, 18_009}, false),
+            PriceCacheTest.series("EMPTY", new long[0], false),
+            PriceCacheTest.series("DAYFIRST", new long[] {17_000, 17_001, 17_002}, true));
+
+    @Test
+    void mappedUniverseHoldsTheSeriesValues(@TempDir Path folder) throws IOException {
+        Path cacheFile = folder.resolve(PriceCache.FILE_NAME);
+        PriceCache.write(cacheFile, seriesList);
+        assertHoldsTheSeries(OffHeapUniverse.map(cacheFile));
+    }
+
+    @Test
+    void copiedUniverseHoldsTheSeriesValues() {
+        assertHoldsTheSeries(OffHeapUniverse.copyOf(seriesList));
+    }
+
+    @Test
+    void rowOfFindsTheFirstDateNotBefore() {
+        OffHeapUniverse universe = OffHeapUniverse.copyOf(seriesList);
+        int t = universe.indexOf("GAPS");
+        assertEquals(0, universe.rowOf(t, 17_000));
+        assertEquals(0, universe.rowOf(t, 18_000));
+        assertEquals(1, universe.rowOf(t, 18_001));
+        assertEquals(2, universe.rowOf(t, 18_002)); // between two rows
+        assertEquals(4, universe.rowOf(t, 18_009));
+        assertEquals(5, universe.rowOf(t, 18_010)); // after the last date
+        assertEquals(0, universe.rowOf(universe.indexOf("EMPTY"), 18_000));
+        assertEquals(-1, universe.indexOf("MISSING"));
+    }
+
+    private void assertHoldsTheSeries(OffHeapUniverse universe) {
+        assertEquals(seriesList.size(), universe.size());
+        for (int t = 0; t < seriesList.size(); t++) {
+            PriceSeries expected = seriesList.get(t);
+            assertEquals(expected.ticker, universe.ticker(t));
+            assertEquals(t, universe.indexOf(expected.ticker));
+            assertEquals(expected.isDayFirst(), universe.isDayFirst(t));
+            assertEquals(expected.size(), universe.rows(t));
+            for (int row = 0; row < expected.size(); row++) {
+                assertEquals(expected.dates[row], universe.date(t, row));
+                assertEquals(expected.open[row], universe.open(t, row));
+                assertEquals(expected.high[row], universe.high(t, row));
+                assertEquals(expected.low[row], universe.low(t, row));
+                assertEquals(expected.close[row], universe.close(t, row));
+                assertEquals(expected.adjClose[row], universe.adjClose(t, row));
+                assertEquals(expected.volume[row], universe.volume(t, row));
+                assertEquals(expected.returns[row], universe.returns(t, row)); // NaN equals NaN here
+                assertEquals(expected.close[row], universe.value(OffHeapUniverse.CLOSE, t, row));
+            }
+
+            PriceSeries copy = universe.toSeries(t);
+            assertEquals(expected.ticker, copy.ticker);
+            assertEquals(expected.isDayFirst(), copy.isDayFirst());
+            assertArrayEquals(expected.dates, copy.dates);
+            assertArrayEquals(expected.open, copy.open);
+            assertArrayEquals(expected.high, copy.high);
+            assertArrayEquals(expected.low, copy.low);
+            assertArrayEquals(expected.close, copy.close);
+            assertArrayEquals(expected.adjClose, copy.adjClose);
+            assertArrayEquals(expected.volume, copy.volume);
+            assertArrayEquals(expected.returns, copy.returns);
+            assertEquals(expected.checksum(), copy.checksum());
+        }
+    }
+}
@@ -0,0 +1,30 @@
+package finance;
+
+import static org.junit.jupiter.api.Assertions.assertDoesNotThrow;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import org.junit.jupiter.api.Test;
+
+class ParameterSweepTest {
+
+    @Test
+    void acceptsTheStrategysOwnParameters() {
+        assertDoesNotThrow(() -> ParameterSweep.validate("ma", ParameterGrid.parse("shortWindow=3,5;longWindow=20")));
+        assertDoesNotThrow(() -> ParameterSweep.validate("ema-rsi-volume", ParameterGrid.parse("rsiWindow=7,14;volumeWindow=10")));
+        assertDoesNotThrow(() -> ParameterSweep.validate("fib", ParameterGrid.parse("atrPeriod=7,14;initialBalance=50000")));
+    }
+
+    @Test
+    void rejectsParametersOfOtherStrategies() {
+        assertThrows(IllegalArgumentException.class, () -> ParameterSweep.validate("ma", ParameterGrid.parse("atrPeriod=7,14")));
+        assertThrows(IllegalArgumentException.class, () -> ParameterSweep.validate("ma", ParameterGrid.parse("initialBalance=1000,2000")));
+        assertThrows(IllegalArgumentException.class, () -> ParameterSweep.validate("ema", ParameterGrid.parse("rsiWindow=7")));
+        assertThrows(IllegalArgumentException.class, () -> ParameterSweep.validate("fib", ParameterGrid.parse("shortWindow=5")));
+    }
+
+    @Test
+    void rejectsUnknownStrategiesAndParameters() {
+        assertThrows(IllegalArgumentException.class, () -> ParameterSweep.validate("macd", ParameterGrid.parse("shortWindow=5")));
+        assertThrows(IllegalArgumentException.class, () -> ParameterSweep.validate("ma", ParameterGrid.parse("window=5")));
+    }
+}
@@ -0,0 +1,64 @@
+package finance;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+// Largest-Triangle-Three-Buckets downsampling of the chart's curves
+
+class PnLChartTest {
+
+    @Test
+    void keepsEveryPointUpToTheThreshold() {
+        long[] x = {1, 2, 3, 4, 5, 0, 0};
+        double[] y = {1, 5, 2, 4, 3, 0, 0};
+        assertArrayEquals(new int[] {0, 1, 2, 3, 4}, PnLChart.downsample(x, y, 5, 5));
+        assertArrayEquals(new int[] {0, 1, 2, 3, 4}, PnLChart.downsample(x, y, 5, 800));
+        assertArrayEquals(new int[] {0, 1, 2, 3, 4}, PnLChart.downsample(x, y, 5, 2)); // too few to pick from
+        assertArrayEquals(new int[0], PnLChart.downsample(x, y, 0, 800));
+    }
+
+    @Test
+    void picksOnePointPerBucketBetweenTheEnds() {
+        int size = 10_000;
+        long[] x = new long[size];
+        double[] y = new double[size];
+        Random random = new Random(9);
+        for (int i = 0; i < size; i++) {
+            x[i] = 18_000 + i;
+            y[i] = (i > 0 ? y[i - 1] : 0) + random.nextGaussian();
+        }
+
+        for (int threshold : new int[] {3, 100, 799, 9_999}) {
+            int[] sampled = PnLChart.downsample(x, y, size, threshold);
+            assertEquals(threshold, sampled.length);
+            assertEquals(0, sampled[0]);
+            assertEquals(size - 1, sampled[threshold - 1]);
+            double bucketSize = (double) (size - 2) / (threshold - 2);
+            for (int k = 1; k < threshold - 1; k++) {
+                int start = (int) ((k - 1) * bucketSize) + 1;
+                int end = (int) (k * bucketSize) + 1;
+                assertTrue(sampled[k] >= start && sampled[k] < end, "point " + k + " outside its bucket");
+            }
+        }
+    }
+
+    @Test
+    void keepsIsolatedPeaksAndTroughs() {
+        int size = 5_000;
+        long[] x = new long[size];
+        double[] y = new double[size];
+        for (int i = 0; i < size; i++) x[i] = i;
+        y[1234] = 100;
+        y[3210] = -80;
+
+        int[] sampled = PnLChart.downsample(x, y, size, 50);
+        assertTrue(Arrays.binarySearch(sampled, 1234) >= 0, "the peak was dropped");
+        assertTrue(Arrays.binarySearch(sampled, 3210) >= 0, "the trough was dropped");
+    }
+}
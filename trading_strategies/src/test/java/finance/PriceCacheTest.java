@@ -0,0 +1,130 @@
+package finance;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+// Series written to the binary price cache and read back, whole and by date range
+
+class PriceCacheTest {
+
+    private final PriceSeries gaps = series("GAPS", new long[] {18_000, 18_001, 18_004, 18_005, 18_009}, false);
+    private final PriceSeries empty = series("EMPTY", new long[0], false);
+    private final PriceSeries dayFirst = series("DAYFIRST", new long[] {17_000, 17_001, 17_002}, true);
+    private final List<PriceSeries> written = Arrays.asList(gaps, empty, dayFirst);
+
+    @Test
+    void readsEveryColumnBackInOrder(@TempDir Path folder) throws IOException {
+        Path cacheFile = folder.resolve(PriceCache.FILE_NAME);
+        PriceCache.write(cacheFile, written);
+
+        Map<String, PriceSeries> read = PriceCache.read(cacheFile);
+        assertEquals(Arrays.asList("GAPS", "EMPTY", "DAYFIRST"), new ArrayList<>(read.keySet()));
+        Iterator<PriceSeries> expected = written.iterator();
+        for (PriceSeries series : read.values()) {
+            assertSameRows(expected.next(), series, 0);
+        }
+        assertTrue(Double.isNaN(read.get("GAPS").returns[0]));
+        assertEquals(0, read.get("EMPTY").size());
+        assertTrue(read.get("DAYFIRST").isDayFirst());
+    }
+
+    @Test
+    void readsTheRowsOfADateRange(@TempDir Path folder) throws IOException {
+        Path cacheFile = folder.resolve(PriceCache.FILE_NAME);
+        PriceCache.write(cacheFile, written);
+
+        assertRange(cacheFile, 18_000, 18_009, 0, 5); // exactly the stored dates
+        assertRange(cacheFile, 17_990, 18_020, 0, 5); // wider on both sides
+        assertRange(cacheFile, 18_001, 18_005, 1, 4);
+        assertRange(cacheFile, 18_002, 18_003, 2, 2); // between two rows
+        assertRange(cacheFile, 18_002, 18_004, 2, 3);
+        assertRange(cacheFile, 18_009, 18_009, 4, 5);
+        assertRange(cacheFile, 17_000, 17_999, 0, 0); // before the first date
+        assertRange(cacheFile, 18_010, 18_100, 0, 0); // after the last date
+
+        assertEquals(0, PriceCache.read(cacheFile, "EMPTY", 0, Long.MAX_VALUE).size());
+        assertNull(PriceCache.read(cacheFile, "MISSING", 0, Long.MAX_VALUE));
+    }
+
+    @Test
+    void writesAnEmptyUniverse(@TempDir Path folder) throws IOException {
+        Path cacheFile = folder.resolve(PriceCache.FILE_NAME);
+        PriceCache.write(cacheFile, new ArrayList<PriceSeries>());
+        assertTrue(PriceCache.read(cacheFile).isEmpty());
+        assertTrue(PriceCache.isUpToDate(cacheFile, new File[0]));
+    }
+
+    @Test
+    void isUpToDateOnlyForTheSameNewerTickers(@TempDir Path folder) throws IOException {
+        Path cacheFile = folder.resolve(PriceCache.FILE_NAME);
+        File[] csvFiles = {csvFile(folder, "GAPS"), csvFile(folder, "EMPTY"), csvFile(folder, "DAYFIRST")};
+        assertFalse(PriceCache.isUpToDate(cacheFile, csvFiles)); // not written yet
+
+        PriceCache.write(cacheFile, written);
+        assertTrue(cacheFile.toFile().setLastModified(csvFiles[0].lastModified() + 10_000));
+        assertTrue(PriceCache.isUpToDate(cacheFile, csvFiles));
+        assertFalse(PriceCache.isUpToDate(cacheFile, Arrays.copyOf(csvFiles, 2)));
+        assertFalse(PriceCache.isUpToDate(cacheFile, new File[] {csvFiles[0], csvFiles[1], csvFile(folder, "OTHER")}));
+
+        assertTrue(csvFiles[1].setLastModified(cacheFile.toFile().lastModified() + 10_000));
+        assertFalse(PriceCache.isUpToDate(cacheFile, csvFiles)); // a CSV file changed after the cache
+
+        Files.write(cacheFile, new byte[] {1, 2, 3});
+        assertFalse(PriceCache.isUpToDate(cacheFile, csvFiles)); // not a cache file
+    }
+
+    private void assertRange(Path cacheFile, long fromEpochDay, long toEpochDay, int from, int to) throws IOException {
+        PriceSeries range = PriceCache.read(cacheFile, "GAPS", fromEpochDay, toEpochDay);
+        assertEquals(to - from, range.size(), "rows of [" + fromEpochDay + ", " + toEpochDay + "]");
+        assertSameRows(gaps, range, from);
+    }
+
+    // Compares every column of actual with the rows of expected starting at from
+    private static void assertSameRows(PriceSeries expected, PriceSeries actual, int from) {
+        int to = from + actual.size();
+        assertEquals(expected.ticker, actual.ticker);
+        assertEquals(expected.isDayFirst(), actual.isDayFirst());
+        assertArrayEquals(Arrays.copyOfRange(expected.dates, from, to), actual.dates);
+        assertArrayEquals(Arrays.copyOfRange(expected.open, from, to), actual.open);
+        assertArrayEquals(Arrays.copyOfRange(expected.high, from, to), actual.high);
+        assertArrayEquals(Arrays.copyOfRange(expected.low, from, to), actual.low);
+        assertArrayEquals(Arrays.copyOfRange(expected.close, from, to), actual.close);
+        assertArrayEquals(Arrays.copyOfRange(expected.adjClose, from, to), actual.adjClose);
+        assertArrayEquals(Arrays.copyOfRange(expected.volume, from, to), actual.volume);
+        assertArrayEquals(Arrays.copyOfRange(expected.returns, from, to), actual.returns); // NaN equals NaN here
+    }
+
+    private static File csvFile(Path folder, String ticker) throws IOException {
+        return Files.write(folder.resolve(ticker + ".csv"), new byte[0]).toFile();
+    }
+
+    // Distinct values in every column, with the first returns value NULL as in a freshly processed file
+    static PriceSeries series(String ticker, long[] dates, boolean dayFirst) {
+        int rows = dates.length;
+        double[][] columns = new double[7][rows];
+        for (int row = 0; row < rows; row++) {
+            for (int c = 0; c < 7; c++) {
+                columns[c][row] = 100 * (c + 1) + row + 0.25;
+            }
+        }
+        if (rows > 0) columns[6][0] = Double.NaN;
+        return new PriceSeries(ticker, dates, columns[0], columns[1], columns[2], columns[3], columns[4],
+                columns[5], columns[6], dayFirst);
+    }
+}
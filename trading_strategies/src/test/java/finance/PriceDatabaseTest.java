@@ -0,0 +1,180 @@
+package finance;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.LocalDate;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+// PriceDatabase against an in-memory H2 database in MySQL mode
+
+class PriceDatabaseTest {
+
+    private static final AtomicInteger DATABASES = new AtomicInteger();
+    private static final long FIRST_DAY = LocalDate.of(2015, 1, 2).toEpochDay();
+    private static final int ROWS = 2500; // more than two batches
+
+    private String url;
+    private PriceDatabase database;
+
+    @BeforeEach
+    void open() throws SQLException {
+        url = "jdbc:h2:mem:trading" + DATABASES.incrementAndGet() + ";MODE=MySQL;DB_CLOSE_DELAY=-1";
+        database = PriceDatabase.open(url, "sa", "", 4);
+    }
+
+    @AfterEach
+    void close() throws SQLException {
+        database.close();
+        try (Connection connection = DriverManager.getConnection(url, "sa", "");
+             Statement statement = connection.createStatement()) {
+            statement.execute("SHUTDOWN");
+        }
+    }
+
+    @Test
+    void createsTheSchemaOnce() throws SQLException {
+        assertEquals(Collections.emptyList(), database.tickers());
+        database.saveBars(series("AAA", 0, 10, 1.0));
+        try (PriceDatabase reopened = PriceDatabase.open(url, "sa", "", 1)) { // tables exist already
+            assertEquals(Collections.singletonList("AAA"), reopened.tickers());
+        }
+    }
+
+    @Test
+    void roundTripsBarsInBatches() throws SQLException {
+        PriceSeries series = series("AAA", 0, ROWS, 1.0);
+        database.saveBars(series);
+        assertEquals(ROWS, count("SELECT COUNT(*) FROM bars"));
+
+        PriceSeries loaded = database.loadBars("AAA", day(0), day(ROWS - 1));
+        assertSameBars(series, loaded);
+        assertTrue(Double.isNaN(loaded.returns[0]), "a NULL return reads back as NaN");
+
+        PriceSeries slice = database.loadBars("AAA", day(100), day(199));
+        assertEquals(100, slice.size());
+        assertEquals(series.dates[100], slice.dates[0]);
+        assertEquals(series.close[199], slice.close[99]);
+    }
+
+    @Test
+    void savesTickersInParallel() throws SQLException {
+        database.saveBars(Arrays.asList(series("CCC", 0, 300, 3.0), series("AAA", 0, 300, 1.0), series("BBB", 50, 300, 2.0)));
+        assertEquals(Arrays.asList("AAA", "BBB", "CCC"), database.tickers());
+        assertEquals(900, count("SELECT COUNT(*) FROM bars"));
+    }
+
+    @Test
+    void resavingReplacesTheSavedDateRange() throws SQLException {
+        database.saveBars(series("AAA", 0, ROWS, 1.0));
+
+        // rows 100 to 199 again at other prices, without row 150
+        PriceSeries update = series("AAA", 100, 100, 5.0);
+        long[] dates = new long[99];
+        double[] prices = new double[99];
+        for (int i = 0, j = 0; i < update.size(); i++) {
+            if (i == 50) continue;
+            dates[j] = update.dates[i];
+            prices[j++] = update.close[i];
+        }
+        database.saveBars(new PriceSeries("AAA", dates, prices, prices, prices, prices, prices, prices, prices, false));
+
+        PriceSeries loaded = database.loadBars("AAA", day(0), day(ROWS - 1));
+        assertEquals(ROWS - 1, loaded.size());
+        assertEquals(1.0 + 99 * 0.01, loaded.close[99]);
+        assertEquals(update.close[0], loaded.close[100]);
+        assertEquals(day(151).toEpochDay(), loaded.dates[150]); // row 150 is gone
+        assertEquals(1.0 + 200 * 0.01, loaded.close[199]);
+    }
+
+    @Test
+    void loadsPositionsNeutralWhereNoneAreStored() throws SQLException {
+        PriceSeries series = series("AAA", 0, ROWS, 1.0);
+        database.saveBars(series);
+
+        byte[] positions = new byte[1500];
+        for (int i = 0; i < positions.length; i++) positions[i] = (byte) (i % 3 - 1);
+        database.savePositions("ma", series("AAA", 0, 1500, 1.0).withSignals(Collections.emptyMap(), positions));
+        database.savePositions("ema", series); // no positions, skipped
+
+        PriceSeries loaded = database.loadPositions("ma", "AAA", day(0), day(ROWS - 1));
+        assertSameBars(series, loaded);
+        assertArrayEquals(positions, Arrays.copyOf(loaded.positions, 1500));
+        for (int i = 1500; i < ROWS; i++) assertEquals(PriceSeries.NEUTRAL, loaded.positions[i]);
+
+        byte[] none = database.loadPositions("ema", "AAA", day(0), day(ROWS - 1)).positions;
+        assertArrayEquals(new byte[ROWS], none);
+
+        // saving again replaces the range
+        byte[] flat = new byte[1500];
+        database.savePositions("ma", series("AAA", 0, 1500, 1.0).withSignals(Collections.emptyMap(), flat));
+        assertArrayEquals(new byte[ROWS], database.loadPositions("ma", "AAA", day(0), day(ROWS - 1)).positions);
+        assertEquals(1500, count("SELECT COUNT(*) FROM positions"));
+    }
+
+    @Test
+    void storesBacktestResults() throws SQLException {
+        Map<String, Double> parameters = new HashMap<>();
+        parameters.put("shortWindow", 5.0);
+        PerformanceStats stats = new PerformanceStats(100);
+        stats.addReturn(0.01);
+        stats.setFinalBalance(101);
+        database.saveResult("ma", parameters, stats);
+        database.saveResult("ma", Collections.emptyMap(), new PerformanceStats(100)); // NaN metrics as NULL
+
+        assertEquals(2, count("SELECT COUNT(*) FROM backtest_results"));
+        assertEquals(1, count("SELECT COUNT(*) FROM backtest_results WHERE parameters = 'shortWindow=5'"));
+    }
+
+    private int count(String sql) throws SQLException {
+        try (Connection connection = DriverManager.getConnection(url, "sa", "");
+             Statement statement = connection.createStatement();
+             ResultSet rows = statement.executeQuery(sql)) {
+            rows.next();
+            return rows.getInt(1);
+        }
+    }
+
+    /**
+     * Consecutive days from FIRST_DAY + from, prices rising by 0.01 a day from base + from * 0.01.
+     */
+    private static PriceSeries series(String ticker, int from, int rows, double base) {
+        long[] dates = new long[rows];
+        double[] close = new double[rows];
+        double[] volume = new double[rows];
+        double[] returns = new double[rows];
+        for (int i = 0; i < rows; i++) {
+            dates[i] = FIRST_DAY + from + i;
+            close[i] = base + (from + i) * 0.01;
+            volume[i] = 1000 + i;
+            returns[i] = i == 0 ? Double.NaN : close[i] / close[i - 1] - 1;
+        }
+        return new PriceSeries(ticker, dates, close, close, close, close, close, volume, returns, false);
+    }
+
+    private static LocalDate day(int row) {
+        return LocalDate.ofEpochDay(FIRST_DAY + row);
+    }
+
+    private static void assertSameBars(PriceSeries expected, PriceSeries actual) {
+        assertArrayEquals(expected.dates, actual.dates);
+        assertArrayEquals(expected.open, actual.open);
+        assertArrayEquals(expected.close, actual.close);
+        assertArrayEquals(expected.volume, actual.volume);
+        assertArrayEquals(expected.returns, actual.returns);
+    }
+}
@@ -0,0 +1,71 @@
+package finance;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.util.Random;
+import java.util.TreeSet;
+
+import org.junit.jupiter.api.Test;
+
+class TradingCalendarTest {
+
+    @Test
+    void mergesTheDatesOfEveryTicker() {
+        long[][] tickerDates = {
+                {3, 5, 8},
+                {1, 5, 9, 10},
+                {},
+                {8},
+        };
+        TradingCalendar calendar = TradingCalendar.of(tickerDates);
+        assertArrayEquals(new long[] {1, 3, 5, 8, 9, 10}, calendar.dates());
+        assertEquals(6, calendar.size());
+        assertEquals(8, calendar.date(3));
+        assertArrayEquals(new int[] {1, 2, 3}, calendar.offsets(0));
+        assertArrayEquals(new int[] {0, 2, 4, 5}, calendar.offsets(1));
+        assertArrayEquals(new int[0], calendar.offsets(2));
+        assertArrayEquals(new int[] {3}, calendar.offsets(3));
+    }
+
+    @Test
+    void offsetsPointAtEachRowsDate() {
+        Random random = new Random(3);
+        long[][] tickerDates = new long[37][];
+        TreeSet<Long> union = new TreeSet<>();
+        for (int t = 0; t < tickerDates.length; t++) {
+            tickerDates[t] = new long[random.nextInt(300)];
+            long date = 18_000 + random.nextInt(100);
+            for (int row = 0; row < tickerDates[t].length; row++) {
+                date += random.nextInt(4); // some dates repeat
+                tickerDates[t][row] = date;
+                union.add(date);
+            }
+        }
+
+        TradingCalendar calendar = TradingCalendar.of(tickerDates);
+        assertArrayEquals(union.stream().mapToLong(Long::longValue).toArray(), calendar.dates());
+        for (int t = 0; t < tickerDates.length; t++) {
+            int[] offsets = calendar.offsets(t);
+            for (int row = 0; row < tickerDates[t].length; row++) {
+                assertEquals(tickerDates[t][row], calendar.date(offsets[row]), "ticker " + t + " row " + row);
+            }
+        }
+    }
+
+    @Test
+    void neverSharesATickersArray() {
+        long[] dates = {1, 2, 3};
+        assertNotSame(dates, TradingCalendar.of(new long[][] {dates}).dates());
+        assertEquals(0, TradingCalendar.of(new long[0][]).size());
+    }
+
+    @Test
+    void rejectsDescendingDates() {
+        IllegalStateException e = assertThrows(IllegalStateException.class,
+                () -> TradingCalendar.of(new long[][] {{1, 2}, {5, 4}}));
+        assertEquals("Dates of ticker 1 are not in ascending order", e.getMessage());
+    }
+}
@@ -0,0 +1,173 @@
+package finance;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTimeoutPreemptively;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import okhttp3.OkHttpClient;
+import okhttp3.mockwebserver.Dispatcher;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+// fetchStockDataAsync against a local MockWebServer standing in for the history API
+
+class YHFinanceDataFetcherTest {
+
+    private static final String HISTORY = "{\"meta\":{\"symbol\":\"X\"},\"body\":{"
+            + "\"1\":{\"date\":\"03-01-2023\",\"open\":1.5,\"high\":2,\"low\":1,\"close\":1.75,\"adjclose\":1.7,\"volume\":100},"
+            + "\"2\":{\"date\":\"04-01-2023\",\"open\":1.75,\"high\":2.5,\"low\":1.5,\"close\":2,\"adjclose\":1.9,\"volume\":200}}}";
+
+    private final MockWebServer server = new MockWebServer();
+    private final OkHttpClient client = new OkHttpClient();
+
+    @BeforeEach
+    void start() throws IOException {
+        Files.createDirectories(Paths.get("data"));
+        server.start();
+    }
+
+    @AfterEach
+    void stop() throws IOException {
+        server.shutdown();
+        client.dispatcher().executorService().shutdown();
+        client.connectionPool().evictAll();
+    }
+
+    @Test
+    void savesTheBarsOfEveryTicker() throws Exception {
+        server.enqueue(new MockResponse().setBody(HISTORY));
+        fetch(new String[] {"SAVE"}, 1, 0);
+
+        RecordedRequest request = server.takeRequest();
+        assertEquals("SAVE", request.getRequestUrl().queryParameter("symbol"));
+        assertEquals("1d", request.getRequestUrl().queryParameter("interval"));
+        assertEquals(Arrays.asList("Date,Open Price,High Price,Low Price,Close Price,Adjusted Close,Volume",
+                                   "03-01-2023,1.5,2,1,1.75,1.7,100",
+                                   "04-01-2023,1.75,2.5,1.5,2,1.9,200"), lines("SAVE"));
+    }
+
+    @Test
+    void retriesTooManyRequestsAndServerErrors() throws Exception {
+        server.enqueue(new MockResponse().setResponseCode(429).setHeader("Retry-After", "0"));
+        server.enqueue(new MockResponse().setResponseCode(503));
+        server.enqueue(new MockResponse().setBody(HISTORY));
+        fetch(new String[] {"RETRY"}, 1, 2);
+
+        assertEquals(3, server.getRequestCount());
+        assertEquals(3, lines("RETRY").size());
+    }
+
+    @Test
+    void givesUpAfterMaxRetries() throws Exception {
+        server.enqueue(new MockResponse().setResponseCode(500));
+        server.enqueue(new MockResponse().setResponseCode(500));
+        server.enqueue(new MockResponse().setBody(HISTORY)); // never requested
+        fetch(new String[] {"GIVEUP"}, 1, 1);
+
+        assertEquals(2, server.getRequestCount());
+        assertFalse(Files.exists(csv("GIVEUP")));
+    }
+
+    @Test
+    void doesNotRetryClientErrors() throws Exception {
+        server.enqueue(new MockResponse().setResponseCode(404));
+        fetch(new String[] {"MISSING"}, 1, 3);
+
+        assertEquals(1, server.getRequestCount());
+        assertFalse(Files.exists(csv("MISSING")));
+    }
+
+    @Test
+    void waitsAtLeastRetryAfterSeconds() throws Exception {
+        server.enqueue(new MockResponse().setResponseCode(429).setHeader("Retry-After", "2"));
+        server.enqueue(new MockResponse().setBody(HISTORY));
+        long start = System.nanoTime();
+        fetch(new String[] {"WAIT"}, 1, 1);
+
+        assertEquals(2, server.getRequestCount());
+        assertTrue(System.nanoTime() - start >= TimeUnit.SECONDS.toNanos(2), "retried before Retry-After");
+    }
+
+    @Test
+    void retriesMalformedBodies() throws Exception {
+        server.enqueue(new MockResponse().setBody("{\"body\": {\"1\": {\"date\": "));
+        server.enqueue(new MockResponse().setBody(HISTORY));
+        fetch(new String[] {"MALFORMED"}, 1, 1);
+
+        assertEquals(2, server.getRequestCount());
+        assertEquals(3, lines("MALFORMED").size());
+        assertFalse(Files.exists(Paths.get("data/temp_MALFORMED.csv")));
+    }
+
+    @Test
+    void finishesWhenTheLastAttemptIsMalformed() throws Exception {
+        server.enqueue(new MockResponse().setBody("not json"));
+        server.enqueue(new MockResponse().setBody("{\"body\": {\"1\": 5}}")); // a bar that is not an object
+        fetch(new String[] {"BROKEN", "WRONGSHAPE"}, 2, 0);
+
+        assertEquals(2, server.getRequestCount());
+        assertFalse(Files.exists(csv("BROKEN")));
+        assertFalse(Files.exists(csv("WRONGSHAPE")));
+    }
+
+    @Test
+    void keepsAtMostMaxConcurrentRequestsInFlight() throws Exception {
+        AtomicInteger active = new AtomicInteger();
+        AtomicInteger maxActive = new AtomicInteger();
+        server.setDispatcher(new Dispatcher() {
+            @Override
+            public MockResponse dispatch(RecordedRequest request) throws InterruptedException {
+                maxActive.accumulateAndGet(active.incrementAndGet(), Math::max);
+                Thread.sleep(50);
+                active.decrementAndGet();
+                return new MockResponse().setBody(HISTORY);
+            }
+        });
+        String[] tickers = new String[12];
+        for (int t = 0; t < tickers.length; t++) tickers[t] = "CAP" + t;
+        fetch(tickers, 3, 0);
+
+        assertEquals(tickers.length, server.getRequestCount());
+        assertTrue(maxActive.get() <= 3, "up to " + maxActive.get() + " requests in flight");
+        for (String ticker : tickers) assertEquals(3, lines(ticker).size());
+    }
+
+    /**
+     * Runs a fetch, failing the test if it does not return, e.g. because a ticker never finished.
+     */
+    private void fetch(String[] tickers, int maxConcurrent, int maxRetries) {
+        for (String ticker : tickers) {
+            try {
+                Files.deleteIfExists(csv(ticker));
+            } catch (IOException e) {
+                throw new AssertionError(e);
+            }
+        }
+        String baseUrl = server.url("/api/v1/markets/stock/history").toString();
+        assertTimeoutPreemptively(Duration.ofSeconds(30), () -> YHFinanceDataFetcher.fetchStockDataAsync(
+                client, baseUrl, tickers, maxConcurrent, 1000, maxRetries));
+    }
+
+    private static Path csv(String ticker) {
+        return Paths.get("data/" + ticker + ".csv");
+    }
+
+    private static List<String> lines(String ticker) throws IOException {
+        return Files.readAllLines(csv(ticker));
+    }
+}
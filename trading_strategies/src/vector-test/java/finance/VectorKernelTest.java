@@ -0,0 +1,28 @@
+package finance;
+
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+// The SIMD aggregation against the scalar loop, compiled and run only with the "vector" profile
+
+class VectorKernelTest {
+
+    @Test
+    void matchesTheScalarKernelForEveryTickerCount() {
+        Random random = new Random(11);
+        for (int tickers = 0; tickers <= 200; tickers++) { // full vector steps and every length of tail
+            double[] returns = CrossSectionTest.randomReturns(random, tickers);
+            byte[] positions = CrossSectionTest.randomPositions(random, tickers);
+            CrossSection result = CrossSectionTest.aggregate(new VectorKernel(), returns, positions);
+            CrossSectionTest.assertAggregates(returns, positions, result, "tickers " + tickers);
+        }
+    }
+
+    @Test
+    void matchesTheScalarKernelWithoutPositions() {
+        double[] returns = CrossSectionTest.randomReturns(new Random(13), 100);
+        CrossSection result = CrossSectionTest.aggregate(new VectorKernel(), returns, new byte[100]);
+        CrossSectionTest.assertAggregates(returns, new byte[100], result, "all neutral");
+    }
+}
@@ -0,0 +1,53 @@
+package finance;
+
+import jdk.incubator.vector.ByteVector;
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+// SIMD cross-sectional aggregation, compiled only with the "vector" profile (mvn -Pvector) and loaded by
+// CrossSection when run with -Dvector=true --add-modules jdk.incubator.vector. Positions are widened from
+// bytes to doubles, so each lane multiplies its return by +1, -1 or 0. The lanes keep partial sums that
+// are added up at the end, so the daily sum may differ from the scalar loop in the last bits.
+
+final class VectorKernel implements CrossSection.Kernel {
+
+    private static final VectorSpecies<Double> DOUBLES = DoubleVector.SPECIES_PREFERRED;
+    // at least as many byte lanes as double lanes: 64 bits cover up to 8, wider shapes such as SVE use the widest
+    private static final VectorSpecies<Byte> BYTES = DOUBLES.length() <= ByteVector.SPECIES_64.length()
+            ? ByteVector.SPECIES_64 : ByteVector.SPECIES_MAX;
+    private static final int PARTS = BYTES.length() / DOUBLES.length(); // double vectors per byte vector, at least 1
+    private static final int STEP = PARTS * DOUBLES.length();           // tickers per iteration
+
+    @Override
+    public void aggregate(double[] returns, byte[] positions, CrossSection result) {
+        DoubleVector sums = DoubleVector.zero(DOUBLES);
+        int signals = 0;
+        int hits = 0;
+
+        int t = 0;
+        for (; t + BYTES.length() <= positions.length; t += STEP) {
+            ByteVector bytes = ByteVector.fromArray(BYTES, positions, t);
+            for (int part = 0; part < PARTS; part++) {
+                DoubleVector direction = (DoubleVector) bytes.convertShape(VectorOperators.B2D, DOUBLES, part);
+                DoubleVector signed = DoubleVector.fromArray(DOUBLES, returns, t + part * DOUBLES.length()).mul(direction);
+                sums = sums.add(signed);
+                signals += direction.compare(VectorOperators.NE, 0.0).trueCount();
+                hits += signed.compare(VectorOperators.GT, 0.0).trueCount(); // long and up, or short and down
+            }
+        }
+        double signedReturns = sums.reduceLanes(VectorOperators.ADD);
+
+        // Remaining tickers
+        for (; t < positions.length; t++) {
+            if (positions[t] == PriceSeries.NEUTRAL) continue;
+            double signed = positions[t] == PriceSeries.LONG ? returns[t] : -returns[t];
+            signals++;
+            if (signed > 0) hits++;
+            signedReturns += signed;
+        }
+        result.signedReturns = signedReturns;
+        result.signals = signals;
+        result.hits = hits;
+    }
+}